@@ -0,0 +1,130 @@
+#ifndef PUDDLEJUMPER_BOUNDED_QUEUE_H
+#define PUDDLEJUMPER_BOUNDED_QUEUE_H
+
+#include <condition_variable>
+#include <mutex>
+#include <vector>
+#include <stdint.h>
+#include <string.h>
+
+/**
+ * Bounded queue of fixed-size float frames between worker threads. Unlike SweepRing it
+ * takes a lock, so it must not be used from the audio callback.
+ *
+ * When it's full, push() either drops the oldest frame waiting (DROP_OLDEST), so the consumer
+ * always works on recent data, or waits for room (BLOCK), pushing back on the producer.
+ * close() wakes everyone: push() then fails, and pop() drains what's left before failing.
+ *
+ * A frame may carry a flag the consumer must not miss, at flag_index. Dropping a frame with
+ * its flag set passes the flag on to the frame after it, so it's seen one frame late instead
+ * of not at all.
+ */
+class BoundedQueue {
+public:
+    enum Policy {
+        DROP_OLDEST = 0,
+        BLOCK = 1
+    };
+
+    // flag_index is -1 if frames carry no flag
+    BoundedQueue(int capacity, int frame_size, Policy policy, int flag_index = -1) :
+            capacity(capacity),
+            frame_size(frame_size),
+            policy(policy),
+            flag_index(flag_index),
+            frames((size_t)capacity * frame_size),
+            timestamps(capacity) {}
+
+    // copies frame in; returns false if the queue was closed
+    bool push(const float *frame, int64_t timestamp_ns) {
+        std::unique_lock<std::mutex> lk(lock);
+        if(policy == BLOCK) {
+            while(count == capacity && !closed) {
+                not_full.wait(lk);
+            }
+        }
+        if(closed) {
+            return false;
+        }
+        float carried = 0;
+        if(count == capacity) {
+            if(flag_index >= 0) {
+                carried = frames[(size_t)first * frame_size + flag_index];
+            }
+            first = (first + 1) % capacity;
+            count--;
+            drops++;
+            if(carried != 0 && count > 0) {
+                frames[(size_t)first * frame_size + flag_index] = carried;
+                carried = 0;
+            }
+        }
+        int slot = (first + count) % capacity;
+        memcpy(&frames[(size_t)slot * frame_size], frame, frame_size * sizeof(float));
+        if(carried != 0) {
+            // nothing else was waiting: the new frame takes the flag
+            frames[(size_t)slot * frame_size + flag_index] = carried;
+        }
+        timestamps[slot] = timestamp_ns;
+        count++;
+        lk.unlock();
+        not_empty.notify_one();
+        return true;
+    }
+
+    // waits for the oldest frame and copies it into dst; returns false once closed and empty
+    bool pop(float *dst, int64_t *timestamp_ns) {
+        std::unique_lock<std::mutex> lk(lock);
+        while(count == 0 && !closed) {
+            not_empty.wait(lk);
+        }
+        if(count == 0) {
+            return false;
+        }
+        memcpy(dst, &frames[(size_t)first * frame_size], frame_size * sizeof(float));
+        *timestamp_ns = timestamps[first];
+        first = (first + 1) % capacity;
+        count--;
+        lk.unlock();
+        not_full.notify_one();
+        return true;
+    }
+
+    void close() {
+        {
+            std::lock_guard<std::mutex> lk(lock);
+            closed = true;
+        }
+        not_empty.notify_all();
+        not_full.notify_all();
+    }
+
+    // frames dropped by DROP_OLDEST
+    uint64_t dropped() {
+        std::lock_guard<std::mutex> lk(lock);
+        return drops;
+    }
+
+    int size() {
+        std::lock_guard<std::mutex> lk(lock);
+        return count;
+    }
+
+private:
+    int capacity;
+    int frame_size;
+    Policy policy;
+    int flag_index;
+    std::vector<float> frames;
+    std::vector<int64_t> timestamps;
+
+    std::mutex lock;
+    std::condition_variable not_empty;
+    std::condition_variable not_full;
+    int first = 0;
+    int count = 0;
+    bool closed = false;
+    uint64_t drops = 0;
+};
+
+#endif //PUDDLEJUMPER_BOUNDED_QUEUE_H
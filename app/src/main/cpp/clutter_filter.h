@@ -0,0 +1,91 @@
+#ifndef PUDDLEJUMPER_CLUTTER_FILTER_H
+#define PUDDLEJUMPER_CLUTTER_FILTER_H
+
+#include <vector>
+
+#include "fft.h"
+
+/**
+ * Removes static reflections from range profiles.
+ *
+ * Keeps an exponentially weighted average of each complex range bin. Subtracting it leaves
+ * whatever moved since, since a static reflector returns the same phase every sweep while a
+ * moving one doesn't. DIFFERENCE goes one step further and emits the change in that residual
+ * from the previous sweep, which shows only motion.
+ *
+ * Works in place on preallocated buffers: O(bins) per sweep and no allocation.
+ */
+class ClutterFilter {
+public:
+    enum Mode {
+        OFF = 0,
+        SUBTRACT = 1,
+        DIFFERENCE = 2
+    };
+
+    // alpha is the weight of each new sweep in the background, in (0, 1]
+    ClutterFilter(int bins, Mode mode, float alpha) :
+            bins(bins),
+            mode(mode),
+            alpha(alpha),
+            background(bins),
+            residual(bins),
+            previous(bins) {}
+
+    // forgets the background; the next sweep becomes it
+    void reset() {
+        primed = false;
+    }
+
+    /**
+     * Writes the magnitudes of the clutter-removed bins to out. The first sweep after a reset
+     * only seeds the background, and comes out as zeros.
+     */
+    void apply(const kiss_fft_cpx *bin, float *out) {
+        if(mode == OFF) {
+            band_magnitudes(bin, bins, out, false);
+            return;
+        }
+        if(!primed) {
+            for(int j = 0; j < bins; ++j) {
+                background[j] = bin[j];
+                previous[j].r = previous[j].i = 0;
+            }
+            primed = true;
+        }
+
+        for(int j = 0; j < bins; ++j) {
+            float r = bin[j].r - background[j].r;
+            float i = bin[j].i - background[j].i;
+            background[j].r += alpha * r;
+            background[j].i += alpha * i;
+
+            if(mode == DIFFERENCE) {
+                residual[j].r = r - previous[j].r;
+                residual[j].i = i - previous[j].i;
+                previous[j].r = r;
+                previous[j].i = i;
+            } else {
+                residual[j].r = r;
+                residual[j].i = i;
+            }
+        }
+        band_magnitudes(residual.data(), bins, out, false);
+    }
+
+    Mode get_mode() const {
+        return mode;
+    }
+
+private:
+    int bins;
+    Mode mode;
+    float alpha;
+    bool primed = false;
+
+    std::vector<kiss_fft_cpx> background;
+    std::vector<kiss_fft_cpx> residual;
+    std::vector<kiss_fft_cpx> previous;
+};
+
+#endif //PUDDLEJUMPER_CLUTTER_FILTER_H
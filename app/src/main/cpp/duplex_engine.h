@@ -0,0 +1,134 @@
+#ifndef PUDDLEJUMPER_DUPLEX_ENGINE_H
+#define PUDDLEJUMPER_DUPLEX_ENGINE_H
+
+#include <stdint.h>
+#include <string.h>
+#include <vector>
+
+#include "fmcw_processor.h"
+#include "fmcw_sweep.h"
+#include "sonar_config.h"
+
+/**
+ * Non-blocking source of captured audio, e.g. an input stream opened without a callback.
+ */
+class InputSource {
+public:
+    virtual ~InputSource() {}
+
+    // copies up to `frames` captured frames into dst without waiting; returns the number
+    // copied, or a negative error
+    virtual int read(float *dst, int frames) = 0;
+};
+
+/**
+ * Transmits and captures from one callback, so each sweep and its echo share a sample clock.
+ *
+ * The output callback generates the next block of chirp, then drains whatever the input
+ * stream has captured since the last callback into the processor. With both directions
+ * clocked by the same device, the capture can't drift against the transmission: once the
+ * pilot is found it stays found for the life of the streams.
+ *
+ * Input that arrives late is read on a later callback rather than padded, so the captured
+ * stream reaching the processor stays continuous even when callbacks jitter. Bursts can be
+ * shorter than the pilot, so until the pilot is found input is gathered into blocks of
+ * frames_per_callback before it is searched. Each search gets exactly one such block, the
+ * size the processor's correlator is planned for, and a backlog is searched block by block.
+ */
+class DuplexEngine {
+public:
+    // sink is an FMCWProcessor, or a SweepPipeline in front of one. max_input_frames bounds
+    // how much backlog one callback drains; at least frames_per_callback
+    DuplexEngine(const SonarConfig &config, CaptureSink *sink, int max_input_frames) :
+            fmcw(config.baseband_hz, config.bandwidth_hz, config.duration_millis, config.sample_rate,
+                 config.band_count, config.band_spacing_hz),
+            sink(sink),
+            search_frames(config.frames_per_callback),
+            sample_rate(config.sample_rate),
+            input(max_input_frames) {}
+
+    /**
+     * Fills output with `frames` frames of transmission, then processes captured input.
+     * end_ns is when the last captured frame was taken. Returns the number of sweeps completed.
+     */
+    int process(float *output, int frames, InputSource *source, int64_t end_ns) {
+        fmcw.generate(frames, output);
+        tx_frames += frames;
+
+        if(!primed) {
+            // anything captured before the first output went out predates the transmission
+            int n;
+            while((n = source->read(input.data(), (int)input.size())) > 0) {
+                drained_frames += n;
+            }
+            primed = true;
+            return 0;
+        }
+
+        int got = 0;
+        int n;
+        while(pending + got < (int)input.size() &&
+              (n = source->read(input.data() + pending + got, (int)input.size() - pending - got)) > 0) {
+            got += n;
+        }
+        if(got < frames) {
+            shortfalls++;
+        }
+        pending += got;
+        rx_frames += got;
+
+        int completed = 0;
+        int done = 0;
+        while(!sink->is_locked() && pending - done >= search_frames) {
+            done += search_frames;
+            int64_t age_ns = (int64_t)(pending - done) * 1000000000LL / sample_rate;
+            completed += sink->process(input.data() + done - search_frames, search_frames,
+                                       end_ns - age_ns);
+        }
+        if(sink->is_locked() && done < pending) {
+            completed += sink->process(input.data() + done, pending - done, end_ns);
+            done = pending;
+        }
+        // an unfinished search block waits for the next callback
+        pending -= done;
+        memmove(input.data(), input.data() + done, pending * sizeof(float));
+        return completed;
+    }
+
+    int64_t get_tx_frames() const {
+        return tx_frames;
+    }
+
+    // frames read from the input, including any still gathered for the pilot search
+    int64_t get_rx_frames() const {
+        return rx_frames;
+    }
+
+    // frames of stale input discarded when the streams started
+    int64_t get_drained_frames() const {
+        return drained_frames;
+    }
+
+    // callbacks that found less input waiting than they transmitted
+    uint64_t get_shortfalls() const {
+        return shortfalls;
+    }
+
+private:
+    FMCWSweepGenerator fmcw;
+    CaptureSink *sink;
+    int search_frames;
+    int sample_rate;
+
+    // captured frames not yet processed
+    std::vector<float> input;
+    int pending = 0;
+
+    bool primed = false;
+    int64_t tx_frames = 0;
+    int64_t rx_frames = 0;
+    int64_t drained_frames = 0;
+    uint64_t shortfalls = 0;
+};
+
+#endif //PUDDLEJUMPER_DUPLEX_ENGINE_H
@@ -0,0 +1,371 @@
+#ifndef PUDDLEJUMPER_FFT_H
+#define PUDDLEJUMPER_FFT_H
+
+#include <math.h>
+#include <stdlib.h>
+#include <string.h>
+#include <mutex>
+#include <vector>
+#include <kiss_fftr.h>
+
+#if defined(__ARM_NEON) || defined(__ARM_NEON__)
+#include <arm_neon.h>
+#define PUDDLEJUMPER_NEON 1
+#elif defined(__SSE2__)
+#include <emmintrin.h>
+#define PUDDLEJUMPER_SSE 1
+#endif
+
+/**
+ * Process-wide pool of kissfft real-FFT plans.
+ *
+ * Computing a plan's twiddles is the expensive part of kiss_fftr_alloc, and every capture
+ * start used to redo it. A plan also carries scratch space, so it can only be used by one
+ * thread at a time: acquire() hands out an idle plan of the right shape, allocating one only
+ * if none is free, and release() returns it to the pool. Plans are never freed.
+ */
+class FFTPlanCache {
+public:
+    static kiss_fftr_cfg acquire(int nfft, bool inverse) {
+        std::lock_guard<std::mutex> lk(lock());
+        std::vector<Entry> &pool = entries();
+        for(size_t k = 0; k < pool.size(); ++k) {
+            if(!pool[k].in_use && pool[k].nfft == nfft && pool[k].inverse == inverse) {
+                pool[k].in_use = true;
+                return pool[k].cfg;
+            }
+        }
+        Entry entry = {nfft, inverse, kiss_fftr_alloc(nfft, inverse ? 1 : 0, 0, 0), true};
+        pool.push_back(entry);
+        return entry.cfg;
+    }
+
+    static void release(kiss_fftr_cfg cfg) {
+        std::lock_guard<std::mutex> lk(lock());
+        std::vector<Entry> &pool = entries();
+        for(size_t k = 0; k < pool.size(); ++k) {
+            if(pool[k].cfg == cfg) {
+                pool[k].in_use = false;
+                return;
+            }
+        }
+    }
+
+    // number of distinct plans allocated so far
+    static int size() {
+        std::lock_guard<std::mutex> lk(lock());
+        return (int)entries().size();
+    }
+
+private:
+    struct Entry {
+        int nfft;
+        bool inverse;
+        kiss_fftr_cfg cfg;
+        bool in_use;
+    };
+
+    static std::mutex &lock() {
+        static std::mutex m;
+        return m;
+    }
+
+    static std::vector<Entry> &entries() {
+        static std::vector<Entry> pool;
+        return pool;
+    }
+};
+
+// Leases a plan from FFTPlanCache for the lifetime of the object.
+class FFTPlan {
+public:
+    FFTPlan(int nfft, bool inverse) : cfg(FFTPlanCache::acquire(nfft, inverse)) {}
+
+    ~FFTPlan() {
+        FFTPlanCache::release(cfg);
+    }
+
+    operator kiss_fftr_cfg() const {
+        return cfg;
+    }
+
+private:
+    kiss_fftr_cfg cfg;
+
+    FFTPlan(const FFTPlan&);
+    FFTPlan &operator=(const FFTPlan&);
+};
+
+/**
+ * out[j] = |bins[j]| for j in [0, count), or |bins[j]|^2 if squared. Vectorised with NEON or
+ * SSE where available; results are the same as the scalar path.
+ */
+static inline void band_magnitudes(const kiss_fft_cpx *bins, int count, float *out, bool squared) {
+    int j = 0;
+#if PUDDLEJUMPER_NEON
+    for(; j + 4 <= count; j += 4) {
+        float32x4x2_t ri = vld2q_f32((const float*)(bins + j));
+        float32x4_t mag2 = vmlaq_f32(vmulq_f32(ri.val[0], ri.val[0]), ri.val[1], ri.val[1]);
+#if defined(__aarch64__)
+        vst1q_f32(out + j, squared ? mag2 : vsqrtq_f32(mag2));
+#else
+        vst1q_f32(out + j, mag2);
+        if(!squared) {
+            for(int k = j; k < j + 4; ++k) {
+                out[k] = sqrtf(out[k]);
+            }
+        }
+#endif
+    }
+#elif PUDDLEJUMPER_SSE
+    for(; j + 4 <= count; j += 4) {
+        __m128 a = _mm_loadu_ps((const float*)(bins + j));
+        __m128 b = _mm_loadu_ps((const float*)(bins + j + 2));
+        __m128 re = _mm_shuffle_ps(a, b, _MM_SHUFFLE(2, 0, 2, 0));
+        __m128 im = _mm_shuffle_ps(a, b, _MM_SHUFFLE(3, 1, 3, 1));
+        __m128 mag2 = _mm_add_ps(_mm_mul_ps(re, re), _mm_mul_ps(im, im));
+        _mm_storeu_ps(out + j, squared ? mag2 : _mm_sqrt_ps(mag2));
+    }
+#endif
+    for(; j < count; ++j) {
+        float mag2 = bins[j].r * bins[j].r + bins[j].i * bins[j].i;
+        out[j] = squared ? mag2 : sqrtf(mag2);
+    }
+}
+
+/**
+ * Turns one sweep into the complex spectrum of the transmitted band, i.e. FFT bins
+ * [first_bin, first_bin + count) of the sweep zero-padded to nfft samples.
+ */
+class RangeTransform {
+public:
+    enum Backend {
+        KISS = 0,       // full kissfft real transform, then pick out the band
+        BAND_DFT = 1,   // direct DFT of only the band's bins
+        CHIRP_Z = 2     // Bluestein zoom transform of only the band's bins
+    };
+
+    RangeTransform(int nfft, int first_bin, int count) :
+            nfft(nfft), first_bin(first_bin), count(count) {}
+
+    virtual ~RangeTransform() {}
+
+    /**
+     * sweep holds `length` samples, length <= nfft; the rest is taken to be zero.
+     * Returns `count` bins, valid until the next call.
+     */
+    virtual const kiss_fft_cpx *transform(const float *sweep, int length) = 0;
+
+    void magnitudes(const float *sweep, int length, float *out, bool squared = false) {
+        band_magnitudes(transform(sweep, length), count, out, squared);
+    }
+
+    int get_bin_count() const {
+        return count;
+    }
+
+    // max_length is the longest sweep transform() will be given; 0 means nfft
+    static RangeTransform *create(Backend backend, int nfft, int first_bin, int count,
+                                  int max_length = 0);
+
+protected:
+    int nfft;
+    int first_bin;
+    int count;
+};
+
+class KissRangeTransform : public RangeTransform {
+public:
+    KissRangeTransform(int nfft, int first_bin, int count) :
+            RangeTransform(nfft, first_bin, count),
+            plan(nfft, false),
+            padded(nfft, 0.0f),
+            spectrum(nfft / 2 + 1) {}
+
+    const kiss_fft_cpx *transform(const float *sweep, int length) {
+        const float *in = sweep;
+        if(length < nfft) {
+            // the tail of padded is never written, so it stays zero
+            memcpy(padded.data(), sweep, length * sizeof(float));
+            in = padded.data();
+        }
+        kiss_fftr(plan, in, spectrum.data());
+        return &spectrum[first_bin];
+    }
+
+private:
+    FFTPlan plan;
+    std::vector<float> padded;
+    std::vector<kiss_fft_cpx> spectrum;
+};
+
+/**
+ * Correlates the sweep against each band bin's complex exponential directly. Costs
+ * O(count * length) rather than O(nfft log nfft), so it wins for narrow bands or heavy
+ * zero padding, where most of a full FFT's output is thrown away.
+ */
+class BandDFTRangeTransform : public RangeTransform {
+public:
+    BandDFTRangeTransform(int nfft, int first_bin, int count) :
+            RangeTransform(nfft, first_bin, count),
+            twiddles(2 * nfft),
+            bins(count) {
+        for(int k = 0; k < nfft; ++k) {
+            double angle = -2 * M_PI * k / nfft;
+            twiddles[2 * k] = (float)cos(angle);
+            twiddles[2 * k + 1] = (float)sin(angle);
+        }
+    }
+
+    const kiss_fft_cpx *transform(const float *sweep, int length) {
+        for(int b = 0; b < count; ++b) {
+            int step = first_bin + b;
+            int k = 0;
+            float re = 0, im = 0;
+            for(int n = 0; n < length; ++n) {
+                re += sweep[n] * twiddles[2 * k];
+                im += sweep[n] * twiddles[2 * k + 1];
+                k += step;
+                if(k >= nfft) {
+                    k -= nfft;
+                }
+            }
+            bins[b].r = re;
+            bins[b].i = im;
+        }
+        return bins.data();
+    }
+
+private:
+    std::vector<float> twiddles;
+    std::vector<kiss_fft_cpx> bins;
+};
+
+/**
+ * Evaluates only the band's bins with Bluestein's chirp-z algorithm: the DFT becomes a
+ * convolution with a chirp, done with complex FFTs of the smallest power of two that holds
+ * length + count - 1 samples. The cost follows the sweep length and the number of bins, not
+ * nfft, so zooming in by padding nfft costs little more than the unpadded transform.
+ */
+class ChirpZRangeTransform : public RangeTransform {
+public:
+    ChirpZRangeTransform(int nfft, int first_bin, int count, int max_length) :
+            RangeTransform(nfft, first_bin, count),
+            max_length(max_length),
+            size(convolution_size(max_length + count - 1)),
+            forward(kiss_fft_alloc(size, 0, 0, 0)),
+            inverse(kiss_fft_alloc(size, 1, 0, 0)),
+            pre(max_length),
+            post(count),
+            kernel(size),
+            work(size),
+            spectrum(size) {
+        // X[k] = post[k] * sum_n (x[n] * pre[n]) * h[k - n], from
+        // (first_bin + k) n = first_bin n + (n^2 + k^2 - (k - n)^2) / 2
+        for(int n = 0; n < max_length; ++n) {
+            pre[n] = chirp(-((long long)n * n + 2LL * first_bin * n));
+        }
+        for(int k = 0; k < count; ++k) {
+            post[k] = chirp(-(long long)k * k);
+        }
+
+        // h[m] for m in (-max_length, count), negative lags wrapped to the end, stored as
+        // its spectrum with the inverse transform's 1 / size folded in
+        std::vector<kiss_fft_cpx> h(size);
+        for(int m = 0; m < size; ++m) {
+            h[m].r = h[m].i = 0;
+        }
+        for(int m = 0; m < count; ++m) {
+            h[m] = chirp((long long)m * m);
+        }
+        for(int m = 1; m < max_length; ++m) {
+            h[size - m] = chirp((long long)m * m);
+        }
+        kiss_fft(forward, h.data(), kernel.data());
+        for(int m = 0; m < size; ++m) {
+            kernel[m].r /= size;
+            kernel[m].i /= size;
+        }
+    }
+
+    ~ChirpZRangeTransform() {
+        kiss_fft_free(forward);
+        kiss_fft_free(inverse);
+    }
+
+    // length must not exceed max_length
+    const kiss_fft_cpx *transform(const float *sweep, int length) {
+        for(int n = 0; n < length; ++n) {
+            work[n].r = sweep[n] * pre[n].r;
+            work[n].i = sweep[n] * pre[n].i;
+        }
+        for(int n = length; n < size; ++n) {
+            work[n].r = work[n].i = 0;
+        }
+        kiss_fft(forward, work.data(), spectrum.data());
+        for(int m = 0; m < size; ++m) {
+            float r = spectrum[m].r * kernel[m].r - spectrum[m].i * kernel[m].i;
+            float i = spectrum[m].r * kernel[m].i + spectrum[m].i * kernel[m].r;
+            spectrum[m].r = r;
+            spectrum[m].i = i;
+        }
+        kiss_fft(inverse, spectrum.data(), work.data());
+        for(int k = 0; k < count; ++k) {
+            float r = work[k].r * post[k].r - work[k].i * post[k].i;
+            float i = work[k].r * post[k].i + work[k].i * post[k].r;
+            work[k].r = r;
+            work[k].i = i;
+        }
+        return work.data();
+    }
+
+    // length of the complex FFTs each transform() runs two of
+    int get_convolution_size() const {
+        return size;
+    }
+
+private:
+    int max_length;
+    int size;
+    kiss_fft_cfg forward;
+    kiss_fft_cfg inverse;
+    std::vector<kiss_fft_cpx> pre;
+    std::vector<kiss_fft_cpx> post;
+    std::vector<kiss_fft_cpx> kernel;
+    std::vector<kiss_fft_cpx> work;
+    std::vector<kiss_fft_cpx> spectrum;
+
+    static int convolution_size(int n) {
+        int size = 1;
+        while(size < n) {
+            size <<= 1;
+        }
+        return size;
+    }
+
+    // exp(i pi e / nfft), with e reduced first so large squares keep their precision
+    kiss_fft_cpx chirp(long long e) const {
+        e %= 2LL * nfft;
+        double angle = M_PI * e / nfft;
+        kiss_fft_cpx c;
+        c.r = (float)cos(angle);
+        c.i = (float)sin(angle);
+        return c;
+    }
+
+    ChirpZRangeTransform(const ChirpZRangeTransform&);
+    ChirpZRangeTransform &operator=(const ChirpZRangeTransform&);
+};
+
+inline RangeTransform *RangeTransform::create(Backend backend, int nfft, int first_bin, int count,
+                                              int max_length) {
+    if(backend == BAND_DFT) {
+        return new BandDFTRangeTransform(nfft, first_bin, count);
+    }
+    if(backend == CHIRP_Z) {
+        return new ChirpZRangeTransform(nfft, first_bin, count, max_length > 0 ? max_length : nfft);
+    }
+    return new KissRangeTransform(nfft, first_bin, count);
+}
+
+#endif //PUDDLEJUMPER_FFT_H
@@ -0,0 +1,557 @@
+#ifndef PUDDLEJUMPER_FMCW_PROCESSOR_H
+#define PUDDLEJUMPER_FMCW_PROCESSOR_H
+
+#include <math.h>
+#include <stdint.h>
+#include <string.h>
+#include <algorithm>
+#include <atomic>
+#include <vector>
+
+#include "clutter_filter.h"
+#include "fft.h"
+#include "fmcw_sweep.h"
+#include "phase_ranging.h"
+#include "pilot_correlator.h"
+#include "pipeline_stats.h"
+#include "range_tracker.h"
+#include "sonar_config.h"
+#include "sweep_aligner.h"
+#include "sweep_ring.h"
+
+/**
+ * Where captured audio goes: straight into an FMCWProcessor, or into a SweepPipeline that
+ * runs one on worker threads.
+ */
+class CaptureSink {
+public:
+    virtual ~CaptureSink() {}
+
+    /**
+     * Consumes one block of audio whose last sample was captured at end_ns. Returns the
+     * number of sweeps that completed in it, or 0 if they complete elsewhere.
+     */
+    virtual int process(const float *audio, int num_frames, int64_t end_ns) = 0;
+
+    // true once the pilot has been found, until the lock is lost; safe from any thread
+    virtual bool is_locked() const = 0;
+};
+
+/**
+ * Takes each sweep's band from FMCWProcessor::process() so FMCWProcessor::analyze() can run
+ * on another thread.
+ */
+class BandSink {
+public:
+    virtual ~BandSink() {}
+
+    // count complex bins; restart marks the first sweep after the pilot was (re)found
+    virtual void push_band(const kiss_fft_cpx *band, int count, int64_t timestamp_ns,
+                           bool restart) = 0;
+};
+
+/**
+ * The FMCW receive chain, independent of where the audio comes from: finds the pilot, cuts
+ * the stream into sweeps, and pushes each sweep's range profile, with static clutter removed
+ * if configured, into a SweepRing. A RangeTracker follows reflectors through the profiles,
+ * and its tracks are published through a second ring. Optionally, PhaseRanging follows the
+ * phase of a few cells for sub-millimetre displacement, on a third, low-rate ring.
+ *
+ * With several bands (SonarConfig::band_count), the pilot search looks for all the bands'
+ * pilots together, and a match only counts if each band's own pilot is there too, so
+ * another device's chirps in some of the bands can't be mistaken for ours. One range
+ * transform per sweep spans all the bands, and each band's bins are cut from it. Bands share
+ * the chirp slope, so bin j is the same range in each. Every band gets its own clutter
+ * removal, and the per-band profiles are published on a ring of their own. The profile on
+ * the main ring, which the tracker and display follow, is the lower median of the bands at
+ * each bin: a band swamped by another device's chirps is outvoted, as long as no more than
+ * half of them are.
+ *
+ * The full pilot search only runs until the pilot is found. After that, each sweep's start
+ * is checked against the chirp in a small window (see SweepAligner): small slips, from frames
+ * the input dropped or repeated, are corrected on the next sweep, and a lock that stays lost
+ * for a few sweeps falls back to the full search.
+ *
+ * Each sweep goes through two halves: process() cuts and transforms it, analyze() removes
+ * clutter, tracks and publishes it. Normally process() calls analyze() itself; with a
+ * BandSink set, the halves can run on different threads (see SweepPipeline).
+ *
+ * FMCWListener feeds it from the Oboe callback; replay tools and tests feed it recorded
+ * audio as fast as it will go, with timestamps derived from the sample count.
+ */
+class FMCWProcessor : public CaptureSink {
+public:
+    // max_frames is the largest block process() will usually see; larger ones still work
+    FMCWProcessor(const SonarConfig &config, int max_frames, int ring_capacity) :
+            config(config),
+            fmcw(config.baseband_hz, config.bandwidth_hz, config.duration_millis, config.sample_rate,
+                 config.band_count, config.band_spacing_hz),
+            pilot(config.pilot_samples()),
+            sweepBuffer(SweepAligner::WINDOW + config.duration_samples() + SweepAligner::WINDOW),
+            alignment(ALIGN_STRIDE),
+            band_bins(config.band_count > 1 ? config.bands_bin_count() : 0),
+            clutter(config.bands_bin_count(), (ClutterFilter::Mode)config.clutter_mode,
+                    config.clutter_alpha()),
+            dropped(config.bin_count()),
+            band_profiles(config.band_count > 1 ? config.bands_bin_count() : 0),
+            tracker(config.bin_count(), config.meters_per_bin(), config.sweep_interval_secs(),
+                    config.zoom_factor()),
+            tracks(TRACK_FRAME_FLOATS),
+            phase(config),
+            sweeps(ring_capacity, config.bin_count()),
+            band_sweeps(config.band_count > 1 ? ring_capacity : 1, config.bands_bin_count()) {
+        range = RangeTransform::create(
+                (RangeTransform::Backend)config.fft_backend,
+                config.fft_size(), config.baseband_bin(), config.span_bin_count(),
+                config.duration_samples()
+        );
+        fmcw.generate((int)pilot.size(), pilot.data());
+        correlator = new PilotCorrelator(pilot.data(), (int)pilot.size(), max_frames);
+        if(config.band_count > 1) {
+            int width = (int)pilot.size();
+            band_pilots.resize(config.band_count * width);
+            for(int b = 0; b < config.band_count; ++b) {
+                FMCWSweepGenerator band(config.band_baseband_hz(b), config.bandwidth_hz,
+                                        config.duration_millis, config.sample_rate);
+                band.generate(width, &band_pilots[b * width]);
+            }
+        }
+        aligner = new SweepAligner(fmcw.get_period().data(), config.duration_samples());
+        publish_alignment(0);
+    }
+
+    ~FMCWProcessor() {
+        delete range;
+        delete correlator;
+        delete aligner;
+    }
+
+    /**
+     * Consumes one block of audio whose last sample was captured at end_ns.
+     * Returns the number of sweeps that completed in it, including dropped ones.
+     */
+    int process(const float *audio, int num_frames, int64_t end_ns) {
+        int completed = 0;
+
+        if(sweepOffset == -1) {
+            // detect pilot sequence
+
+            int offset;
+            float similarity;
+            {
+                StageTimer timer(stats, PipelineStats::PILOT_SEARCH);
+                similarity = correlator->find(audio, num_frames, &offset);
+            }
+
+            if(similarity > PILOT_THRESHOLD && bands_present(&audio[offset])) {
+                sweepOffset = offset;
+                pilot_similarity.store(similarity, std::memory_order_relaxed);
+                pilot_position.store(samples_seen + offset, std::memory_order_relaxed);
+                locked.store(true, std::memory_order_relaxed);
+                restart = true;
+                t_samples = 0;
+                resting = false;
+                lead_valid = false;
+                rest_adjust = 0;
+                misses = 0;
+            }
+        }
+
+        if(sweepOffset != -1) {
+            // pilot sequence detected, collect sweep
+
+            int duration_samples = config.duration_samples();
+            // sweeps are cut after WINDOW samples of lead, the tail of the rest before them
+            float *sweep = &sweepBuffer[SweepAligner::WINDOW];
+            bool lost = false;
+
+            while(sweepOffset < num_frames && !lost) {
+                int target = resting ? duration_samples + rest_adjust : duration_samples;
+                int n = std::min(num_frames - sweepOffset, target - t_samples);
+                memcpy(&sweep[t_samples], &audio[sweepOffset], n * sizeof(float));
+                sweepOffset += n;
+                t_samples += n;
+
+                if(t_samples == target && resting) {
+                    // keep the end of the rest as lead for checking the next chirp's start
+                    memcpy(sweepBuffer.data(), &sweep[target - SweepAligner::WINDOW],
+                           SweepAligner::WINDOW * sizeof(float));
+                    lead_valid = true;
+                    rest_adjust = 0;
+                }
+
+                // full sweep collected: process
+                if(t_samples == target) {
+
+                    if(!resting) {
+                        if(lead_valid) {
+                            lost = !check_alignment(sweep);
+                        }
+
+                        int64_t age_ns = (int64_t)(num_frames - sweepOffset)
+                                         * 1000000000LL / config.sample_rate;
+                        int64_t timestamp_ns = end_ns - age_ns;
+
+                        const kiss_fft_cpx *band;
+                        {
+                            StageTimer timer(stats, PipelineStats::RANGE_TRANSFORM);
+                            band = cut_bands(range->transform(sweep, duration_samples));
+                        }
+                        publish_alignment(timestamp_ns);
+                        if(band_sink) {
+                            band_sink->push_band(band, config.bands_bin_count(), timestamp_ns,
+                                                 restart);
+                        } else {
+                            analyze(band, timestamp_ns, restart);
+                        }
+                        restart = false;
+                        completed++;
+                    }
+
+                    t_samples = 0;
+                    resting = !resting;
+                }
+            }
+
+            // a lost lock starts the full search again from the next block
+            if(lost) {
+                sweepOffset = -1;
+                locked.store(false, std::memory_order_relaxed);
+                publish_alignment(end_ns);
+            } else {
+                sweepOffset = 0;
+            }
+        }
+
+        samples_seen += num_frames;
+        return completed;
+    }
+
+    /**
+     * The second half of the chain for one sweep's bands, SonarConfig::bands_bin_count()
+     * complex bins, band 0 first: phase ranging, clutter removal, tracking, and publishing the
+     * profiles. Phase ranging follows band 0. restart marks the first sweep after the pilot was
+     * (re)found. Called by process() unless a BandSink is set.
+     */
+    void analyze(const kiss_fft_cpx *band, int64_t timestamp_ns, bool restart) {
+        if(restart) {
+            // the scene may have moved while the lock was lost: nothing carries across the gap
+            clutter.reset();
+            tracker.reset();
+            phase.reset();
+        }
+        // a full ring means the consumer is behind: the sweep isn't published, but the
+        // clutter background and the tracks still follow it
+        float *frame = sweeps.begin_write();
+        float *profile = frame ? frame : dropped.data();
+        if(phase.enabled()) {
+            phase.update(band, timestamp_ns);
+        }
+        if(config.band_count > 1) {
+            float *bands = band_sweeps.begin_write();
+            float *per_band = bands ? bands : band_profiles.data();
+            clutter.apply(band, per_band);
+            fuse_bands(per_band, profile);
+            if(bands) {
+                band_sweeps.end_write(timestamp_ns);
+            }
+        } else {
+            clutter.apply(band, profile);
+        }
+        tracker.update(profile, timestamp_ns);
+        publish_tracks(timestamp_ns);
+        if(frame) {
+            sweeps.end_write(timestamp_ns);
+        }
+    }
+
+    /**
+     * Hands bands to sink rather than analysing them in process(); the sink's owner must then
+     * call analyze() with each, in order, from one thread. NULL analyses inline again. Set
+     * before the first process().
+     */
+    void set_band_sink(BandSink *sink) {
+        band_sink = sink;
+    }
+
+    /**
+     * Pops the oldest unread sweep into dst. Returns its sequence number, or that of the last
+     * sweep returned if none is waiting. Must only be called from one thread at a time.
+     */
+    uint64_t poll_magnitudes(float *dst) {
+        sweeps.read(dst, &last_sweep);
+        return last_sweep.sequence;
+    }
+
+    /**
+     * Pops the oldest unread sweep's per-band profiles into out, SonarConfig::bands_bin_count()
+     * floats, band 0 first. Returns false if none is waiting, and always with a single band,
+     * whose profile is the one poll_magnitudes() returns. Must only be called from one thread.
+     */
+    bool poll_bands(float *out, SweepInfo *info) {
+        return config.band_count > 1 && band_sweeps.read(out, info);
+    }
+
+    int64_t get_sweep_timestamp() const {
+        return last_sweep.timestamp_ns;
+    }
+
+    uint64_t get_overruns() const {
+        return sweeps.overruns();
+    }
+
+    int available() const {
+        return sweeps.available();
+    }
+
+    /**
+     * Copies the latest track snapshot into out, which must hold RangeTracker::MAX_TRACKS *
+     * RangeTracker::TRACK_STRIDE floats, and returns the number of tracks. Returns the last
+     * snapshot again if no sweep has completed since. Must only be called from one thread.
+     */
+    int poll_tracks(float *out) {
+        tracks.update();
+        const float *frame = tracks.read_frame();
+        int count = (int)frame[0];
+        memcpy(out, frame + 1, count * RangeTracker::TRACK_STRIDE * sizeof(float));
+        return count;
+    }
+
+    // capture time of the sweep behind the last poll_tracks() snapshot
+    int64_t get_tracks_timestamp() const {
+        return tracks.read_info().timestamp_ns;
+    }
+
+    /**
+     * Pops the oldest unread fine-ranging output into out, PhaseRanging::STRIDE floats for
+     * each configured cell. Returns false if none is waiting. Must only be called from one
+     * thread.
+     */
+    bool poll_phase(float *out, SweepInfo *info) {
+        return phase.poll(out, info);
+    }
+
+    /**
+     * Copies the latest alignment metrics into out, which must hold ALIGN_STRIDE floats.
+     * Must only be called from one thread.
+     */
+    void poll_alignment(float *out) {
+        alignment.update();
+        memcpy(out, alignment.read_frame(), ALIGN_STRIDE * sizeof(float));
+    }
+
+    // capture time of the last sweep checked before the last poll_alignment() snapshot
+    int64_t get_alignment_timestamp() const {
+        return alignment.read_info().timestamp_ns;
+    }
+
+    bool is_locked() const {
+        return locked.load(std::memory_order_relaxed);
+    }
+
+    // correlation of the detected pilot, and the sample (counted from the first block) it starts at
+    float get_pilot_similarity() const {
+        return pilot_similarity.load(std::memory_order_relaxed);
+    }
+
+    int64_t get_pilot_position() const {
+        return pilot_position.load(std::memory_order_relaxed);
+    }
+
+    // pilot searches too long for the FFT correlator; read from the thread calling process()
+    uint64_t get_direct_searches() const {
+        return correlator->get_direct_searches();
+    }
+
+    const SonarConfig &get_config() const {
+        return config;
+    }
+
+    // times pilot search and range transforms into stats while it's enabled; NULL stops
+    void set_stats(PipelineStats *stats) {
+        this->stats = stats;
+    }
+
+    // poll_alignment() writes these floats, in this order
+    static const int ALIGN_LOCKED = 0;          // 1 while sweeps are being cut, else 0
+    static const int ALIGN_SIMILARITY = 1;      // of the last sweep with the chirp, -1 to 1
+    static const int ALIGN_OFFSET = 2;          // samples the last sweep was off by
+    static const int ALIGN_DRIFT = 3;           // sum of the corrections made, in samples
+    static const int ALIGN_CORRECTIONS = 4;     // sweeps that needed a correction
+    static const int ALIGN_RELOCKS = 5;         // times the lock was lost and searched for again
+    static const int ALIGN_STRIDE = 6;
+
+private:
+    // checks a chirp that just finished; returns false once the lock counts as lost
+    bool check_alignment(const float *sweep) {
+        int offset;
+        float similarity;
+        {
+            StageTimer timer(stats, PipelineStats::ALIGNMENT_CHECK);
+            similarity = aligner->check(sweep, &offset);
+        }
+        last_alignment = similarity;
+        last_offset = offset;
+
+        if(similarity < ALIGN_THRESHOLD) {
+            if(++misses < ALIGN_MAX_MISSES) {
+                return true;
+            }
+            relocks++;
+            lead_valid = false;
+            return false;
+        }
+        misses = 0;
+        if(offset != 0) {
+            // the next chirp starts offset samples later than planned: stretch or shorten the
+            // rest before it to match
+            rest_adjust = offset;
+            drift += offset;
+            corrections++;
+        }
+        return true;
+    }
+
+    /**
+     * Whether every band's pilot is in the window the search matched. Each of N equal bands
+     * holds 1 / N of the window's energy, so alone it reaches a similarity of 1 / sqrt(N);
+     * a band another device chirps in but we don't reaches about none.
+     */
+    bool bands_present(const float *window) {
+        if(config.band_count == 1) {
+            return true;
+        }
+        int width = (int)pilot.size();
+        double window_ssq = 0;
+        for(int n = 0; n < width; ++n) {
+            window_ssq += (double)window[n] * window[n];
+        }
+        float threshold = PILOT_THRESHOLD / sqrtf((float)config.band_count);
+        for(int b = 0; b < config.band_count; ++b) {
+            const float *p = &band_pilots[b * width];
+            double dot = 0, pilot_ssq = 0;
+            for(int n = 0; n < width; ++n) {
+                dot += (double)p[n] * window[n];
+                pilot_ssq += (double)p[n] * p[n];
+            }
+            if(dot < threshold * sqrt(pilot_ssq * window_ssq)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // picks each band's bins out of the transform spanning them all, band 0 first
+    const kiss_fft_cpx *cut_bands(const kiss_fft_cpx *span) {
+        if(config.band_count == 1) {
+            return span;
+        }
+        int bins = config.bin_count();
+        for(int b = 0; b < config.band_count; ++b) {
+            memcpy(&band_bins[b * bins], &span[config.band_offset(b)], bins * sizeof(kiss_fft_cpx));
+        }
+        return band_bins.data();
+    }
+
+    // out[j] is the lower median of the bands' bin j: the smaller of two, the middle of three
+    void fuse_bands(const float *per_band, float *out) {
+        int bins = config.bin_count();
+        int count = config.band_count;
+        float v[SonarConfig::MAX_BANDS];
+        for(int j = 0; j < bins; ++j) {
+            // insertion sort; there are at most MAX_BANDS
+            for(int b = 0; b < count; ++b) {
+                float x = per_band[b * bins + j];
+                int k = b;
+                while(k > 0 && v[k - 1] > x) {
+                    v[k] = v[k - 1];
+                    k--;
+                }
+                v[k] = x;
+            }
+            out[j] = v[(count - 1) / 2];
+        }
+    }
+
+    void publish_alignment(int64_t timestamp_ns) {
+        float *frame = alignment.write_frame();
+        frame[ALIGN_LOCKED] = sweepOffset != -1 ? 1.0f : 0.0f;
+        frame[ALIGN_SIMILARITY] = last_alignment;
+        frame[ALIGN_OFFSET] = (float)last_offset;
+        frame[ALIGN_DRIFT] = (float)drift;
+        frame[ALIGN_CORRECTIONS] = (float)corrections;
+        frame[ALIGN_RELOCKS] = (float)relocks;
+        alignment.publish(timestamp_ns);
+    }
+
+    void publish_tracks(int64_t timestamp_ns) {
+        float *frame = tracks.write_frame();
+        frame[0] = (float)tracker.snapshot(frame + 1);
+        tracks.publish(timestamp_ns);
+    }
+
+    static constexpr float PILOT_THRESHOLD = 0.5f;
+    // the similarity a locked sweep must reach to count as aligned, and how many misses in a
+    // row lose the lock
+    static constexpr float ALIGN_THRESHOLD = 0.5f;
+    static const int ALIGN_MAX_MISSES = 3;
+
+    // a track frame is the track count followed by the tracks
+    static const int TRACK_FRAME_FLOATS = 1 + RangeTracker::MAX_TRACKS * RangeTracker::TRACK_STRIDE;
+
+    SonarConfig config;
+
+    RangeTransform *range;
+
+    FMCWSweepGenerator fmcw;
+    std::vector<float> pilot;
+    PilotCorrelator *correlator;
+    // each band's own pilot, when there's more than one
+    std::vector<float> band_pilots;
+
+    int sweepOffset = -1;
+    int64_t samples_seen = 0;
+    // read by other threads
+    std::atomic<bool> locked{false};
+    std::atomic<float> pilot_similarity{0};
+    std::atomic<int64_t> pilot_position{-1};
+
+    // WINDOW samples of lead, then the sweep or rest being collected
+    std::vector<float> sweepBuffer;
+    int t_samples = 0;
+    bool resting = false;
+
+    SweepAligner *aligner;
+    bool lead_valid = false;
+    int rest_adjust = 0;
+    int misses = 0;
+    bool restart = false;
+    float last_alignment = 0;
+    int last_offset = 0;
+    int64_t drift = 0;
+    uint64_t corrections = 0;
+    uint64_t relocks = 0;
+    LatestFrame alignment;
+
+    // each band's bins back to back, when there's more than one
+    std::vector<kiss_fft_cpx> band_bins;
+
+    ClutterFilter clutter;
+    std::vector<float> dropped;
+    std::vector<float> band_profiles;
+
+    RangeTracker tracker;
+    LatestFrame tracks;
+
+    PhaseRanging phase;
+
+    SweepRing sweeps;
+    SweepInfo last_sweep = {0, 0};
+    // per-band profiles; unused with a single band
+    SweepRing band_sweeps;
+
+    PipelineStats *stats = NULL;
+    BandSink *band_sink = NULL;
+};
+
+#endif //PUDDLEJUMPER_FMCW_PROCESSOR_H
@@ -0,0 +1,197 @@
+// JNI bindings for edu.washington.cs.puddlejumper.FMCWReplay: the FMCW receive chain driven
+// from recorded audio. Nothing here depends on Oboe, so the same file is built into
+// native-lib on the device and into a host library for JVM tests (see src/test/cpp).
+
+#include <jni.h>
+#include <algorithm>
+#include <vector>
+
+#include "fmcw_processor.h"
+#include "jni_config.h"
+
+// sweeps a replay can hold before the caller drains them, ~40 s of audio at the defaults
+#define REPLAY_RING_CAPACITY 1024
+
+struct ReplaySession {
+    ReplaySession(const SonarConfig &config) :
+            processor(config, config.frames_per_callback, REPLAY_RING_CAPACITY),
+            block(config.frames_per_callback),
+            profile(config.bin_count()),
+            bands(config.bands_bin_count()) {}
+
+    FMCWProcessor processor;
+    std::vector<float> block;
+    std::vector<float> profile;
+    std::vector<float> bands;
+    SweepInfo bands_info = {0, 0};
+    float tracks[RangeTracker::MAX_TRACKS * RangeTracker::TRACK_STRIDE];
+    float phase[SonarConfig::MAX_PHASE_CELLS * PhaseRanging::STRIDE];
+    SweepInfo phase_info = {0, 0};
+    float alignment[FMCWProcessor::ALIGN_STRIDE];
+    int64_t samples = 0;
+};
+
+static ReplaySession *get_replay(jlong handle) {
+    return reinterpret_cast<ReplaySession*>(handle);
+}
+
+extern "C"
+JNIEXPORT jlong
+JNICALL
+Java_edu_washington_cs_puddlejumper_FMCWReplay_create(
+        JNIEnv *env, jclass, jobject config
+) {
+    return reinterpret_cast<jlong>(new ReplaySession(read_config(env, config)));
+}
+
+extern "C"
+JNIEXPORT void
+JNICALL
+Java_edu_washington_cs_puddlejumper_FMCWReplay_destroy(
+        JNIEnv *, jclass, jlong handle
+) {
+    delete get_replay(handle);
+}
+
+/**
+ * Feeds audio[offset, offset + length) through the processor in callback-sized blocks,
+ * timestamped as if capture had started at 0 ns. Returns the number of sweeps completed.
+ */
+extern "C"
+JNIEXPORT jint
+JNICALL
+Java_edu_washington_cs_puddlejumper_FMCWReplay_process(
+        JNIEnv *env, jclass, jlong handle, jfloatArray audio, jint offset, jint length
+) {
+    ReplaySession *replay = get_replay(handle);
+    int sample_rate = replay->processor.get_config().sample_rate;
+    int block = (int)replay->block.size();
+
+    int completed = 0;
+    for(int i = 0; i < length; i += block) {
+        int n = std::min(block, length - i);
+        env->GetFloatArrayRegion(audio, offset + i, n, replay->block.data());
+        if(env->ExceptionCheck()) {
+            return completed;
+        }
+        replay->samples += n;
+        int64_t end_ns = replay->samples * 1000000000LL / sample_rate;
+        completed += replay->processor.process(replay->block.data(), n, end_ns);
+    }
+    return completed;
+}
+
+/**
+ * Pops the oldest sweep's range profile into magnitudes. Returns its sequence number, or 0 if
+ * no sweep is waiting.
+ */
+extern "C"
+JNIEXPORT jlong
+JNICALL
+Java_edu_washington_cs_puddlejumper_FMCWReplay_nextSweep(
+        JNIEnv *env, jclass, jlong handle, jfloatArray magnitudes
+) {
+    ReplaySession *replay = get_replay(handle);
+    if(replay->processor.available() == 0) {
+        return 0;
+    }
+    jlong sequence = (jlong)replay->processor.poll_magnitudes(replay->profile.data());
+    env->SetFloatArrayRegion(magnitudes, 0, (jsize)replay->profile.size(), replay->profile.data());
+    return sequence;
+}
+
+extern "C"
+JNIEXPORT jlong
+JNICALL
+Java_edu_washington_cs_puddlejumper_FMCWReplay_getSweepTimestamp(
+        JNIEnv *, jclass, jlong handle
+) {
+    return get_replay(handle)->processor.get_sweep_timestamp();
+}
+
+extern "C"
+JNIEXPORT jlong
+JNICALL
+Java_edu_washington_cs_puddlejumper_FMCWReplay_getPilotPosition(
+        JNIEnv *, jclass, jlong handle
+) {
+    return get_replay(handle)->processor.get_pilot_position();
+}
+
+extern "C"
+JNIEXPORT jlong
+JNICALL
+Java_edu_washington_cs_puddlejumper_FMCWReplay_getOverruns(
+        JNIEnv *, jclass, jlong handle
+) {
+    return (jlong)get_replay(handle)->processor.get_overruns();
+}
+
+extern "C"
+JNIEXPORT jint
+JNICALL
+Java_edu_washington_cs_puddlejumper_FMCWReplay_pollTracks(
+        JNIEnv *env, jclass, jlong handle, jfloatArray tracks
+) {
+    ReplaySession *replay = get_replay(handle);
+    int count = replay->processor.poll_tracks(replay->tracks);
+    env->SetFloatArrayRegion(tracks, 0, count * RangeTracker::TRACK_STRIDE, replay->tracks);
+    return count;
+}
+
+/**
+ * Pops the oldest fine-ranging output into out. Returns its sequence number, or 0 if none is
+ * waiting.
+ */
+extern "C"
+JNIEXPORT jlong
+JNICALL
+Java_edu_washington_cs_puddlejumper_FMCWReplay_pollPhase(
+        JNIEnv *env, jclass, jlong handle, jfloatArray out
+) {
+    ReplaySession *replay = get_replay(handle);
+    if(!replay->processor.poll_phase(replay->phase, &replay->phase_info)) {
+        return 0;
+    }
+    int floats = replay->processor.get_config().phase_cell_count * PhaseRanging::STRIDE;
+    env->SetFloatArrayRegion(out, 0, floats, replay->phase);
+    return (jlong)replay->phase_info.sequence;
+}
+
+extern "C"
+JNIEXPORT jlong
+JNICALL
+Java_edu_washington_cs_puddlejumper_FMCWReplay_getPhaseTimestamp(
+        JNIEnv *, jclass, jlong handle
+) {
+    return get_replay(handle)->phase_info.timestamp_ns;
+}
+
+extern "C"
+JNIEXPORT void
+JNICALL
+Java_edu_washington_cs_puddlejumper_FMCWReplay_pollAlignment(
+        JNIEnv *env, jclass, jlong handle, jfloatArray out
+) {
+    ReplaySession *replay = get_replay(handle);
+    replay->processor.poll_alignment(replay->alignment);
+    env->SetFloatArrayRegion(out, 0, FMCWProcessor::ALIGN_STRIDE, replay->alignment);
+}
+
+/**
+ * Pops the oldest sweep's per-band profiles into out. Returns its sequence number, or 0 if
+ * none is waiting.
+ */
+extern "C"
+JNIEXPORT jlong
+JNICALL
+Java_edu_washington_cs_puddlejumper_FMCWReplay_pollBands(
+        JNIEnv *env, jclass, jlong handle, jfloatArray out
+) {
+    ReplaySession *replay = get_replay(handle);
+    if(!replay->processor.poll_bands(replay->bands.data(), &replay->bands_info)) {
+        return 0;
+    }
+    env->SetFloatArrayRegion(out, 0, (jsize)replay->bands.size(), replay->bands.data());
+    return (jlong)replay->bands_info.sequence;
+}
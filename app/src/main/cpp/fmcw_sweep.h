@@ -0,0 +1,78 @@
+#ifndef PUDDLEJUMPER_FMCW_SWEEP_H
+#define PUDDLEJUMPER_FMCW_SWEEP_H
+
+#include <math.h>
+#include <string.h>
+#include <vector>
+
+/**
+ * Linear FMCW chirp followed by an equally long silence, repeated forever.
+ *
+ * With band_count > 1, that many chirps of the same bandwidth and slope are sent together,
+ * starting band_spacing_hz apart (0: edge to edge), each scaled by 1 / band_count so the sum
+ * stays within full scale. Each band's opening samples are its own pilot.
+ *
+ * One full period is synthesised in double precision at construction, so generate() only
+ * copies from the table: it costs next to nothing per callback, and every sweep is
+ * bit-for-bit identical however long the session runs.
+ */
+class FMCWSweepGenerator {
+
+public:
+    FMCWSweepGenerator(int baseband_hz, int bandwidth_hz, int duration_millis, int sample_rate,
+                       int band_count = 1, int band_spacing_hz = 0) {
+        duration_samples = sample_rate * duration_millis / 1000;
+        table.resize(2 * duration_samples);
+
+        double bandwidth = bandwidth_hz;
+        double duration_secs = duration_millis / 1000.0;
+        double spacing = band_spacing_hz > 0 ? band_spacing_hz : bandwidth_hz;
+
+        for(int n = 0; n < duration_samples; ++n) {
+            double t_secs = (double)n / sample_rate;
+            double sum = 0;
+            for(int b = 0; b < band_count; ++b) {
+                double baseband = baseband_hz + b * spacing;
+                sum += sin(
+                        bandwidth / duration_secs * M_PI *
+                        pow(t_secs + baseband / bandwidth * duration_secs, 2)
+                );
+            }
+            table[n] = (float)(sum / band_count);
+        }
+        // second half of the period rests
+        for(int n = duration_samples; n < 2 * duration_samples; ++n) {
+            table[n] = 0;
+        }
+    }
+
+    void generate(int num_samples, float *audio_data) {
+        int period = (int)table.size();
+        while(num_samples > 0) {
+            int n = period - position;
+            if(n > num_samples) {
+                n = num_samples;
+            }
+            memcpy(audio_data, &table[position], n * sizeof(float));
+            audio_data += n;
+            num_samples -= n;
+            position = (position + n) % period;
+        }
+    }
+
+    // one chirp followed by its rest period
+    const std::vector<float> &get_period() const {
+        return table;
+    }
+
+    int get_duration_samples() const {
+        return duration_samples;
+    }
+
+private:
+    std::vector<float> table;
+    int duration_samples;
+    int position = 0;
+};
+
+#endif //PUDDLEJUMPER_FMCW_SWEEP_H
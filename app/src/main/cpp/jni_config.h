@@ -0,0 +1,45 @@
+#ifndef PUDDLEJUMPER_JNI_CONFIG_H
+#define PUDDLEJUMPER_JNI_CONFIG_H
+
+#include <jni.h>
+
+#include "sonar_config.h"
+
+/**
+ * Reads an edu.washington.cs.puddlejumper.SonarConfig into its native counterpart.
+ */
+static SonarConfig read_config(JNIEnv *env, jobject obj) {
+    SonarConfig config;
+    if(!obj) {
+        return config;
+    }
+    jclass cls = env->GetObjectClass(obj);
+    config.sample_rate = env->GetIntField(obj, env->GetFieldID(cls, "sampleRate", "I"));
+    config.frames_per_callback = env->GetIntField(obj, env->GetFieldID(cls, "framesPerCallback", "I"));
+    config.audio_mode = env->GetIntField(obj, env->GetFieldID(cls, "audioMode", "I"));
+    config.pipeline_mode = env->GetIntField(obj, env->GetFieldID(cls, "pipelineMode", "I"));
+    config.queue_policy = env->GetIntField(obj, env->GetFieldID(cls, "queuePolicy", "I"));
+    config.baseband_hz = env->GetIntField(obj, env->GetFieldID(cls, "basebandHz", "I"));
+    config.bandwidth_hz = env->GetIntField(obj, env->GetFieldID(cls, "bandwidthHz", "I"));
+    config.duration_millis = env->GetIntField(obj, env->GetFieldID(cls, "durationMillis", "I"));
+    config.band_count = env->GetIntField(obj, env->GetFieldID(cls, "bandCount", "I"));
+    config.band_spacing_hz = env->GetIntField(obj, env->GetFieldID(cls, "bandSpacingHz", "I"));
+    config.nfft = env->GetIntField(obj, env->GetFieldID(cls, "nfft", "I"));
+    config.pilot_width = env->GetIntField(obj, env->GetFieldID(cls, "pilotWidth", "I"));
+    config.zoom = env->GetIntField(obj, env->GetFieldID(cls, "zoom", "I"));
+    config.fft_backend = env->GetIntField(obj, env->GetFieldID(cls, "fftBackend", "I"));
+    config.clutter_mode = env->GetIntField(obj, env->GetFieldID(cls, "clutterMode", "I"));
+    config.clutter_millis = env->GetIntField(obj, env->GetFieldID(cls, "clutterMillis", "I"));
+    config.phase_decimation = env->GetIntField(obj, env->GetFieldID(cls, "phaseDecimation", "I"));
+    jintArray cells = (jintArray)env->GetObjectField(obj, env->GetFieldID(cls, "phaseCells", "[I"));
+    if(cells) {
+        int count = env->GetArrayLength(cells);
+        config.phase_cell_count = count < SonarConfig::MAX_PHASE_CELLS ? count : SonarConfig::MAX_PHASE_CELLS;
+        env->GetIntArrayRegion(cells, 0, config.phase_cell_count, config.phase_cells);
+        env->DeleteLocalRef(cells);
+    }
+    env->DeleteLocalRef(cls);
+    return config;
+}
+
+#endif //PUDDLEJUMPER_JNI_CONFIG_H
@@ -1,97 +1,112 @@
 #include <jni.h>
 #include <math.h>
 #include <Oboe/oboe.h>
-#include <kiss_fftr.h>
 #include <android/log.h>
 #include <mutex>
-#include <condition_variable>
 #include <vector>
+#include <time.h>
+#include <algorithm>
+
+#include "duplex_engine.h"
+#include "fft.h"
+#include "fmcw_processor.h"
+#include "fmcw_sweep.h"
+#include "jni_config.h"
+#include "pipeline_stats.h"
+#include "sonar_config.h"
+#include "sweep_pipeline.h"
+#include "sweep_ring.h"
+#include "wav_writer.h"
+
+// sweeps buffered between the audio callback and the UI, ~2.5 s at one sweep per 40 ms
+#define SWEEP_RING_CAPACITY 64
+
+// streamed recordings: samples per chunk, and seconds of audio buffered ahead of the sink
+#define RECORD_CHUNK_SAMPLES 4096
+#define RECORD_RING_SECONDS 2
+
+// most captured input one duplex callback drains; several bursts' worth
+#define DUPLEX_INPUT_FRAMES 4096
+
+// callbacks' worth of audio the threaded pipeline buffers ahead of its sweep thread
+#define PIPELINE_RING_BLOCKS 32
+
+// process-wide, so it outlives captures and can be read or toggled at any time
+static PipelineStats stats;
+
+static int64_t now_ns() {
+    struct timespec ts;
+    clock_gettime(CLOCK_MONOTONIC, &ts);
+    return (int64_t)ts.tv_sec * 1000000000LL + ts.tv_nsec;
+}
 
-#define SAMPLING_RATE 48000
-#define SAMPLES_PER_CALLBACK 1024
-
-#define FMCW_BASEBAND 10000 // hertz
-#define FMCW_BANDWIDTH 6400 // hertz
-#define FMCW_DURATION 20 // milliseconds
-#define FMCW_DURATION_SAMPLES (SAMPLING_RATE * FMCW_DURATION / 1000)
-
-#define NFFT FMCW_DURATION_SAMPLES
-#define NFREQS (NFFT/2 + 1)
-
-#define PILOT_WIDTH (FMCW_DURATION_SAMPLES/16)
-
-#define FMCW_BASEBAND_BIN (FMCW_BASEBAND * NFFT / SAMPLING_RATE)
-#define FMCW_BINWIDTH (FMCW_BANDWIDTH * NFFT / SAMPLING_RATE)
-
-class FMCWSweepGenerator {
-
-public:
-    FMCWSweepGenerator(int baseband_hz, int bandwidth_hz, int duration_millis) {
-        this->baseband_hz = (float)baseband_hz;
-        this->bandwidth_hz = (float)bandwidth_hz;
-
-        duration_secs = duration_millis / 1000.0f;
-        t_secs = 0;
-
-        duration_samples = SAMPLING_RATE * duration_millis / 1000;
-        t_samples = 0;
+static void check_error(oboe::Result res, const char* msg) {
+    if(res != oboe::Result::OK) {
+        __android_log_print(
+                ANDROID_LOG_ERROR,
+                "PuddleJumper::Transceiver",
+                "%s failed with error: %s",
+                msg, oboe::convertToText(res)
+        );
+        abort();
     }
+}
 
-    void generate(int num_samples, float *audio_data) {
-        for (int i = 0; i < num_samples; ++i) {
-            float sample;
-            if (resting) {
-                sample = 0;
-            } else {
-                sample = sinf(
-                        bandwidth_hz / duration_secs * (float) M_PI *
-                        powf(t_secs + baseband_hz / bandwidth_hz * duration_secs, 2)
-                );
-            }
-            audio_data[i] = sample;
-            t_secs += 1.0 / SAMPLING_RATE;
-            t_samples++;
-
-            if (t_samples >= duration_samples) {
-                t_samples = 0;
-                t_secs = 0;
-                resting = !resting;
-            }
-        }
+/**
+ * Opens a mono float stream, with a data callback unless callback is NULL.
+ *
+ * By default this is OpenSL ES with fixed-size callbacks. AUDIO_LOW_LATENCY asks for AAudio
+ * in exclusive low-latency mode with burst-sized callbacks; Oboe falls back to what the
+ * device can do, so the mode it actually got is logged.
+ */
+static oboe::AudioStream *open_stream(oboe::Direction direction, const SonarConfig &config,
+                                      oboe::AudioStreamCallback *callback) {
+    bool low_latency = config.audio_mode == SonarConfig::AUDIO_LOW_LATENCY;
+
+    oboe::AudioStreamBuilder builder;
+    builder.setDirection(direction);
+    builder.setFormat(oboe::AudioFormat::Float);
+    builder.setChannelCount(1);
+    builder.setSampleRate(config.sample_rate);
+    if(low_latency) {
+        builder.setAudioApi(oboe::AudioApi::AAudio);
+        builder.setPerformanceMode(oboe::PerformanceMode::LowLatency);
+        builder.setSharingMode(oboe::SharingMode::Exclusive);
+    } else {
+        builder.setAudioApi(oboe::AudioApi::OpenSLES);
+        builder.setFramesPerCallback(config.frames_per_callback);
+    }
+    if(callback) {
+        builder.setCallback(callback);
     }
 
-private:
-    float baseband_hz;
-    float bandwidth_hz;
-    float duration_secs;
-    float t_secs;
-
-    int duration_samples;
-    int t_samples;
-
-    bool resting = false;
-};
-
+    oboe::AudioStream *stream = NULL;
+    check_error(builder.openStream(&stream), "openStream");
+
+    if(low_latency) {
+        __android_log_print(
+                ANDROID_LOG_DEBUG,
+                "PuddleJumper::Transceiver",
+                "%s stream: %s, %s, %s, %d-frame bursts",
+                direction == oboe::Direction::Input ? "input" : "output",
+                oboe::convertToText(stream->getAudioApi()),
+                oboe::convertToText(stream->getSharingMode()),
+                oboe::convertToText(stream->getPerformanceMode()),
+                stream->getFramesPerBurst()
+        );
+    }
+    return stream;
+}
 
 class Transceiver : public oboe::AudioStreamCallback {
 public:
-    Transceiver(oboe::Direction direction) {
-        oboe::AudioStreamBuilder builder;
-        builder.setAudioApi(oboe::AudioApi::OpenSLES);
-        builder.setDirection(direction);
-        builder.setFormat(oboe::AudioFormat::Float);
-        builder.setChannelCount(1);
-        builder.setFramesPerCallback(SAMPLES_PER_CALLBACK);
-        builder.setCallback(this);
-
-        oboe::Result res;
-        res = builder.openStream(&stream);
-        check_error(res, "openStream");
-    }
+    Transceiver(oboe::Direction direction, const SonarConfig &config) :
+            stream(open_stream(direction, config, this)) {}
 
     ~Transceiver() {
         if(stream) {
             stream->close();
+            delete stream;
         }
     }
 
@@ -113,159 +128,293 @@ public:
 
 private:
     oboe::AudioStream *stream;
-
-    void check_error(oboe::Result res, const char* msg) {
-        if(res != oboe::Result::OK) {
-            __android_log_print(
-                    ANDROID_LOG_ERROR,
-                    "PuddleJumper::Transceiver",
-                    "%s failed with error: %s",
-                    msg, oboe::convertToText(res)
-            );
-            abort();
-        }
-    }
 };
 
 class Receiver : public Transceiver {
 public:
-    Receiver() : Transceiver(oboe::Direction::Input) {}
+    Receiver(const SonarConfig &config) : Transceiver(oboe::Direction::Input, config) {}
 };
 
 class Transmitter : public Transceiver {
 public:
-    Transmitter() : Transceiver(oboe::Direction::Output) {}
+    Transmitter(const SonarConfig &config) : Transceiver(oboe::Direction::Output, config) {}
 };
 
 
-class FMCWListener : public Receiver {
+/**
+ * Runs FMCWProcessor on captured audio and serves its outputs to the UI. Subclasses own the
+ * streams that feed it, and hand captured audio to sink: the processor itself, or with
+ * PIPELINE_THREADED a SweepPipeline that runs it off the audio thread.
+ */
+class FMCWListener {
 public:
-    FMCWListener() : fmcw(FMCW_BASEBAND, FMCW_BANDWIDTH, FMCW_DURATION) {
-        cfg = kiss_fftr_alloc(NFFT, 0, 0, 0);
-        fmcw.generate(PILOT_WIDTH, pilot);
+    // max_frames is the most audio one call to sink->process() carries
+    FMCWListener(const SonarConfig &config, int max_frames) :
+            processor(config, config.frames_per_callback, SWEEP_RING_CAPACITY),
+            pipeline(config.pipeline_mode == SonarConfig::PIPELINE_THREADED
+                     ? new SweepPipeline(config, &processor, max_frames, PIPELINE_RING_BLOCKS, &stats)
+                     : NULL),
+            sink(pipeline ? (CaptureSink*)pipeline : &processor),
+            bands(config.bands_bin_count()) {
+        processor.set_stats(&stats);
     }
 
-    oboe::DataCallbackResult
-    onAudioReady(oboe::AudioStream *stream, void *audioData, int32_t numFrames) {
-        float *fAudioData = (float*)audioData;
+    virtual ~FMCWListener() {
+        delete pipeline;
+    }
 
-        if(sweepOffset == -1) {
-            // detect pilot sequence
+    void start() {
+        if(pipeline) {
+            pipeline->start();
+        }
+        start_streams();
+    }
 
-            float maxSim = 0;
-            int offset = 0;
+    void stop() {
+        stop_streams();
+        if(pipeline) {
+            pipeline->stop();
+        }
+    }
 
-            // loop over offsets
-            for(int i = 0; i < numFrames - PILOT_WIDTH; ++i) {
+    uint64_t poll_magnitudes(float *dst) {
+        uint64_t sequence = processor.poll_magnitudes(dst);
+        if(sequence != last_polled) {
+            stats.add(PipelineStats::SWEEPS_CONSUMED, 1);
+            last_polled = sequence;
+        }
+        return sequence;
+    }
 
-                // loop over coordinates
-                float sim = 0;
-                float dot = 0;
-                float a_ssq = 0;
-                float b_ssq = 0;
-                for(int j = 0; j < PILOT_WIDTH;  ++j) {
-                    dot += pilot[j] * fAudioData[i + j];
-                    a_ssq += powf(pilot[j], 2);
-                    b_ssq += powf(fAudioData[i + j], 2);
-                }
-                float norm = sqrtf(a_ssq) * sqrtf(b_ssq);
-                if (norm > 0) {
-                    sim = dot / norm;
-                }
+    int64_t get_sweep_timestamp() {
+        return processor.get_sweep_timestamp();
+    }
 
-                // store offset if beats maximum
-                if(sim > maxSim) {
-                    maxSim = sim;
-                    offset = i;
-                }
+    uint64_t get_overruns() {
+        return processor.get_overruns();
+    }
 
-            }
-            if(maxSim > 0.5) {
-                sweepOffset = offset;
-                __android_log_print(
-                        ANDROID_LOG_DEBUG,
-                        "PuddleJumper",
-                        "sweep detected with similarity %f at offset %d",
-                        maxSim, sweepOffset
-                );
-            }
-        }
+    int poll_tracks(float *out) {
+        return processor.poll_tracks(out);
+    }
 
-        if(sweepOffset != -1) {
-            // pilot sequence detected, collect sweep
+    int64_t get_tracks_timestamp() {
+        return processor.get_tracks_timestamp();
+    }
 
-            while(sweepOffset < SAMPLES_PER_CALLBACK) {
-                sweepBuffer[t_samples] = fAudioData[sweepOffset];
+    // sequence number of the output popped into out, or 0 if none was waiting
+    uint64_t poll_phase(float *out) {
+        return processor.poll_phase(out, &last_phase) ? last_phase.sequence : 0;
+    }
+
+    int64_t get_phase_timestamp() {
+        return last_phase.timestamp_ns;
+    }
+
+    /**
+     * Pops the oldest sweep's per-band profiles, which get_bands() then holds. Returns its
+     * sequence number, or 0 if none was waiting or there's only one band.
+     */
+    uint64_t poll_bands() {
+        return processor.poll_bands(bands.data(), &last_bands) ? last_bands.sequence : 0;
+    }
 
-                sweepOffset++;
-                t_samples++;
+    const float *get_bands() const {
+        return bands.data();
+    }
 
-                // full sweep collected: process
-                if(t_samples == FMCW_DURATION_SAMPLES) {
+    int64_t get_bands_timestamp() {
+        return last_bands.timestamp_ns;
+    }
 
-                    if(!resting) {
-                        kiss_fftr(cfg, sweepBuffer, frequencies);
-                        magnitude_lock.lock();
-                        for(int i = FMCW_BASEBAND_BIN, j = 0;
-                            j < FMCW_BINWIDTH; i++, j++) {
+    void poll_alignment(float *out) {
+        processor.poll_alignment(out);
+    }
 
-                            magnitudes[j] = sqrtf(
-                                    powf(frequencies[i].i, 2) +
-                                    powf(frequencies[i].r, 2)
-                            );
-                        }
-                        magnitude_lock.unlock();
-                    }
+    int64_t get_alignment_timestamp() {
+        return processor.get_alignment_timestamp();
+    }
 
-                    t_samples = 0;
-                    resting = !resting;
-                }
+    const SonarConfig &get_config() {
+        return processor.get_config();
+    }
 
+protected:
+    FMCWProcessor processor;
+    SweepPipeline *pipeline;
+    CaptureSink *sink;
+
+    virtual void start_streams() = 0;
+    virtual void stop_streams() = 0;
+
+    // stats and the lock log, after a callback of num_frames that completed some sweeps
+    void after_callback(oboe::AudioStream *stream, int num_frames, int completed,
+                        const StageTimer &timer) {
+        if(stats.is_enabled()) {
+            stats.add(PipelineStats::CALLBACKS, 1);
+            stats.add(PipelineStats::SWEEPS_PRODUCED, (uint64_t)completed);
+            stats.set(PipelineStats::SWEEPS_DROPPED, processor.get_overruns());
+            // only AAudio counts xruns; OpenSL ES returns an error
+            oboe::ResultWithValue<int32_t> xruns = stream->getXRunCount();
+            if(xruns.error() == oboe::Result::OK) {
+                stats.set(PipelineStats::XRUNS, (uint64_t)xruns.value());
+            } else {
+                stats.set(PipelineStats::XRUNS, PipelineStats::UNAVAILABLE);
+            }
+            // the callback has as long as its audio lasts before the next one is due
+            int64_t budget_ns = (int64_t)num_frames * 1000000000LL / processor.get_config().sample_rate;
+            if(timer.elapsed_ns() > budget_ns) {
+                stats.add(PipelineStats::CALLBACKS_LATE, 1);
+            }
+            if(pipeline) {
+                stats.set(PipelineStats::INPUT_OVERRUNS, pipeline->get_input_overruns());
+                stats.set(PipelineStats::ANALYSIS_DROPPED, pipeline->get_analysis_drops());
             }
+        }
 
-            sweepOffset = 0;
+        // with a pipeline, the lock changes on its thread, so compare with the last callback
+        bool locked = processor.is_locked();
+        if(was_locked && !locked) {
+            __android_log_print(ANDROID_LOG_DEBUG, "PuddleJumper", "sweep alignment lost");
         }
+        if(!was_locked && locked) {
+            __android_log_print(
+                    ANDROID_LOG_DEBUG,
+                    "PuddleJumper",
+                    "sweep detected with similarity %f at sample %lld",
+                    processor.get_pilot_similarity(), (long long)processor.get_pilot_position()
+            );
+        }
+        was_locked = locked;
+    }
+
+private:
+    SweepInfo last_phase = {0, 0};
+    std::vector<float> bands;
+    SweepInfo last_bands = {0, 0};
+    uint64_t last_polled = 0;
+    bool was_locked = false;
+};
+
+// Captures from its own input stream, alongside a separately started FMCWTransmitter.
+class CaptureListener : public FMCWListener, public Receiver {
+public:
+    CaptureListener(const SonarConfig &config) :
+            FMCWListener(config, config.frames_per_callback), Receiver(config) {}
 
+    oboe::DataCallbackResult
+    onAudioReady(oboe::AudioStream *stream, void *audioData, int32_t numFrames) {
+        StageTimer timer(&stats, PipelineStats::CALLBACK);
+        int completed = sink->process((float*)audioData, numFrames, now_ns());
+        after_callback(stream, numFrames, completed, timer);
         return oboe::DataCallbackResult::Continue;
     }
 
-    jfloatArray get_magnitudes(JNIEnv * env) {
-        jfloatArray res = env->NewFloatArray(FMCW_BINWIDTH);
-        magnitude_lock.lock();
-        env->SetFloatArrayRegion(res, 0, FMCW_BINWIDTH, magnitudes);
-        magnitude_lock.unlock();
-        return res;
+protected:
+    void start_streams() {
+        Receiver::start();
     }
 
-    ~FMCWListener() {
-        free(cfg);
+    void stop_streams() {
+        Receiver::stop();
     }
+};
 
-private:
-    kiss_fftr_cfg cfg;
-    kiss_fft_cpx frequencies[NFREQS];
+/**
+ * Transmits and captures from the output stream's callback (see DuplexEngine), so the
+ * transmission and its echo share one sample clock and no FMCWTransmitter is needed. The
+ * input stream has no callback; each output callback reads it without blocking.
+ */
+class DuplexListener : public FMCWListener, public oboe::AudioStreamCallback, private InputSource {
+public:
+    DuplexListener(const SonarConfig &config) :
+            FMCWListener(config, DUPLEX_INPUT_FRAMES),
+            engine(config, sink, DUPLEX_INPUT_FRAMES) {
+        input = open_stream(oboe::Direction::Input, config, NULL);
+        output = open_stream(oboe::Direction::Output, config, this);
+        // two bursts queued is as little output latency as most devices run without glitches
+        oboe::ResultWithValue<int32_t> size =
+                output->setBufferSizeInFrames(2 * output->getFramesPerBurst());
+        if(size.error() != oboe::Result::OK) {
+            __android_log_print(
+                    ANDROID_LOG_ERROR,
+                    "PuddleJumper::Transceiver",
+                    "%s failed with error: %s",
+                    "setBufferSizeInFrames", oboe::convertToText(size.error())
+            );
+        }
+    }
 
-    FMCWSweepGenerator fmcw;
-    float pilot[PILOT_WIDTH];
+    ~DuplexListener() {
+        output->close();
+        input->close();
+        delete output;
+        delete input;
+    }
 
-    int sweepOffset = -1;
+    oboe::DataCallbackResult
+    onAudioReady(oboe::AudioStream *stream, void *audioData, int32_t numFrames) {
+        StageTimer timer(&stats, PipelineStats::CALLBACK);
+        int completed = engine.process((float*)audioData, numFrames, this, now_ns());
+        after_callback(stream, numFrames, completed, timer);
+        return oboe::DataCallbackResult::Continue;
+    }
 
-    float sweepBuffer[FMCW_DURATION_SAMPLES];
-    int t_samples = 0;
-    bool resting = false;
+protected:
+    void start_streams() {
+        // input first, so the first output callback has something to drain
+        check_error(input->requestStart(), "requestStart");
+        check_error(output->requestStart(), "requestStart");
+    }
 
-    float magnitudes[FMCW_BINWIDTH] = {0};
-    std::mutex magnitude_lock;
+    void stop_streams() {
+        check_error(output->requestStop(), "requestStop");
+        check_error(input->requestStop(), "requestStop");
+        if(read_errors > 0) {
+            __android_log_print(
+                    ANDROID_LOG_WARN,
+                    "PuddleJumper",
+                    "input read failed %llu times, last with error: %s",
+                    (unsigned long long)read_errors, oboe::convertToText(last_read_error)
+            );
+        }
+    }
+
+private:
+    DuplexEngine engine;
+    oboe::AudioStream *input;
+    oboe::AudioStream *output;
+
+    // audio thread only; reported when the streams stop, since the callback mustn't log
+    uint64_t read_errors = 0;
+    oboe::Result last_read_error = oboe::Result::OK;
+
+    // a failed read counts as nothing captured, so the engine tries again next callback
+    int read(float *dst, int frames) {
+        oboe::ResultWithValue<int32_t> r = input->read(dst, frames, 0);
+        if(r.error() != oboe::Result::OK) {
+            read_errors++;
+            last_read_error = r.error();
+            return 0;
+        }
+        return r.value();
+    }
 };
 
 class Recorder : public Receiver {
 public:
+    // the whole capture is reserved up front so the audio callback never reallocates
+    Recorder(int timeout_millis) : Receiver(SonarConfig()) {
+        SonarConfig config;
+        log.reserve((size_t)timeout_millis * config.sample_rate / 1000
+                    + 2 * config.frames_per_callback);
+    }
+
     oboe::DataCallbackResult
     onAudioReady(oboe::AudioStream *stream, void *audioData, int32_t numFrames) {
         float *fAudioData = (float*)audioData;
-        for(int i = 0; i < numFrames; ++i) {
-            log.push_back(fAudioData[i]);
-        }
+        size_t n = std::min((size_t)numFrames, log.capacity() - log.size());
+        log.insert(log.end(), fAudioData, fAudioData + n);
         return oboe::DataCallbackResult::Continue;
     }
 
@@ -290,77 +439,269 @@ JNICALL
 Java_edu_washington_cs_puddlejumper_MainActivity_recordFor(
         JNIEnv *env, jobject, jint timeout_millis
 ) {
-    Recorder rec;
+    Recorder rec(timeout_millis);
     return rec.recordFor(timeout_millis, env);
 }
 
+/**
+ * Records for any length of time in constant memory.
+ *
+ * The audio callback copies samples into fixed-size chunks of a preallocated ring; the
+ * thread that called run() drains full chunks into a ChunkSink. If the sink falls a whole
+ * ring behind, chunks are dropped rather than blocking the callback.
+ */
+class StreamingRecorder : public Receiver {
+public:
+    StreamingRecorder(const SonarConfig &config, int chunk_samples) :
+            Receiver(config),
+            config(config),
+            chunk_samples(chunk_samples),
+            chunks(ring_chunks(config, chunk_samples), chunk_samples),
+            scratch(chunk_samples) {
+        chunk = chunks.begin_write();
+    }
 
-class SpectrogramListener : public Receiver {
+    oboe::DataCallbackResult
+    onAudioReady(oboe::AudioStream *stream, void *audioData, int32_t numFrames) {
+        float *fAudioData = (float*)audioData;
+        int64_t callback_ns = now_ns();
+
+        int i = 0;
+        while(i < numFrames) {
+            int n = std::min(numFrames - i, chunk_samples - chunk_fill);
+            if(chunk) {
+                memcpy(chunk + chunk_fill, fAudioData + i, n * sizeof(float));
+            }
+            chunk_fill += n;
+            i += n;
+            last_sample_ns = callback_ns
+                             - (int64_t)(numFrames - i) * 1000000000LL / config.sample_rate;
+
+            if(chunk_fill == chunk_samples) {
+                if(chunk) {
+                    chunks.end_write(last_sample_ns);
+                }
+                // a full ring means the sink is behind: the next chunk is dropped
+                chunk = chunks.begin_write();
+                chunk_fill = 0;
+            }
+        }
+
+        return oboe::DataCallbackResult::Continue;
+    }
+
+    /**
+     * Records for timeout_millis, handing every chunk to sink on the calling thread.
+     * Returns the number of samples written, or -1 if the sink failed.
+     */
+    int64_t run(int timeout_millis, ChunkSink *sink) {
+        int64_t written = 0;
+        int64_t deadline = now_ns() + (int64_t)timeout_millis * 1000000LL;
+        // wake about twice per chunk
+        useconds_t poll_us = (useconds_t)std::max(
+                1000LL, (long long)chunk_samples * 500000LL / config.sample_rate);
+
+        start();
+        bool ok = true;
+        while(ok && now_ns() < deadline) {
+            ok = drain(sink, &written);
+            usleep(poll_us);
+        }
+        stop();
+
+        ok = ok && drain(sink, &written);
+        // the callback has stopped, so its partly filled chunk can be read directly
+        if(ok && chunk && chunk_fill > 0) {
+            ok = sink->write(chunk, chunk_fill, last_sample_ns);
+            written += chunk_fill;
+        }
+
+        if(chunks.overruns() > 0) {
+            __android_log_print(
+                    ANDROID_LOG_WARN,
+                    "PuddleJumper",
+                    "recording dropped %llu chunks of %d samples",
+                    (unsigned long long)chunks.overruns(), chunk_samples
+            );
+        }
+        return ok ? written : -1;
+    }
+
+private:
+    SonarConfig config;
+    int chunk_samples;
+
+    SweepRing chunks;
+    std::vector<float> scratch;
+
+    // producer-only
+    float *chunk;
+    int chunk_fill = 0;
+    int64_t last_sample_ns = 0;
+
+    static int ring_chunks(const SonarConfig &config, int chunk_samples) {
+        int capacity = RECORD_RING_SECONDS * config.sample_rate / chunk_samples;
+        return std::max(capacity, 4);
+    }
+
+    bool drain(ChunkSink *sink, int64_t *written) {
+        SweepInfo info;
+        while(chunks.read(scratch.data(), &info)) {
+            if(!sink->write(scratch.data(), chunk_samples, info.timestamp_ns)) {
+                return false;
+            }
+            *written += chunk_samples;
+        }
+        return true;
+    }
+};
 
+/**
+ * Delivers chunks to a RecordingListener, reusing the caller's float[].
+ */
+class JavaChunkSink : public ChunkSink {
 public:
-    SpectrogramListener() {
-        cfg = kiss_fftr_alloc(NFFT, 0, 0, 0);
+    JavaChunkSink(JNIEnv *env, jfloatArray array, jobject listener) :
+            env(env), array(array), listener(listener) {
+        jclass cls = env->GetObjectClass(listener);
+        on_chunk = env->GetMethodID(cls, "onChunk", "([FIJ)V");
+        env->DeleteLocalRef(cls);
     }
 
-    ~SpectrogramListener() {
-        free(cfg);
+    bool write(const float *samples, int count, int64_t timestamp_ns) {
+        env->SetFloatArrayRegion(array, 0, count, samples);
+        env->CallVoidMethod(listener, on_chunk, array, (jint)count, (jlong)timestamp_ns);
+        // stop on the listener's exception and let it propagate to the caller
+        return !env->ExceptionCheck();
     }
 
+private:
+    JNIEnv *env;
+    jfloatArray array;
+    jobject listener;
+    jmethodID on_chunk;
+};
+
+extern "C"
+JNIEXPORT jlong
+JNICALL
+Java_edu_washington_cs_puddlejumper_MainActivity_recordToWav(
+        JNIEnv *env, jobject, jstring path_prefix, jint timeout_millis, jint seconds_per_file
+) {
+    SonarConfig config;
+    // one file's data size has to fit the header's 32-bit fields
+    int64_t samples_per_file = (int64_t)seconds_per_file * config.sample_rate;
+    if(samples_per_file <= 0 || samples_per_file > ChunkedWavWriter::MAX_SAMPLES_PER_FILE) {
+        jclass iae = env->FindClass("java/lang/IllegalArgumentException");
+        env->ThrowNew(iae, "secondsPerFile must be positive and keep each file under 4 GiB");
+        env->DeleteLocalRef(iae);
+        return -1;
+    }
+
+    const char *prefix = env->GetStringUTFChars(path_prefix, NULL);
+    ChunkedWavWriter writer(prefix, config.sample_rate, samples_per_file);
+    env->ReleaseStringUTFChars(path_prefix, prefix);
+
+    StreamingRecorder rec(config, RECORD_CHUNK_SAMPLES);
+    jlong written = rec.run(timeout_millis, &writer);
+    writer.close();
+    return written;
+}
+
+extern "C"
+JNIEXPORT jlong
+JNICALL
+Java_edu_washington_cs_puddlejumper_MainActivity_recordChunks(
+        JNIEnv *env, jobject, jint timeout_millis, jfloatArray chunk, jobject listener
+) {
+    SonarConfig config;
+    // the ring is sized in chunks, so a chunk must hold at least one sample and fill
+    // before the recording ends
+    int64_t capture_samples = (int64_t)timeout_millis * config.sample_rate / 1000;
+    jsize chunk_samples = chunk ? env->GetArrayLength(chunk) : 0;
+    if(chunk_samples <= 0 || chunk_samples > capture_samples) {
+        jclass iae = env->FindClass("java/lang/IllegalArgumentException");
+        env->ThrowNew(iae, "chunk must hold between 1 sample and the whole recording");
+        env->DeleteLocalRef(iae);
+        return -1;
+    }
+
+    JavaChunkSink sink(env, chunk, listener);
+    if(env->ExceptionCheck()) {
+        return -1;
+    }
+    StreamingRecorder rec(config, chunk_samples);
+    return rec.run(timeout_millis, &sink);
+}
+
+class SpectrogramListener : public Receiver {
+
+public:
+    SpectrogramListener(const SonarConfig &config) :
+            Receiver(config),
+            cfg(config.fft_size(), false),
+            frequencies(config.fft_bins()),
+            local_mags(config.fft_bins()),
+            magnitudes(config.fft_bins()) {}
+
     oboe::DataCallbackResult
     onAudioReady(oboe::AudioStream *stream, void *audioData, int32_t numFrames) {
-        kiss_fftr(cfg, (float*)audioData, frequencies);
-        static float local_mags[NFFT];
-
-        for(int i = 0; i < NFREQS; ++i) {
-            local_mags[i] = sqrtf(
-                    powf(frequencies[i].i, 2) +
-                    powf(frequencies[i].r, 2)
-            );
-        }
+        kiss_fftr(cfg, (float*)audioData, frequencies.data());
+        band_magnitudes(frequencies.data(), (int)frequencies.size(), local_mags.data(), false);
 
         magnitude_lock.lock();
-        memcpy(magnitudes, local_mags, NFREQS * sizeof(float));
+        magnitudes.swap(local_mags);
         magnitude_lock.unlock();
 
         return oboe::DataCallbackResult::Continue;
     }
 
     jfloatArray get_magnitudes(JNIEnv * env) {
-        jfloatArray res = env->NewFloatArray(NFREQS);
+        jsize nfreqs = (jsize)magnitudes.size();
+        jfloatArray res = env->NewFloatArray(nfreqs);
 
         magnitude_lock.lock();
-        env->SetFloatArrayRegion(res, 0, NFREQS, magnitudes);
+        env->SetFloatArrayRegion(res, 0, nfreqs, magnitudes.data());
         magnitude_lock.unlock();
 
         return res;
     }
 
 private:
-    kiss_fft_cpx frequencies[NFREQS];
-    kiss_fftr_cfg cfg;
+    FFTPlan cfg;
+    std::vector<kiss_fft_cpx> frequencies;
 
-    float magnitudes[NFREQS];
+    std::vector<float> local_mags;
+    std::vector<float> magnitudes;
     std::mutex magnitude_lock;
 };
 
 FMCWListener *listener = NULL;
 std::mutex listener_lock;
-std::condition_variable listener_ready;
+
+// takes listener_lock, timing the wait when stats are on; for the UI's polling paths
+static void lock_listener(std::unique_lock<std::mutex> &lk) {
+    StageTimer timer(&stats, PipelineStats::LOCK_WAIT);
+    lk.lock();
+}
 
 extern "C"
 JNIEXPORT void
 JNICALL
 Java_edu_washington_cs_puddlejumper_MainActivity_startCapture(
-        JNIEnv *env, jobject
+        JNIEnv *env, jobject, jobject config
 ) {
-    listener_lock.lock();
+    std::lock_guard<std::mutex> lk(listener_lock);
     if(listener) {
         return;
     }
-    listener = new FMCWListener();
+    SonarConfig c = read_config(env, config);
+    if(c.audio_mode == SonarConfig::AUDIO_LOW_LATENCY) {
+        listener = new DuplexListener(c);
+    } else {
+        listener = new CaptureListener(c);
+    }
     listener->start();
-    listener_ready.notify_one();
-    listener_lock.unlock();
 }
 
 extern "C"
@@ -369,33 +710,264 @@ JNICALL
 Java_edu_washington_cs_puddlejumper_MainActivity_stopCapture(
         JNIEnv *env, jobject
 ) {
-    listener_lock.lock();
+    std::lock_guard<std::mutex> lk(listener_lock);
     if(listener) {
+        // closes the streams, so an exclusive device is free for the next start
         listener->stop();
+        delete listener;
         listener = NULL;
     }
-    listener_lock.unlock();
 }
 
+jobject magnitude_buffer = NULL;
+float *magnitude_buffer_data = NULL;
+jlong magnitude_buffer_capacity = 0;
+
 extern "C"
-JNIEXPORT jfloatArray
+JNIEXPORT void
+JNICALL
+Java_edu_washington_cs_puddlejumper_SpectrogramView_registerMagnitudeBuffer(
+        JNIEnv *env, jobject, jobject buffer
+) {
+    std::lock_guard<std::mutex> lk(listener_lock);
+    if(magnitude_buffer) {
+        env->DeleteGlobalRef(magnitude_buffer);
+        magnitude_buffer = NULL;
+        magnitude_buffer_data = NULL;
+        magnitude_buffer_capacity = 0;
+    }
+    if(!buffer) {
+        return;
+    }
+    magnitude_buffer_capacity = env->GetDirectBufferCapacity(buffer);
+    if(magnitude_buffer_capacity <= 0) {
+        __android_log_print(
+                ANDROID_LOG_ERROR,
+                "PuddleJumper",
+                "magnitude buffer must be a direct FloatBuffer"
+        );
+        magnitude_buffer_capacity = 0;
+        return;
+    }
+    magnitude_buffer = env->NewGlobalRef(buffer);
+    magnitude_buffer_data = (float*)env->GetDirectBufferAddress(buffer);
+}
+
+extern "C"
+JNIEXPORT jlong
 JNICALL
-Java_edu_washington_cs_puddlejumper_SpectrogramView_getMagnitudes(
+Java_edu_washington_cs_puddlejumper_SpectrogramView_pollMagnitudes(
         JNIEnv *env, jobject
 ) {
-    std::unique_lock<std::mutex> lk(listener_lock);
-    while(!listener) {
-        listener_ready.wait(lk);
+    std::unique_lock<std::mutex> lk(listener_lock, std::defer_lock);
+    lock_listener(lk);
+    if(!listener) {
+        return 0;
+    }
+    if(!magnitude_buffer_data ||
+       magnitude_buffer_capacity < listener->get_config().bin_count()) {
+        return -1;
     }
-    jfloatArray res = listener->get_magnitudes(env);
-    lk.unlock();
-    return res;
+    return (jlong)listener->poll_magnitudes(magnitude_buffer_data);
+}
+
+extern "C"
+JNIEXPORT jlong
+JNICALL
+Java_edu_washington_cs_puddlejumper_SpectrogramView_getSweepTimestamp(
+        JNIEnv *env, jobject
+) {
+    std::lock_guard<std::mutex> lk(listener_lock);
+    return listener ? (jlong)listener->get_sweep_timestamp() : 0;
+}
+
+extern "C"
+JNIEXPORT jlong
+JNICALL
+Java_edu_washington_cs_puddlejumper_SpectrogramView_getSweepOverruns(
+        JNIEnv *env, jobject
+) {
+    std::lock_guard<std::mutex> lk(listener_lock);
+    return listener ? (jlong)listener->get_overruns() : 0;
 }
 
 
+extern "C"
+JNIEXPORT jint
+JNICALL
+Java_edu_washington_cs_puddlejumper_RangeTracks_pollTracks(
+        JNIEnv *env, jclass, jfloatArray tracks
+) {
+    float snapshot[RangeTracker::MAX_TRACKS * RangeTracker::TRACK_STRIDE];
+    int count;
+    {
+        std::unique_lock<std::mutex> lk(listener_lock, std::defer_lock);
+        lock_listener(lk);
+        if(!listener) {
+            return -1;
+        }
+        count = listener->poll_tracks(snapshot);
+    }
+    env->SetFloatArrayRegion(tracks, 0, count * RangeTracker::TRACK_STRIDE, snapshot);
+    return count;
+}
+
+extern "C"
+JNIEXPORT jlong
+JNICALL
+Java_edu_washington_cs_puddlejumper_RangeTracks_getTimestamp(
+        JNIEnv *env, jclass
+) {
+    std::lock_guard<std::mutex> lk(listener_lock);
+    return listener ? (jlong)listener->get_tracks_timestamp() : 0;
+}
+
+extern "C"
+JNIEXPORT jlong
+JNICALL
+Java_edu_washington_cs_puddlejumper_PhaseRanging_pollPhase(
+        JNIEnv *env, jclass, jfloatArray out
+) {
+    float frame[SonarConfig::MAX_PHASE_CELLS * PhaseRanging::STRIDE];
+    uint64_t sequence;
+    int floats;
+    {
+        std::unique_lock<std::mutex> lk(listener_lock, std::defer_lock);
+        lock_listener(lk);
+        if(!listener) {
+            return -1;
+        }
+        sequence = listener->poll_phase(frame);
+        floats = listener->get_config().phase_cell_count * PhaseRanging::STRIDE;
+    }
+    if(sequence > 0) {
+        env->SetFloatArrayRegion(out, 0, floats, frame);
+    }
+    return (jlong)sequence;
+}
+
+extern "C"
+JNIEXPORT jlong
+JNICALL
+Java_edu_washington_cs_puddlejumper_PhaseRanging_getTimestamp(
+        JNIEnv *env, jclass
+) {
+    std::lock_guard<std::mutex> lk(listener_lock);
+    return listener ? (jlong)listener->get_phase_timestamp() : 0;
+}
+
+extern "C"
+JNIEXPORT jlong
+JNICALL
+Java_edu_washington_cs_puddlejumper_BandProfiles_pollBands(
+        JNIEnv *env, jclass, jfloatArray out
+) {
+    std::unique_lock<std::mutex> lk(listener_lock, std::defer_lock);
+    lock_listener(lk);
+    if(!listener) {
+        return -1;
+    }
+    int floats = listener->get_config().bands_bin_count();
+    if(env->GetArrayLength(out) < floats) {
+        return -1;
+    }
+    uint64_t sequence = listener->poll_bands();
+    if(sequence > 0) {
+        env->SetFloatArrayRegion(out, 0, floats, listener->get_bands());
+    }
+    return (jlong)sequence;
+}
+
+extern "C"
+JNIEXPORT jlong
+JNICALL
+Java_edu_washington_cs_puddlejumper_BandProfiles_getTimestamp(
+        JNIEnv *env, jclass
+) {
+    std::lock_guard<std::mutex> lk(listener_lock);
+    return listener ? (jlong)listener->get_bands_timestamp() : 0;
+}
+
+extern "C"
+JNIEXPORT jboolean
+JNICALL
+Java_edu_washington_cs_puddlejumper_SweepAlignment_pollAlignment(
+        JNIEnv *env, jclass, jfloatArray out
+) {
+    float frame[FMCWProcessor::ALIGN_STRIDE];
+    {
+        std::unique_lock<std::mutex> lk(listener_lock, std::defer_lock);
+        lock_listener(lk);
+        if(!listener) {
+            return JNI_FALSE;
+        }
+        listener->poll_alignment(frame);
+    }
+    env->SetFloatArrayRegion(out, 0, FMCWProcessor::ALIGN_STRIDE, frame);
+    return JNI_TRUE;
+}
+
+extern "C"
+JNIEXPORT jlong
+JNICALL
+Java_edu_washington_cs_puddlejumper_SweepAlignment_getTimestamp(
+        JNIEnv *env, jclass
+) {
+    std::lock_guard<std::mutex> lk(listener_lock);
+    return listener ? (jlong)listener->get_alignment_timestamp() : 0;
+}
+
+extern "C"
+JNIEXPORT void
+JNICALL
+Java_edu_washington_cs_puddlejumper_PipelineStats_setEnabledNative(
+        JNIEnv *env, jclass, jboolean enabled
+) {
+    stats.set_enabled(enabled);
+}
+
+extern "C"
+JNIEXPORT void
+JNICALL
+Java_edu_washington_cs_puddlejumper_PipelineStats_recordNative(
+        JNIEnv *env, jclass, jint stage, jlong nanos
+) {
+    if(stage >= 0 && stage < PipelineStats::STAGE_COUNT) {
+        stats.record((PipelineStats::Stage)stage, nanos);
+    }
+}
+
+extern "C"
+JNIEXPORT void
+JNICALL
+Java_edu_washington_cs_puddlejumper_PipelineStats_resetNative(
+        JNIEnv *env, jclass
+) {
+    stats.reset();
+}
+
+extern "C"
+JNIEXPORT void
+JNICALL
+Java_edu_washington_cs_puddlejumper_PipelineStats_snapshot(
+        JNIEnv *env, jclass, jlongArray counters, jlongArray histograms
+) {
+    uint64_t c[PipelineStats::COUNTER_COUNT];
+    uint64_t h[PipelineStats::STAGE_COUNT * LatencyHistogram::STRIDE];
+    stats.snapshot(c, h);
+    // uint64_t and jlong share a layout; counts never get near the sign bit, and UNAVAILABLE
+    // reads as -1
+    env->SetLongArrayRegion(counters, 0, PipelineStats::COUNTER_COUNT, (const jlong*)c);
+    env->SetLongArrayRegion(histograms, 0, PipelineStats::STAGE_COUNT * LatencyHistogram::STRIDE,
+                            (const jlong*)h);
+}
+
 class FMCWTransmitter : public Transmitter {
 public:
-    FMCWTransmitter() : fmcw(FMCW_BASEBAND, FMCW_BANDWIDTH, FMCW_DURATION) {}
+    FMCWTransmitter(const SonarConfig &config) :
+            Transmitter(config),
+            fmcw(config.baseband_hz, config.bandwidth_hz, config.duration_millis, config.sample_rate,
+                 config.band_count, config.band_spacing_hz) {}
 
     oboe::DataCallbackResult
     onAudioReady(oboe::AudioStream *stream, void *audioData, int32_t numFrames) {
@@ -415,10 +987,15 @@ extern "C"
 JNIEXPORT void
 JNICALL
 Java_edu_washington_cs_puddlejumper_MainActivity_startFMCW(
-        JNIEnv *env, jobject
+        JNIEnv *env, jobject, jobject config
 ) {
+    SonarConfig c = read_config(env, config);
+    if(c.audio_mode == SonarConfig::AUDIO_LOW_LATENCY) {
+        // the duplex capture transmits from its own callback
+        return;
+    }
     if(!transmitter) {
-        transmitter = new FMCWTransmitter();
+        transmitter = new FMCWTransmitter(c);
         transmitter->start();
     }
 }
@@ -0,0 +1,133 @@
+#ifndef PUDDLEJUMPER_PHASE_RANGING_H
+#define PUDDLEJUMPER_PHASE_RANGING_H
+
+#include <math.h>
+#include <stdint.h>
+
+#include "fft.h"
+#include "sonar_config.h"
+#include "sweep_ring.h"
+
+/**
+ * Measures displacement far below one range bin from the phase of a few selected cells.
+ *
+ * When a reflector moves by d, the echo in cell j is delayed by 2d / c and its phase turns
+ * by -4 pi f_j d / c, where f_j is the cell's frequency: at 13 kHz a full turn is 13 mm, so
+ * phase resolves fractions of a millimetre. The phase is unwrapped from sweep to sweep, which
+ * holds as long as nothing moves more than a quarter wavelength (about 6 mm) between sweeps.
+ *
+ * Reads only the selected bins of each spectrum. Every `decimation` sweeps, the mean
+ * displacement and amplitude of each cell over those sweeps go out through a SweepRing.
+ *
+ * Phase isn't continuous across a lost lock, so reset() starts unwrapping over. Displacement
+ * carries on from its last value: whatever moved during the gap isn't measured.
+ */
+class PhaseRanging {
+public:
+    // each cell's output is these floats, in this order
+    static const int DISPLACEMENT = 0;  // metres since the first sweep, positive when receding
+    static const int AMPLITUDE = 1;     // mean bin magnitude; phase means little when it's low
+    static const int STRIDE = 2;
+
+    PhaseRanging(const SonarConfig &config) :
+            cells(config.phase_cell_count),
+            decimation(config.phase_decimation > 0 ? config.phase_decimation : 1),
+            outputs(OUTPUT_CAPACITY, STRIDE * (cells > 0 ? cells : 1)) {
+        for(int c = 0; c < cells; ++c) {
+            cell[c] = config.phase_cells[c];
+            meters_per_radian[c] = -SonarConfig::SPEED_OF_SOUND / (4 * (float)M_PI * config.cell_hz(cell[c]));
+            last_phase[c] = 0;
+            unwrapped[c] = 0;
+            displacement_sum[c] = 0;
+            amplitude_sum[c] = 0;
+        }
+    }
+
+    bool enabled() const {
+        return cells > 0;
+    }
+
+    int get_cell_count() const {
+        return cells;
+    }
+
+    // band is the spectrum of one sweep, starting at the first band bin
+    void update(const kiss_fft_cpx *band, int64_t timestamp_ns) {
+        for(int c = 0; c < cells; ++c) {
+            const kiss_fft_cpx &x = band[cell[c]];
+            float phase = atan2f(x.i, x.r);
+            if(primed) {
+                float step = phase - last_phase[c];
+                // the smallest turn that gets there
+                if(step > (float)M_PI) {
+                    step -= 2 * (float)M_PI;
+                } else if(step < -(float)M_PI) {
+                    step += 2 * (float)M_PI;
+                }
+                unwrapped[c] += step;
+            }
+            last_phase[c] = phase;
+
+            displacement_sum[c] += unwrapped[c] * meters_per_radian[c];
+            amplitude_sum[c] += sqrtf(x.r * x.r + x.i * x.i);
+        }
+        primed = true;
+
+        if(++pending < decimation) {
+            return;
+        }
+        // the consumer is behind: drop this output rather than block
+        float *frame = outputs.begin_write();
+        if(frame) {
+            for(int c = 0; c < cells; ++c) {
+                frame[c * STRIDE + DISPLACEMENT] = (float)(displacement_sum[c] / pending);
+                frame[c * STRIDE + AMPLITUDE] = (float)(amplitude_sum[c] / pending);
+            }
+            outputs.end_write(timestamp_ns);
+        }
+        for(int c = 0; c < cells; ++c) {
+            displacement_sum[c] = 0;
+            amplitude_sum[c] = 0;
+        }
+        pending = 0;
+    }
+
+    // the next sweep follows a gap: its phase starts over, and sweeps not yet averaged are
+    // discarded rather than mixed with those after the gap
+    void reset() {
+        primed = false;
+        for(int c = 0; c < cells; ++c) {
+            displacement_sum[c] = 0;
+            amplitude_sum[c] = 0;
+        }
+        pending = 0;
+    }
+
+    /**
+     * Pops the oldest unread output into out, STRIDE floats per cell.
+     * Returns false if there is none. Must only be called from one thread.
+     */
+    bool poll(float *out, SweepInfo *info) {
+        return outputs.read(out, info);
+    }
+
+private:
+    static const int OUTPUT_CAPACITY = 16;
+
+    int cells;
+    int decimation;
+    int cell[SonarConfig::MAX_PHASE_CELLS];
+    float meters_per_radian[SonarConfig::MAX_PHASE_CELLS];
+
+    bool primed = false;
+    float last_phase[SonarConfig::MAX_PHASE_CELLS];
+    double unwrapped[SonarConfig::MAX_PHASE_CELLS];
+
+    int pending = 0;
+    double displacement_sum[SonarConfig::MAX_PHASE_CELLS];
+    double amplitude_sum[SonarConfig::MAX_PHASE_CELLS];
+
+    SweepRing outputs;
+};
+
+#endif //PUDDLEJUMPER_PHASE_RANGING_H
@@ -0,0 +1,175 @@
+#ifndef PUDDLEJUMPER_PILOT_CORRELATOR_H
+#define PUDDLEJUMPER_PILOT_CORRELATOR_H
+
+#include <math.h>
+#include <stdint.h>
+#include <stdlib.h>
+#include <algorithm>
+#include <vector>
+
+#include "fft.h"
+
+/**
+ * Finds the offset at which a known pilot best matches an audio buffer, by cosine similarity.
+ *
+ * The dot products for every offset come from one forward and one inverse real FFT against a
+ * precomputed pilot spectrum, and the window energies from a running sum, so a search costs
+ * O(N log N) instead of O(N * pilot width). Results match the direct search.
+ */
+class PilotCorrelator {
+public:
+    // max_frames is the largest buffer find() will be given; it must be even
+    PilotCorrelator(const float *pilot, int pilot_width, int max_frames) :
+            pilot(pilot, pilot + pilot_width),
+            width(pilot_width),
+            nfft(max_frames),
+            padded(max_frames),
+            spectrum(max_frames / 2 + 1),
+            pilot_spectrum(max_frames / 2 + 1),
+            energy(max_frames + 1),
+            fwd(max_frames, false),
+            inv(max_frames, true) {
+
+        pilot_ssq = 0;
+        for(int j = 0; j < width; ++j) {
+            pilot_ssq += pilot[j] * pilot[j];
+        }
+
+        // store conj(P) / nfft so the inverse transform yields correlations directly
+        std::fill(padded.begin(), padded.end(), 0.0f);
+        std::copy(pilot, pilot + width, padded.begin());
+        kiss_fftr(fwd, padded.data(), pilot_spectrum.data());
+        for(size_t k = 0; k < pilot_spectrum.size(); ++k) {
+            pilot_spectrum[k].r /= nfft;
+            pilot_spectrum[k].i /= -nfft;
+        }
+    }
+
+    /**
+     * Searches offsets [0, num_frames - pilot width) for the best match.
+     * Returns the best similarity (0 if none is positive) and stores its offset.
+     */
+    float find(const float *audio, int num_frames, int *offset) {
+        int num_offsets = num_frames - width;
+        *offset = 0;
+        if(num_offsets <= 0) {
+            return 0;
+        }
+        if(num_frames > nfft) {
+            direct_searches++;
+            return find_direct(audio, num_frames, offset);
+        }
+
+        // cross-correlation with the pilot at every offset. The transform is circular, but the
+        // offsets searched never reach past num_frames, so zero padding keeps them exact.
+        std::copy(audio, audio + num_frames, padded.begin());
+        std::fill(padded.begin() + num_frames, padded.end(), 0.0f);
+        kiss_fftr(fwd, padded.data(), spectrum.data());
+        for(size_t k = 0; k < spectrum.size(); ++k) {
+            kiss_fft_cpx x = spectrum[k];
+            kiss_fft_cpx p = pilot_spectrum[k];
+            spectrum[k].r = x.r * p.r - x.i * p.i;
+            spectrum[k].i = x.r * p.i + x.i * p.r;
+        }
+        kiss_fftri(inv, spectrum.data(), padded.data());
+
+        accumulate_energy(audio, num_frames);
+
+        // windows this quiet relative to the buffer are below the transform's rounding
+        // noise, so their dot products are recomputed directly
+        double noise_floor = energy[num_frames] * 1e-6;
+
+        float maxSim = 0;
+        float pilot_norm = sqrtf(pilot_ssq);
+        for(int i = 0; i < num_offsets; ++i) {
+            double window_ssq = energy[i + width] - energy[i];
+            float dot = window_ssq > noise_floor ? padded[i] : direct_dot(audio + i);
+
+            float sim = 0;
+            float norm = pilot_norm * sqrtf((float)window_ssq);
+            if(norm > 0) {
+                sim = dot / norm;
+            }
+            if(sim > maxSim) {
+                maxSim = sim;
+                *offset = i;
+            }
+        }
+        return maxSim;
+    }
+
+    // searches that fell back to find_direct() because their buffer was longer than max_frames
+    uint64_t get_direct_searches() const {
+        return direct_searches;
+    }
+
+    // The same search done offset by offset; used for buffers longer than max_frames.
+    float find_direct(const float *audio, int num_frames, int *offset) {
+        int num_offsets = num_frames - width;
+        *offset = 0;
+        if(num_offsets <= 0) {
+            return 0;
+        }
+
+        double window_ssq = 0;
+        for(int j = 0; j < width; ++j) {
+            window_ssq += (double)audio[j] * audio[j];
+        }
+
+        float maxSim = 0;
+        float pilot_norm = sqrtf(pilot_ssq);
+        for(int i = 0; i < num_offsets; ++i) {
+            if(i > 0) {
+                window_ssq += (double)audio[i + width - 1] * audio[i + width - 1]
+                              - (double)audio[i - 1] * audio[i - 1];
+            }
+            float dot = direct_dot(audio + i);
+            float norm = pilot_norm * sqrtf((float)window_ssq);
+            float sim = norm > 0 ? dot / norm : 0;
+            if(sim > maxSim) {
+                maxSim = sim;
+                *offset = i;
+            }
+        }
+        return maxSim;
+    }
+
+private:
+    std::vector<float> pilot;
+    int width;
+    int nfft;
+
+    float pilot_ssq;
+
+    std::vector<float> padded;
+    std::vector<kiss_fft_cpx> spectrum;
+    std::vector<kiss_fft_cpx> pilot_spectrum;
+
+    // energy[k] is the sum of squares of audio[0, k), kept in double so that differences
+    // of nearby entries don't lose the window's energy to cancellation
+    std::vector<double> energy;
+
+    FFTPlan fwd;
+    FFTPlan inv;
+
+    uint64_t direct_searches = 0;
+
+    void accumulate_energy(const float *audio, int num_frames) {
+        double sum = 0;
+        energy[0] = 0;
+        for(int k = 0; k < num_frames; ++k) {
+            sum += (double)audio[k] * audio[k];
+            energy[k + 1] = sum;
+        }
+    }
+
+    float direct_dot(const float *window) {
+        float dot = 0;
+        for(int j = 0; j < width; ++j) {
+            dot += pilot[j] * window[j];
+        }
+        return dot;
+    }
+};
+
+#endif //PUDDLEJUMPER_PILOT_CORRELATOR_H
@@ -0,0 +1,185 @@
+#ifndef PUDDLEJUMPER_PIPELINE_STATS_H
+#define PUDDLEJUMPER_PIPELINE_STATS_H
+
+#include <atomic>
+#include <chrono>
+#include <stdint.h>
+
+static inline int64_t stats_clock_ns() {
+    return std::chrono::duration_cast<std::chrono::nanoseconds>(
+            std::chrono::steady_clock::now().time_since_epoch()).count();
+}
+
+/**
+ * Fixed-bucket histogram of durations. Bucket 0 counts anything under a microsecond and
+ * bucket b the range [2^(b-1), 2^b) microseconds; the last bucket also takes everything
+ * longer. Recording is a few relaxed atomic adds, so the audio callback can record while the
+ * UI reads, without locks.
+ */
+class LatencyHistogram {
+public:
+    static const int BUCKETS = 24;
+
+    // snapshot() writes the bucket counts, then these
+    static const int TOTAL_NS = BUCKETS;
+    static const int MAX_NS = BUCKETS + 1;
+    static const int STRIDE = BUCKETS + 2;
+
+    static int bucket(int64_t ns) {
+        uint64_t us = ns > 0 ? (uint64_t)ns / 1000 : 0;
+        int b = 0;
+        while(us > 0 && b < BUCKETS - 1) {
+            us >>= 1;
+            b++;
+        }
+        return b;
+    }
+
+    void record(int64_t ns) {
+        counts[bucket(ns)].fetch_add(1, std::memory_order_relaxed);
+        uint64_t d = ns > 0 ? (uint64_t)ns : 0;
+        total_ns.fetch_add(d, std::memory_order_relaxed);
+        uint64_t m = max_ns.load(std::memory_order_relaxed);
+        while(d > m && !max_ns.compare_exchange_weak(m, d, std::memory_order_relaxed)) {
+        }
+    }
+
+    // out must hold STRIDE values; buckets may be a sample or two ahead of the total
+    void snapshot(uint64_t *out) const {
+        for(int b = 0; b < BUCKETS; ++b) {
+            out[b] = counts[b].load(std::memory_order_relaxed);
+        }
+        out[TOTAL_NS] = total_ns.load(std::memory_order_relaxed);
+        out[MAX_NS] = max_ns.load(std::memory_order_relaxed);
+    }
+
+    void reset() {
+        for(int b = 0; b < BUCKETS; ++b) {
+            counts[b].store(0, std::memory_order_relaxed);
+        }
+        total_ns.store(0, std::memory_order_relaxed);
+        max_ns.store(0, std::memory_order_relaxed);
+    }
+
+private:
+    std::atomic<uint64_t> counts[BUCKETS] = {};
+    std::atomic<uint64_t> total_ns{0};
+    std::atomic<uint64_t> max_ns{0};
+};
+
+/**
+ * Per-stage latency histograms and event counters for the capture pipeline, mirrored by
+ * edu.washington.cs.puddlejumper.PipelineStats.
+ *
+ * Off by default. While off, a timed stage costs one relaxed load and a branch: the clock
+ * isn't read and nothing is written.
+ */
+class PipelineStats {
+public:
+    enum Stage {
+        CALLBACK = 0,           // one onAudioReady, end to end
+        PILOT_SEARCH = 1,       // one pilot correlation over a callback's block
+        RANGE_TRANSFORM = 2,    // one sweep's range FFT
+        LOCK_WAIT = 3,          // acquiring the listener lock from the UI thread
+        RENDER = 4,             // one frame drawn by SpectrogramView
+        ALIGNMENT_CHECK = 5,    // checking one locked sweep's start against the chirp
+        SWEEP_ANALYSIS = 6,     // clutter removal, tracking and fine ranging for one sweep
+        STAGE_COUNT = 7
+    };
+
+    enum Counter {
+        CALLBACKS = 0,          // audio callbacks handled
+        CALLBACKS_LATE = 1,     // callbacks that took longer than the audio they carried
+        SWEEPS_PRODUCED = 2,    // sweeps cut from the stream
+        SWEEPS_CONSUMED = 3,    // sweeps the UI polled
+        SWEEPS_DROPPED = 4,     // sweeps lost because the UI fell a full ring behind
+        XRUNS = 5,              // overruns reported by the audio stream, or UNAVAILABLE
+        INPUT_OVERRUNS = 6,     // blocks the callback dropped because the sweep thread was behind
+        ANALYSIS_DROPPED = 7,   // sweeps dropped because the analysis thread was behind
+        COUNTER_COUNT = 8
+    };
+
+    // a count its source can't provide, such as xruns outside AAudio; -1 in Java
+    static const uint64_t UNAVAILABLE = UINT64_MAX;
+
+    bool is_enabled() const {
+        return enabled.load(std::memory_order_relaxed);
+    }
+
+    void set_enabled(bool on) {
+        enabled.store(on, std::memory_order_relaxed);
+    }
+
+    void record(Stage stage, int64_t ns) {
+        stages[stage].record(ns);
+    }
+
+    void add(Counter counter, uint64_t n) {
+        counters[counter].fetch_add(n, std::memory_order_relaxed);
+    }
+
+    // for counts kept elsewhere, such as the stream's xruns
+    void set(Counter counter, uint64_t value) {
+        counters[counter].store(value, std::memory_order_relaxed);
+    }
+
+    /**
+     * counter_out holds COUNTER_COUNT values, stage_out STAGE_COUNT * LatencyHistogram::STRIDE.
+     * Each value is read atomically but not all at the same instant.
+     */
+    void snapshot(uint64_t *counter_out, uint64_t *stage_out) const {
+        for(int c = 0; c < COUNTER_COUNT; ++c) {
+            counter_out[c] = counters[c].load(std::memory_order_relaxed);
+        }
+        for(int s = 0; s < STAGE_COUNT; ++s) {
+            stages[s].snapshot(stage_out + s * LatencyHistogram::STRIDE);
+        }
+    }
+
+    void reset() {
+        for(int c = 0; c < COUNTER_COUNT; ++c) {
+            counters[c].store(0, std::memory_order_relaxed);
+        }
+        for(int s = 0; s < STAGE_COUNT; ++s) {
+            stages[s].reset();
+        }
+    }
+
+private:
+    std::atomic<bool> enabled{false};
+    std::atomic<uint64_t> counters[COUNTER_COUNT] = {};
+    LatencyHistogram stages[STAGE_COUNT];
+};
+
+/**
+ * Records the time from construction to destruction into one stage, if stats is non-NULL
+ * and enabled when the timer starts.
+ */
+class StageTimer {
+public:
+    StageTimer(PipelineStats *stats, PipelineStats::Stage stage) :
+            stats(stats && stats->is_enabled() ? stats : NULL),
+            stage(stage),
+            start_ns(this->stats ? stats_clock_ns() : 0) {}
+
+    ~StageTimer() {
+        if(stats) {
+            stats->record(stage, stats_clock_ns() - start_ns);
+        }
+    }
+
+    // nanoseconds since the timer started, or 0 if it isn't recording
+    int64_t elapsed_ns() const {
+        return stats ? stats_clock_ns() - start_ns : 0;
+    }
+
+private:
+    PipelineStats *stats;
+    PipelineStats::Stage stage;
+    int64_t start_ns;
+
+    StageTimer(const StageTimer&);
+    StageTimer &operator=(const StageTimer&);
+};
+
+#endif //PUDDLEJUMPER_PIPELINE_STATS_H
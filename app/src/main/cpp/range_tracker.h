@@ -0,0 +1,286 @@
+#ifndef PUDDLEJUMPER_RANGE_TRACKER_H
+#define PUDDLEJUMPER_RANGE_TRACKER_H
+
+#include <math.h>
+#include <stdint.h>
+#include <algorithm>
+#include <vector>
+
+/**
+ * Follows reflectors from one range profile to the next.
+ *
+ * Each sweep, a cell-averaging CFAR picks out bins that stand above their neighbourhood, and
+ * each peak is placed between bins from its neighbours' share of it. Detections are matched
+ * to existing tracks by nearest predicted range, and each track is smoothed with an
+ * alpha-beta filter. Unmatched detections start new tracks; tracks lose confidence on every
+ * miss and are dropped once it runs out.
+ *
+ * With a zero-padded transform (zoom > 1) a reflector's main lobe spans zoom times as many
+ * bins, so the CFAR window, the neighbours that place a peak and the association gate all
+ * widen with it.
+ *
+ * All state is fixed-size: update() is O(bins) and never allocates.
+ */
+class RangeTracker {
+public:
+    static const int MAX_TRACKS = 16;
+
+    // snapshot() writes each track as these floats, in this order
+    static const int TRACK_ID = 0;
+    static const int TRACK_RANGE = 1;        // metres
+    static const int TRACK_VELOCITY = 2;     // metres per second, positive when receding
+    static const int TRACK_CONFIDENCE = 3;   // 0 to 1
+    static const int TRACK_STRIDE = 4;
+
+    // zoom: profile bins per unpadded bin, SonarConfig::zoom_factor()
+    RangeTracker(int bins, float meters_per_bin, float sweep_interval_secs, int zoom = 1) :
+            bins(bins),
+            meters_per_bin(meters_per_bin),
+            sweep_interval(sweep_interval_secs),
+            zoom(std::max(1, zoom)),
+            energy(bins + 1) {}
+
+    void reset() {
+        for(int t = 0; t < MAX_TRACKS; ++t) {
+            tracks[t].active = false;
+        }
+        last_ns = 0;
+    }
+
+    // feeds one range profile, captured at timestamp_ns
+    void update(const float *profile, int64_t timestamp_ns) {
+        float dt = sweep_interval;
+        if(last_ns != 0 && timestamp_ns > last_ns) {
+            dt = (timestamp_ns - last_ns) * 1e-9f;
+        }
+        last_ns = timestamp_ns;
+
+        detect(profile);
+        associate(dt);
+    }
+
+    /**
+     * Writes every live track to out, TRACK_STRIDE floats each, in no particular order.
+     * out must hold MAX_TRACKS * TRACK_STRIDE floats. Returns the number written.
+     */
+    int snapshot(float *out) const {
+        int count = 0;
+        for(int t = 0; t < MAX_TRACKS; ++t) {
+            const Track &track = tracks[t];
+            if(!track.active) {
+                continue;
+            }
+            float *o = out + count * TRACK_STRIDE;
+            o[TRACK_ID] = (float)track.id;
+            o[TRACK_RANGE] = track.range;
+            o[TRACK_VELOCITY] = track.velocity;
+            o[TRACK_CONFIDENCE] = track.confidence;
+            count++;
+        }
+        return count;
+    }
+
+    int get_detection_count() const {
+        return detection_count;
+    }
+
+    // range, in metres, of detection i from the last update
+    float get_detection(int i) const {
+        return detections[i].range;
+    }
+
+private:
+    // CFAR window: cells skipped either side of the cell under test, then cells averaged, in
+    // unpadded bins
+    static const int GUARD_CELLS = 2;
+    static const int TRAINING_CELLS = 8;
+    static constexpr float THRESHOLD = 4.0f;    // times the local mean
+
+    static const int MAX_DETECTIONS = 16;
+    // furthest a detection may be from a prediction, in unpadded bins
+    static constexpr float GATE_BINS = 3.0f;
+
+    static constexpr float ALPHA = 0.4f;
+    static constexpr float BETA = 0.05f;
+
+    static constexpr float CONFIDENCE_NEW = 0.2f;
+    static constexpr float CONFIDENCE_GAIN = 0.3f;
+    static constexpr float CONFIDENCE_DECAY = 0.7f;
+    static constexpr float CONFIDENCE_MIN = 0.05f;
+
+    struct Detection {
+        float range;
+        float strength;
+        bool used;
+    };
+
+    struct Track {
+        bool active = false;
+        int id;
+        float range;
+        float velocity;
+        float confidence;
+    };
+
+    int bins;
+    float meters_per_bin;
+    float sweep_interval;
+    int zoom;
+
+    std::vector<double> energy;
+    Detection detections[MAX_DETECTIONS];
+    int detection_count = 0;
+
+    Track tracks[MAX_TRACKS];
+    int next_id = 1;
+    int64_t last_ns = 0;
+
+    void detect(const float *profile) {
+        // running sum, so each cell's training average costs O(1)
+        energy[0] = 0;
+        for(int j = 0; j < bins; ++j) {
+            energy[j + 1] = energy[j] + profile[j];
+        }
+
+        int guard = GUARD_CELLS * zoom;
+        int training = TRAINING_CELLS * zoom;
+        detection_count = 0;
+        for(int j = zoom; j < bins - zoom; ++j) {
+            float p = profile[j];
+            if(p <= 0 || p <= profile[j - 1] || p < profile[j + 1]) {
+                continue;
+            }
+            // zoomed in, every sidelobe is a local maximum too; only the main lobe's peak
+            // also stands above the bins an unpadded bin away
+            if(p <= profile[j - zoom] || p <= profile[j + zoom]) {
+                continue;
+            }
+
+            double sum = 0;
+            int cells = 0;
+            int lo_end = j - guard;
+            int lo_start = std::max(0, lo_end - training);
+            if(lo_end > lo_start) {
+                sum += energy[lo_end] - energy[lo_start];
+                cells += lo_end - lo_start;
+            }
+            int hi_start = j + guard + 1;
+            int hi_end = std::min(bins, hi_start + training);
+            if(hi_end > hi_start) {
+                sum += energy[hi_end] - energy[hi_start];
+                cells += hi_end - hi_start;
+            }
+            if(cells == 0 || p <= THRESHOLD * (float)(sum / cells)) {
+                continue;
+            }
+
+            // The sweep isn't windowed, so a reflector's main lobe is |sinc|. Taking a and c
+            // one unpadded bin (zoom bins) either side, a reflector delta unpadded bins above
+            // j gives c / p = delta / (1 - delta) and a / p = delta / (1 + delta): each
+            // neighbour alone pins delta exactly. Near a bin centre both neighbours are small
+            // and noise can swap which is larger, so the side is chosen by which reading the
+            // two agree on, and then averaged. A parabola through the three bins would be off
+            // by up to a quarter of a bin.
+            float a = profile[j - zoom], c = profile[j + zoom];
+            float up_c = c / (p + c), up_a = a / (p - a);
+            float down_a = a / (p + a), down_c = c / (p - c);
+            float offset = fabsf(up_c - up_a) <= fabsf(down_a - down_c)
+                           ? 0.5f * (up_c + up_a)
+                           : -0.5f * (down_a + down_c);
+
+            add_detection((j + offset * zoom) * meters_per_bin, p);
+        }
+    }
+
+    // keeps the strongest MAX_DETECTIONS, sorted strongest first
+    void add_detection(float range, float strength) {
+        int i = detection_count;
+        if(i == MAX_DETECTIONS) {
+            if(strength <= detections[i - 1].strength) {
+                return;
+            }
+            i--;
+        } else {
+            detection_count++;
+        }
+        while(i > 0 && detections[i - 1].strength < strength) {
+            detections[i] = detections[i - 1];
+            i--;
+        }
+        detections[i].range = range;
+        detections[i].strength = strength;
+        detections[i].used = false;
+    }
+
+    void associate(float dt) {
+        float gate = GATE_BINS * zoom * meters_per_bin;
+
+        // predict every track forward
+        bool handled[MAX_TRACKS];
+        for(int t = 0; t < MAX_TRACKS; ++t) {
+            Track &track = tracks[t];
+            handled[t] = !track.active;
+            if(track.active) {
+                track.range += track.velocity * dt;
+            }
+        }
+
+        // most confident tracks claim their nearest detection first
+        while(true) {
+            int best = -1;
+            for(int t = 0; t < MAX_TRACKS; ++t) {
+                if(!handled[t] && (best == -1 || tracks[t].confidence > tracks[best].confidence)) {
+                    best = t;
+                }
+            }
+            if(best == -1) {
+                break;
+            }
+            handled[best] = true;
+            Track &track = tracks[best];
+
+            int nearest = -1;
+            float distance = gate;
+            for(int d = 0; d < detection_count; ++d) {
+                float e = fabsf(detections[d].range - track.range);
+                if(!detections[d].used && e <= distance) {
+                    nearest = d;
+                    distance = e;
+                }
+            }
+
+            if(nearest == -1) {
+                track.confidence *= CONFIDENCE_DECAY;
+                if(track.confidence < CONFIDENCE_MIN) {
+                    track.active = false;
+                }
+                continue;
+            }
+            detections[nearest].used = true;
+            float residual = detections[nearest].range - track.range;
+            track.range += ALPHA * residual;
+            track.velocity += BETA * residual / dt;
+            track.confidence += CONFIDENCE_GAIN * (1 - track.confidence);
+        }
+
+        // whatever is left starts a track, strongest first, while there's room
+        for(int d = 0; d < detection_count; ++d) {
+            if(detections[d].used) {
+                continue;
+            }
+            for(int t = 0; t < MAX_TRACKS; ++t) {
+                Track &track = tracks[t];
+                if(!track.active) {
+                    track.active = true;
+                    track.id = next_id++;
+                    track.range = detections[d].range;
+                    track.velocity = 0;
+                    track.confidence = CONFIDENCE_NEW;
+                    break;
+                }
+            }
+        }
+    }
+};
+
+#endif //PUDDLEJUMPER_RANGE_TRACKER_H
@@ -0,0 +1,144 @@
+#ifndef PUDDLEJUMPER_SONAR_CONFIG_H
+#define PUDDLEJUMPER_SONAR_CONFIG_H
+
+#include <math.h>
+
+/**
+ * Sweep and audio geometry, fixed for the lifetime of a capture or transmission.
+ * Mirrors edu.washington.cs.puddlejumper.SonarConfig, which validates it.
+ */
+struct SonarConfig {
+    static constexpr float SPEED_OF_SOUND = 343.0f; // metres per second
+
+    // how streams are opened: OpenSL ES with fixed callbacks and separate transmit and
+    // capture streams, or AAudio low-latency exclusive streams driven as one full duplex pair
+    static const int AUDIO_OPENSL = 0;
+    static const int AUDIO_LOW_LATENCY = 1;
+
+    // where the receive chain runs: inside the audio callback, or on worker threads behind it
+    // (see SweepPipeline), and what those do when analysis falls behind
+    static const int PIPELINE_INLINE = 0;
+    static const int PIPELINE_THREADED = 1;
+    static const int QUEUE_DROP_OLDEST = 0;
+    static const int QUEUE_BLOCK = 1;
+
+    int sample_rate = 48000;
+    int frames_per_callback = 1024;
+    int audio_mode = AUDIO_OPENSL;
+    int pipeline_mode = PIPELINE_THREADED;
+    int queue_policy = QUEUE_DROP_OLDEST;
+
+    int baseband_hz = 10000;
+    int bandwidth_hz = 6400;
+    int duration_millis = 20;
+
+    // chirps sent together, each bandwidth_hz wide, starting every band_spacing_hz from
+    // baseband_hz; 0 spaces them edge to edge. Their pilots add up to one that repeats every
+    // sample_rate / gcd(band start frequencies) samples, so keep that longer than the pilot.
+    static const int MAX_BANDS = 4;
+    int band_count = 1;
+    int band_spacing_hz = 0;
+
+    // 0 means "derive from the sweep duration"
+    int nfft = 0;
+    int pilot_width = 0;
+    // range bins per unpadded bin when nfft is derived: the sweep is zero-padded zoom times
+    int zoom = 1;
+
+    // a RangeTransform::Backend
+    int fft_backend = 0;
+
+    // a ClutterFilter::Mode, and the time constant of its background average
+    int clutter_mode = 1;
+    int clutter_millis = 2000;
+
+    // range cells whose phase is followed for fine ranging; none turns it off
+    static const int MAX_PHASE_CELLS = 8;
+    int phase_cells[MAX_PHASE_CELLS] = {0};
+    int phase_cell_count = 0;
+    // sweeps averaged into each fine-ranging output
+    int phase_decimation = 5;
+
+    int duration_samples() const {
+        return sample_rate * duration_millis / 1000;
+    }
+
+    int fft_size() const {
+        return nfft > 0 ? nfft : zoom * duration_samples();
+    }
+
+    // range bins per unpadded bin, whether nfft was derived or set; at least 1
+    int zoom_factor() const {
+        int z = fft_size() / duration_samples();
+        return z > 1 ? z : 1;
+    }
+
+    int fft_bins() const {
+        return fft_size() / 2 + 1;
+    }
+
+    int pilot_samples() const {
+        return pilot_width > 0 ? pilot_width : duration_samples() / 16;
+    }
+
+    // first FFT bin of the transmitted band
+    int baseband_bin() const {
+        return baseband_hz * fft_size() / sample_rate;
+    }
+
+    // number of FFT bins the transmitted band spans; the length of a range profile
+    int bin_count() const {
+        return bandwidth_hz * fft_size() / sample_rate;
+    }
+
+    int band_spacing() const {
+        return band_spacing_hz > 0 ? band_spacing_hz : bandwidth_hz;
+    }
+
+    // lowest frequency of band b's chirp
+    int band_baseband_hz(int b) const {
+        return baseband_hz + b * band_spacing();
+    }
+
+    // first FFT bin of band b, counted from the first bin of band 0
+    int band_offset(int b) const {
+        return band_baseband_hz(b) * fft_size() / sample_rate - baseband_bin();
+    }
+
+    // FFT bins from the start of the first band to the end of the last, gaps included
+    int span_bin_count() const {
+        return band_offset(band_count - 1) + bin_count();
+    }
+
+    // bins of all bands' profiles back to back, band 0 first
+    int bands_bin_count() const {
+        return band_count * bin_count();
+    }
+
+    // range covered by one bin of the profile, matching SonarConfig.getMaxRange()
+    float meters_per_bin() const {
+        float bin_hz = (float)sample_rate / fft_size();
+        float slope = bandwidth_hz / (duration_millis / 1000.0f);
+        return SPEED_OF_SOUND * bin_hz / (2 * slope);
+    }
+
+    // centre frequency of range cell j, counted from the start of the band
+    float cell_hz(int j) const {
+        return (float)(baseband_bin() + j) * sample_rate / fft_size();
+    }
+
+    // a sweep starts every 2 * duration: the chirp, then an equally long rest
+    float sweep_interval_secs() const {
+        return 2 * duration_millis / 1000.0f;
+    }
+
+    // weight of each sweep in the clutter background; a sweep starts every 2 * duration
+    float clutter_alpha() const {
+        if(clutter_millis <= 0) {
+            return 1;
+        }
+        return 1 - expf(-2.0f * duration_millis / clutter_millis);
+    }
+};
+
+#endif //PUDDLEJUMPER_SONAR_CONFIG_H
@@ -0,0 +1,76 @@
+#ifndef PUDDLEJUMPER_SWEEP_ALIGNER_H
+#define PUDDLEJUMPER_SWEEP_ALIGNER_H
+
+#include <math.h>
+#include <stdlib.h>
+#include <vector>
+
+/**
+ * Checks that a sweep cut from the stream still starts where the chirp does.
+ *
+ * Once the pilot has been found, every chirp's start is known in advance, so rather than
+ * searching a whole callback for the pilot again, the cut sweep is correlated against the
+ * transmitted chirp at the few offsets either side of where it should be. The whole chirp
+ * is used, not just the pilot: its full bandwidth gives a sharp peak, where the pilot's
+ * narrow band would match almost as well one carrier cycle away.
+ *
+ * A check costs O(WINDOW * duration) multiply-adds, a small fraction of a full search.
+ */
+class SweepAligner {
+public:
+    // samples searched either side of the expected start
+    static const int WINDOW = 8;
+
+    // chirp is the transmitted sweep, `duration` samples long
+    SweepAligner(const float *chirp, int duration) :
+            length(duration - WINDOW),
+            reference(chirp, chirp + duration - WINDOW),
+            energy(duration + WINDOW + 1) {
+        double ssq = 0;
+        for(int n = 0; n < length; ++n) {
+            ssq += (double)reference[n] * reference[n];
+        }
+        reference_norm = sqrt(ssq);
+    }
+
+    /**
+     * sweep points at the expected start of a chirp, with WINDOW valid samples before it and
+     * `duration` after. Returns the best cosine similarity over offsets [-WINDOW, WINDOW] and
+     * stores the offset it was found at; positive means the chirp arrived late.
+     */
+    float check(const float *sweep, int *offset) {
+        const float *x = sweep - WINDOW;
+        int span = length + 2 * WINDOW;
+        energy[0] = 0;
+        for(int n = 0; n < span; ++n) {
+            energy[n + 1] = energy[n] + (double)x[n] * x[n];
+        }
+
+        float best = -1;
+        *offset = 0;
+        for(int d = -WINDOW; d <= WINDOW; ++d) {
+            const float *w = sweep + d;
+            float dot = 0;
+            for(int n = 0; n < length; ++n) {
+                dot += reference[n] * w[n];
+            }
+            double window_ssq = energy[WINDOW + d + length] - energy[WINDOW + d];
+            double norm = reference_norm * sqrt(window_ssq);
+            float sim = norm > 0 ? (float)(dot / norm) : 0;
+            // ties go to the offset nearest zero, so noise doesn't nudge a good lock
+            if(sim > best || (sim == best && abs(d) < abs(*offset))) {
+                best = sim;
+                *offset = d;
+            }
+        }
+        return best;
+    }
+
+private:
+    int length;
+    std::vector<float> reference;
+    double reference_norm;
+    std::vector<double> energy;
+};
+
+#endif //PUDDLEJUMPER_SWEEP_ALIGNER_H
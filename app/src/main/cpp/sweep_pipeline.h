@@ -0,0 +1,206 @@
+#ifndef PUDDLEJUMPER_SWEEP_PIPELINE_H
+#define PUDDLEJUMPER_SWEEP_PIPELINE_H
+
+#include <semaphore.h>
+#include <unistd.h>
+#include <atomic>
+#include <thread>
+#include <vector>
+
+#include "bounded_queue.h"
+#include "fmcw_processor.h"
+#include "pipeline_stats.h"
+#include "sonar_config.h"
+#include "sweep_ring.h"
+#include "thread_affinity.h"
+
+/**
+ * Runs an FMCWProcessor on two worker threads, so the audio callback only copies samples.
+ *
+ *   audio callback --SweepRing--> sweep thread --BoundedQueue--> analysis thread
+ *
+ * The callback copies each block into a wait-free ring, posts a semaphore and returns; if the
+ * sweep thread has fallen a whole ring behind, the block is dropped and counted, and the gap
+ * is picked up by the processor's alignment check like any other slip. Posting takes no lock
+ * and only enters the kernel when the sweep thread is asleep waiting for input. The sweep
+ * thread, pinned to the fastest cores, finds the pilot, cuts sweeps and runs the range
+ * transform. The analysis thread takes each sweep's band from a bounded queue and does
+ * clutter removal, tracking and fine ranging (FMCWProcessor::analyze). Those keep state from
+ * sweep to sweep, so a single thread runs them in order.
+ *
+ * When analysis falls behind, the queue either drops its oldest band or makes the sweep
+ * thread wait, per SonarConfig::queue_policy. Waiting backs up into the audio ring, so input
+ * is eventually dropped at the callback instead. A dropped band that marked a relock passes
+ * the mark to the next one, so analysis always resets across the gap.
+ */
+class SweepPipeline : public CaptureSink, private BandSink {
+public:
+    /**
+     * max_frames is the most one block should carry; larger blocks are split. ring_blocks
+     * bounds how many blocks the callback can get ahead of the sweep thread.
+     */
+    SweepPipeline(const SonarConfig &config, FMCWProcessor *processor, int max_frames,
+                  int ring_blocks, PipelineStats *stats) :
+            processor(processor),
+            stats(stats),
+            max_frames(max_frames),
+            bins(config.bands_bin_count()),
+            blocks(ring_blocks, 1 + max_frames),
+            bands(BAND_QUEUE_CAPACITY, 1 + 2 * config.bands_bin_count(),
+                  config.queue_policy == SonarConfig::QUEUE_BLOCK
+                  ? BoundedQueue::BLOCK : BoundedQueue::DROP_OLDEST, 0),
+            band_frame(1 + 2 * config.bands_bin_count()) {
+        sem_init(&input_ready, 0, 0);
+        processor->set_band_sink(this);
+    }
+
+    ~SweepPipeline() {
+        stop();
+        processor->set_band_sink(NULL);
+        sem_destroy(&input_ready);
+    }
+
+    void start() {
+        if(running.exchange(true)) {
+            return;
+        }
+        sweep_thread = std::thread(&SweepPipeline::sweep_loop, this);
+        analysis_thread = std::thread(&SweepPipeline::analysis_loop, this);
+    }
+
+    // blocks captured before stop() are still processed
+    void stop() {
+        if(!running.exchange(false)) {
+            return;
+        }
+        sem_post(&input_ready);
+        sweep_thread.join();
+        analysis_thread.join();
+    }
+
+    /**
+     * Audio callback side: copies the block into the ring and returns without waiting.
+     * Sweeps complete on the worker threads, so this always returns 0.
+     */
+    int process(const float *audio, int num_frames, int64_t end_ns) {
+        while(num_frames > 0) {
+            int n = num_frames < max_frames ? num_frames : max_frames;
+            num_frames -= n;
+            float *block = blocks.begin_write();
+            if(block) {
+                // a block is its frame count followed by the frames, stamped with its last one
+                block[0] = (float)n;
+                memcpy(block + 1, audio, n * sizeof(float));
+                blocks.end_write(end_ns - (int64_t)num_frames * 1000000000LL / sample_rate());
+                pushed.store(pushed.load(std::memory_order_relaxed) + 1, std::memory_order_release);
+                sem_post(&input_ready);
+            }
+            audio += n;
+        }
+        return 0;
+    }
+
+    bool is_locked() const {
+        return processor->is_locked();
+    }
+
+    /**
+     * Waits until every block accepted so far has been cut and every band from it analysed or
+     * dropped. For tests and tools; the pipeline must be running.
+     */
+    void flush() {
+        while(processed.load(std::memory_order_acquire) < pushed.load(std::memory_order_acquire) ||
+              analysed.load(std::memory_order_acquire) + bands.dropped() <
+              queued.load(std::memory_order_acquire)) {
+            usleep(100);
+        }
+    }
+
+    // blocks dropped at the callback because the sweep thread was a whole ring behind
+    uint64_t get_input_overruns() const {
+        return blocks.overruns();
+    }
+
+    // bands dropped because analysis was behind, under QUEUE_DROP_OLDEST
+    uint64_t get_analysis_drops() {
+        return bands.dropped();
+    }
+
+private:
+    // ~0.6 s of sweeps at the default 40 ms period
+    static const int BAND_QUEUE_CAPACITY = 16;
+
+    FMCWProcessor *processor;
+    PipelineStats *stats;
+    int max_frames;
+    int bins;
+
+    SweepRing blocks;
+    BoundedQueue bands;
+    // sweep-thread scratch for push_band()
+    std::vector<float> band_frame;
+
+    // posted for each block written to the ring, and once by stop(); the sweep thread
+    // sleeps on it while the ring is empty
+    sem_t input_ready;
+
+    std::atomic<bool> running{false};
+    std::thread sweep_thread;
+    std::thread analysis_thread;
+
+    // blocks accepted and cut, and bands queued and analysed, for flush()
+    std::atomic<uint64_t> pushed{0};
+    std::atomic<uint64_t> processed{0};
+    std::atomic<uint64_t> queued{0};
+    std::atomic<uint64_t> analysed{0};
+
+    int sample_rate() const {
+        return processor->get_config().sample_rate;
+    }
+
+    void sweep_loop() {
+        pin_to_fastest_cores();
+        std::vector<float> block(1 + max_frames);
+        SweepInfo info;
+        while(true) {
+            if(blocks.read(block.data(), &info)) {
+                int completed = processor->process(&block[1], (int)block[0], info.timestamp_ns);
+                if(stats && stats->is_enabled()) {
+                    stats->add(PipelineStats::SWEEPS_PRODUCED, (uint64_t)completed);
+                }
+                processed.fetch_add(1, std::memory_order_release);
+            } else if(!running.load(std::memory_order_acquire)) {
+                // stopped, and everything captured before has been cut
+                break;
+            } else {
+                // a stale post or EINTR just means another look at the ring
+                sem_wait(&input_ready);
+            }
+        }
+        bands.close();
+    }
+
+    void analysis_loop() {
+        std::vector<float> frame(1 + 2 * bins);
+        int64_t timestamp_ns;
+        while(bands.pop(frame.data(), &timestamp_ns)) {
+            {
+                StageTimer timer(stats, PipelineStats::SWEEP_ANALYSIS);
+                processor->analyze(reinterpret_cast<const kiss_fft_cpx*>(&frame[1]),
+                                   timestamp_ns, frame[0] != 0);
+            }
+            analysed.fetch_add(1, std::memory_order_release);
+        }
+    }
+
+    // sweep thread: a band frame is the restart flag followed by the band, re and im interleaved
+    void push_band(const kiss_fft_cpx *band, int count, int64_t timestamp_ns, bool restart) {
+        band_frame[0] = restart ? 1.0f : 0.0f;
+        memcpy(&band_frame[1], band, count * sizeof(kiss_fft_cpx));
+        if(bands.push(band_frame.data(), timestamp_ns)) {
+            queued.fetch_add(1, std::memory_order_release);
+        }
+    }
+};
+
+#endif //PUDDLEJUMPER_SWEEP_PIPELINE_H
@@ -0,0 +1,182 @@
+#ifndef PUDDLEJUMPER_SWEEP_RING_H
+#define PUDDLEJUMPER_SWEEP_RING_H
+
+#include <atomic>
+#include <vector>
+#include <stdint.h>
+#include <string.h>
+
+struct SweepInfo {
+    uint64_t sequence;      // 1-based count of sweeps produced, including dropped ones
+    int64_t timestamp_ns;   // CLOCK_MONOTONIC time the sweep's last sample was captured
+};
+
+/**
+ * Wait-free single-producer/single-consumer ring of fixed-size sweep frames.
+ *
+ * The producer (the audio callback) writes a frame in place between begin_write() and
+ * end_write() and never blocks: when the ring is full the sweep is dropped and counted as an
+ * overrun. The consumer pops frames oldest first, so every sweep that made it into the ring
+ * is seen exactly once and in order.
+ */
+class SweepRing {
+public:
+    // capacity is rounded up to a power of two
+    SweepRing(int capacity, int bins) : bins(bins) {
+        int size = 1;
+        while(size < capacity) {
+            size <<= 1;
+        }
+        mask = size - 1;
+        frames.resize((size_t)size * bins);
+        infos.resize(size);
+    }
+
+    int get_bins() const {
+        return bins;
+    }
+
+    int get_capacity() const {
+        return (int)mask + 1;
+    }
+
+    /**
+     * Producer side. Returns the frame to fill, or NULL if the consumer has fallen a full
+     * ring behind, in which case the sweep should be skipped.
+     */
+    float *begin_write() {
+        uint64_t h = head.load(std::memory_order_relaxed);
+        uint64_t t = tail.load(std::memory_order_acquire);
+        produced++;
+        if(h - t > mask) {
+            overrun_count.fetch_add(1, std::memory_order_relaxed);
+            return NULL;
+        }
+        return &frames[(h & mask) * bins];
+    }
+
+    // Producer side. Publishes the frame returned by the last successful begin_write().
+    void end_write(int64_t timestamp_ns) {
+        uint64_t h = head.load(std::memory_order_relaxed);
+        SweepInfo &info = infos[h & mask];
+        info.sequence = produced;
+        info.timestamp_ns = timestamp_ns;
+        head.store(h + 1, std::memory_order_release);
+    }
+
+    /**
+     * Consumer side. Copies the oldest unread frame into dst and pops it.
+     * Returns false if the ring is empty.
+     */
+    bool read(float *dst, SweepInfo *info) {
+        uint64_t t = tail.load(std::memory_order_relaxed);
+        uint64_t h = head.load(std::memory_order_acquire);
+        if(t == h) {
+            return false;
+        }
+        memcpy(dst, &frames[(t & mask) * bins], bins * sizeof(float));
+        if(info) {
+            *info = infos[t & mask];
+        }
+        tail.store(t + 1, std::memory_order_release);
+        return true;
+    }
+
+    // number of frames waiting to be read
+    int available() const {
+        return (int)(head.load(std::memory_order_acquire) - tail.load(std::memory_order_relaxed));
+    }
+
+    // number of sweeps dropped because the ring was full
+    uint64_t overruns() const {
+        return overrun_count.load(std::memory_order_relaxed);
+    }
+
+private:
+    int bins;
+    uint64_t mask;
+    std::vector<float> frames;
+    std::vector<SweepInfo> infos;
+
+    // producer-only
+    uint64_t produced = 0;
+
+    // head and tail live on separate cache lines so producer and consumer don't false-share
+    char pad0[64];
+    std::atomic<uint64_t> head{0};
+    char pad1[64];
+    std::atomic<uint64_t> tail{0};
+    char pad2[64];
+    std::atomic<uint64_t> overrun_count{0};
+};
+
+/**
+ * Wait-free single-producer/single-consumer handoff of the latest fixed-size frame, for
+ * outputs where only the newest value matters. Unlike SweepRing, publishing never fails: a
+ * frame the consumer hasn't picked up yet is simply replaced.
+ *
+ * Three buffers rotate between the producer, the consumer and a shared middle slot, so each
+ * side always owns one outright and nothing is copied on publish.
+ */
+class LatestFrame {
+public:
+    LatestFrame(int size) {
+        for(int i = 0; i < 3; ++i) {
+            frames[i].resize(size);
+            infos[i].sequence = 0;
+            infos[i].timestamp_ns = 0;
+        }
+    }
+
+    // Producer side. The frame to fill before the next publish().
+    float *write_frame() {
+        return frames[back].data();
+    }
+
+    // Producer side. Hands the filled frame over, replacing any the consumer hasn't taken.
+    void publish(int64_t timestamp_ns) {
+        infos[back].sequence = ++published;
+        infos[back].timestamp_ns = timestamp_ns;
+        back = middle.exchange(back | FRESH, std::memory_order_acq_rel) & INDEX;
+    }
+
+    /**
+     * Consumer side. Takes the newest published frame, if one arrived since the last call.
+     * Either way, read_frame() and read_info() then describe the newest frame taken.
+     */
+    bool update() {
+        if(!(middle.load(std::memory_order_relaxed) & FRESH)) {
+            return false;
+        }
+        front = middle.exchange(front, std::memory_order_acq_rel) & INDEX;
+        return true;
+    }
+
+    const float *read_frame() const {
+        return frames[front].data();
+    }
+
+    const SweepInfo &read_info() const {
+        return infos[front];
+    }
+
+private:
+    static const int INDEX = 3;
+    static const int FRESH = 4;
+
+    std::vector<float> frames[3];
+    SweepInfo infos[3];
+
+    // producer-only
+    int back = 0;
+    uint64_t published = 0;
+
+    char pad0[64];
+    std::atomic<int> middle{1};
+    char pad1[64];
+
+    // consumer-only
+    int front = 2;
+};
+
+#endif //PUDDLEJUMPER_SWEEP_RING_H
@@ -0,0 +1,49 @@
+#ifndef PUDDLEJUMPER_THREAD_AFFINITY_H
+#define PUDDLEJUMPER_THREAD_AFFINITY_H
+
+#include <sched.h>
+#include <stdio.h>
+#include <unistd.h>
+
+/**
+ * Pins the calling thread to the fastest CPUs, ranked by cpufreq's cpuinfo_max_freq: on a
+ * big.LITTLE phone, the big cores. Returns how many CPUs the thread may now run on, or -1 if
+ * the frequencies can't be read or the kernel refuses, in which case the thread stays put.
+ */
+static int pin_to_fastest_cores() {
+    int cpus = (int)sysconf(_SC_NPROCESSORS_CONF);
+    if(cpus > CPU_SETSIZE) {
+        cpus = CPU_SETSIZE;
+    }
+
+    long fastest = 0;
+    cpu_set_t set;
+    CPU_ZERO(&set);
+    for(int cpu = 0; cpu < cpus; ++cpu) {
+        char path[96];
+        snprintf(path, sizeof(path), "/sys/devices/system/cpu/cpu%d/cpufreq/cpuinfo_max_freq", cpu);
+        FILE *f = fopen(path, "r");
+        if(!f) {
+            continue;
+        }
+        long khz = 0;
+        if(fscanf(f, "%ld", &khz) == 1 && khz >= fastest) {
+            if(khz > fastest) {
+                CPU_ZERO(&set);
+                fastest = khz;
+            }
+            CPU_SET(cpu, &set);
+        }
+        fclose(f);
+    }
+    if(fastest == 0) {
+        return -1;
+    }
+    // pid 0 is the calling thread
+    if(sched_setaffinity(0, sizeof(set), &set) != 0) {
+        return -1;
+    }
+    return CPU_COUNT(&set);
+}
+
+#endif //PUDDLEJUMPER_THREAD_AFFINITY_H
@@ -0,0 +1,138 @@
+#ifndef PUDDLEJUMPER_WAV_WRITER_H
+#define PUDDLEJUMPER_WAV_WRITER_H
+
+#include <stdio.h>
+#include <stdint.h>
+#include <string.h>
+#include <string>
+#include <vector>
+
+/**
+ * Receives captured audio in fixed-size chunks. Returning false stops the capture.
+ */
+class ChunkSink {
+public:
+    virtual ~ChunkSink() {}
+    virtual bool write(const float *samples, int count, int64_t timestamp_ns) = 0;
+};
+
+/**
+ * Writes mono float32 WAV files, starting a new file every samples_per_file samples:
+ * <prefix>-0000.wav, <prefix>-0001.wav, ... samples_per_file must be between 1 and
+ * MAX_SAMPLES_PER_FILE; otherwise every write fails.
+ */
+class ChunkedWavWriter : public ChunkSink {
+public:
+    // the RIFF size field counts the 50 header bytes after it plus the data, in 32 bits
+    static const int64_t MAX_SAMPLES_PER_FILE = (UINT32_MAX - 50) / sizeof(float);
+
+    ChunkedWavWriter(const std::string &prefix, int sample_rate, int64_t samples_per_file) :
+            prefix(prefix), sample_rate(sample_rate), samples_per_file(samples_per_file),
+            io_buffer(64 * 1024) {}
+
+    ~ChunkedWavWriter() {
+        close();
+    }
+
+    // WAV has nowhere to keep timestamps, so they're dropped
+    bool write(const float *samples, int count, int64_t) {
+        if(samples_per_file <= 0 || samples_per_file > MAX_SAMPLES_PER_FILE) {
+            return false;
+        }
+        while(count > 0) {
+            if(!file && !open_next()) {
+                return false;
+            }
+            int64_t room = samples_per_file - file_samples;
+            int n = count < room ? count : (int)room;
+            if(fwrite(samples, sizeof(float), n, file) != (size_t)n) {
+                close();
+                return false;
+            }
+            samples += n;
+            count -= n;
+            file_samples += n;
+            if(file_samples == samples_per_file) {
+                close();
+            }
+        }
+        return true;
+    }
+
+    // finishes the current file's header; the next write starts a new file
+    void close() {
+        if(!file) {
+            return;
+        }
+        uint32_t data_bytes = (uint32_t)(file_samples * sizeof(float));
+        fseek(file, 0, SEEK_SET);
+        write_header(data_bytes, (uint32_t)file_samples);
+        fclose(file);
+        file = NULL;
+    }
+
+    int get_file_count() const {
+        return file_index;
+    }
+
+private:
+    std::string prefix;
+    int sample_rate;
+    int64_t samples_per_file;
+
+    FILE *file = NULL;
+    int file_index = 0;
+    int64_t file_samples = 0;
+    std::vector<char> io_buffer;
+
+    bool open_next() {
+        char path[1024];
+        snprintf(path, sizeof(path), "%s-%04d.wav", prefix.c_str(), file_index);
+        file = fopen(path, "wb");
+        if(!file) {
+            return false;
+        }
+        setvbuf(file, io_buffer.data(), _IOFBF, io_buffer.size());
+        file_index++;
+        file_samples = 0;
+        // placeholder sizes, patched in close()
+        write_header(0, 0);
+        return true;
+    }
+
+    void put32(uint32_t v) {
+        uint8_t b[4] = {(uint8_t)v, (uint8_t)(v >> 8), (uint8_t)(v >> 16), (uint8_t)(v >> 24)};
+        fwrite(b, 1, 4, file);
+    }
+
+    void put16(uint16_t v) {
+        uint8_t b[2] = {(uint8_t)v, (uint8_t)(v >> 8)};
+        fwrite(b, 1, 2, file);
+    }
+
+    // RIFF/WAVE, WAVE_FORMAT_IEEE_FLOAT, with the fact chunk non-PCM formats require
+    void write_header(uint32_t data_bytes, uint32_t frames) {
+        fwrite("RIFF", 1, 4, file);
+        put32(4 + (8 + 18) + (8 + 4) + (8 + data_bytes));
+        fwrite("WAVE", 1, 4, file);
+
+        fwrite("fmt ", 1, 4, file);
+        put32(18);
+        put16(3);                       // IEEE float
+        put16(1);                       // mono
+        put32((uint32_t)sample_rate);
+        put32((uint32_t)sample_rate * sizeof(float));
+        put16(sizeof(float));           // block align
+        put16(32);                      // bits per sample
+        put16(0);                       // no extension
+
+        fwrite("fact", 1, 4, file);
+        put32(4);
+        put32(frames);
+
+        fwrite("data", 1, 4, file);
+        put32(data_bytes);
+    }
+};
+
+#endif //PUDDLEJUMPER_WAV_WRITER_H
@@ -0,0 +1,32 @@
+package edu.washington.cs.puddlejumper;
+
+/**
+ * Each band's own range profile, when SonarConfig.setBands sends more than one. The magnitude
+ * profile SpectrogramView polls combines them; these show which band saw what, e.g. another
+ * phone's chirps landing in one of them.
+ *
+ * One output per sweep: SonarConfig.getBandCount() profiles of SonarConfig.getBinCount()
+ * floats each, band 0 first, packed into a caller-owned float[].
+ */
+public class BandProfiles {
+
+    private BandProfiles() {}
+
+    /**
+     * Pops the oldest unread sweep's profiles into out, which must hold getBandCount() *
+     * getBinCount() floats of the config capture started with. Call from one thread at a time.
+     *
+     * @return the output's sequence number, counting from 1; 0 if none is waiting or there's
+     * only one band, or -1 if capture isn't running or out is too small
+     */
+    public static long poll(float [] out) {
+        return pollBands(out);
+    }
+
+    /**
+     * @return CLOCK_MONOTONIC time, in nanoseconds, at which the last polled sweep finished
+     */
+    public static native long getTimestamp();
+
+    private static native long pollBands(float [] out);
+}
@@ -0,0 +1,49 @@
+package edu.washington.cs.puddlejumper;
+
+/**
+ * A running maximum that forgets: each update it decays towards zero, and is raised again by
+ * any larger value. Normalising by it lets the display recover after a single loud sweep
+ * instead of staying dimmed for the rest of the session.
+ */
+public class DecayingMax {
+
+    // keeps the result usable as a divisor before anything has been seen
+    private static final float MIN = 1e-12f;
+
+    private final float decay;
+    private float max = 0;
+
+    /**
+     * @param halfLife number of updates over which a peak that isn't renewed halves
+     */
+    public DecayingMax(int halfLife) {
+        if(halfLife <= 0) {
+            throw new IllegalArgumentException("half-life must be positive");
+        }
+        decay = (float)Math.pow(0.5, 1.0 / halfLife);
+    }
+
+    /**
+     * Decays the maximum once and raises it to the largest of the first count values.
+     *
+     * @return the new maximum
+     */
+    public float update(float [] values, int count) {
+        float m = max * decay;
+        for(int i = 0; i < count; ++i) {
+            if(values[i] > m) {
+                m = values[i];
+            }
+        }
+        max = m;
+        return get();
+    }
+
+    public float get() {
+        return Math.max(max, MIN);
+    }
+
+    public void reset() {
+        max = 0;
+    }
+}
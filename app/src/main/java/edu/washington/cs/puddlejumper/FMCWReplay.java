@@ -0,0 +1,161 @@
+package edu.washington.cs.puddlejumper;
+
+import java.io.Closeable;
+
+/**
+ * Runs the native FMCW receive chain (pilot detection, sweep alignment and range FFT) over
+ * recorded audio instead of a live stream, as fast as it will go.
+ *
+ * The native code lives in native-lib on the device, which MainActivity loads. Off-device,
+ * load the host build of libpuddlejumper_replay (see src/test/cpp) before use.
+ *
+ * Not thread-safe.
+ */
+public class FMCWReplay implements Closeable {
+
+    private final SonarConfig config;
+    private long handle;
+
+    private long sequence = 0;
+    private long timestampNs = 0;
+    private long phaseTimestampNs = 0;
+
+    public FMCWReplay(SonarConfig config) {
+        this.config = config;
+        handle = create(config);
+    }
+
+    /**
+     * Feeds length samples of audio, starting at offset, in callback-sized blocks. Timestamps
+     * count from the first sample ever fed.
+     *
+     * @return number of sweeps completed; read them with nextSweep() before ~1000 pile up,
+     *         or newer ones are dropped and counted in getOverruns()
+     */
+    public int process(float [] audio, int offset, int length) {
+        if(offset < 0 || length < 0 || offset + length > audio.length) {
+            throw new IndexOutOfBoundsException();
+        }
+        return process(handle, audio, offset, length);
+    }
+
+    /**
+     * Pops the oldest completed sweep's config.getBinCount() range magnitudes into out.
+     *
+     * @return false if no sweep is waiting
+     */
+    public boolean nextSweep(float [] out) {
+        if(out.length < config.getBinCount()) {
+            throw new IllegalArgumentException("need " + config.getBinCount() + " bins");
+        }
+        long seq = nextSweep(handle, out);
+        if(seq == 0) {
+            return false;
+        }
+        sequence = seq;
+        timestampNs = getSweepTimestamp(handle);
+        return true;
+    }
+
+    // sequence number of the sweep last returned by nextSweep()
+    public long getSequence() {
+        return sequence;
+    }
+
+    // time of the last sample of the sweep last returned by nextSweep()
+    public long getTimestamp() {
+        return timestampNs;
+    }
+
+    /**
+     * Pops the oldest completed sweep's per-band profiles into out; see BandProfiles for the
+     * layout. With a single band there are none.
+     *
+     * @return the sweep's sequence number, or 0 if none is waiting
+     */
+    public long pollBands(float [] out) {
+        int floats = config.getBandCount() * config.getBinCount();
+        if(out.length < floats) {
+            throw new IllegalArgumentException("need " + floats + " bins");
+        }
+        return pollBands(handle, out);
+    }
+
+    /**
+     * Copies the tracks as of the latest completed sweep into out; see RangeTracks for the
+     * layout.
+     *
+     * @return number of tracks
+     */
+    public int pollTracks(float [] out) {
+        if(out.length < RangeTracks.MAX_TRACKS * RangeTracks.STRIDE) {
+            throw new IllegalArgumentException("need room for " + RangeTracks.MAX_TRACKS + " tracks");
+        }
+        return pollTracks(handle, out);
+    }
+
+    /**
+     * Pops the oldest fine-ranging output into out; see PhaseRanging for the layout.
+     *
+     * @return the output's sequence number, or 0 if none is waiting
+     */
+    public long pollPhase(float [] out) {
+        if(out.length < PhaseRanging.MAX_CELLS * PhaseRanging.STRIDE) {
+            throw new IllegalArgumentException("need room for " + PhaseRanging.MAX_CELLS + " cells");
+        }
+        long seq = pollPhase(handle, out);
+        if(seq > 0) {
+            phaseTimestampNs = getPhaseTimestamp(handle);
+        }
+        return seq;
+    }
+
+    // time of the last sweep in the output last returned by pollPhase()
+    public long getPhaseTimestamp() {
+        return phaseTimestampNs;
+    }
+
+    /**
+     * Copies the alignment metrics as of the latest checked sweep into out; see SweepAlignment
+     * for the layout.
+     */
+    public void pollAlignment(float [] out) {
+        if(out.length < SweepAlignment.STRIDE) {
+            throw new IllegalArgumentException("need room for " + SweepAlignment.STRIDE + " values");
+        }
+        pollAlignment(handle, out);
+    }
+
+    /**
+     * @return sample index at which the pilot was found, or -1 if it hasn't been
+     */
+    public long getPilotPosition() {
+        return getPilotPosition(handle);
+    }
+
+    // sweeps dropped because nextSweep() wasn't called often enough
+    public long getOverruns() {
+        return getOverruns(handle);
+    }
+
+    @Override
+    public void close() {
+        if(handle != 0) {
+            destroy(handle);
+            handle = 0;
+        }
+    }
+
+    private static native long create(SonarConfig config);
+    private static native void destroy(long handle);
+    private static native int process(long handle, float [] audio, int offset, int length);
+    private static native long nextSweep(long handle, float [] magnitudes);
+    private static native long getSweepTimestamp(long handle);
+    private static native long getPilotPosition(long handle);
+    private static native long getOverruns(long handle);
+    private static native int pollTracks(long handle, float [] tracks);
+    private static native long pollBands(long handle, float [] out);
+    private static native long pollPhase(long handle, float [] out);
+    private static native long getPhaseTimestamp(long handle);
+    private static native void pollAlignment(long handle, float [] out);
+}
@@ -0,0 +1,51 @@
+package edu.washington.cs.puddlejumper;
+
+/**
+ * Picks which vsyncs get a frame: only those after something new was drawn into the
+ * spectrogram, and no more often than a given rate, so a burst of sweeps arriving together
+ * costs one frame rather than several.
+ */
+public class FramePacer {
+
+    private final long minIntervalNs;
+    private long lastFrameNs;
+    private boolean dirty = false;
+
+    /**
+     * @param maxFps frames per second not to exceed; the sweep rate, since faster frames
+     * couldn't show anything new
+     */
+    public FramePacer(float maxFps) {
+        if(!(maxFps > 0)) {
+            throw new IllegalArgumentException("frame rate must be positive");
+        }
+        // vsyncs land on a fixed grid, so allow a quarter interval early rather than skip to
+        // the vsync after
+        minIntervalNs = (long)(1e9 / maxFps * 0.75);
+        reset();
+    }
+
+    // something changed since the last frame
+    public void markDirty() {
+        dirty = true;
+    }
+
+    /**
+     * Call once per vsync. Returns whether to draw a frame now; if so, the frame counts as
+     * drawn.
+     */
+    public boolean shouldDraw(long frameTimeNanos) {
+        if(!dirty || frameTimeNanos - lastFrameNs < minIntervalNs) {
+            return false;
+        }
+        dirty = false;
+        lastFrameNs = frameTimeNanos;
+        return true;
+    }
+
+    // forgets the last frame, so the next dirty vsync draws
+    public void reset() {
+        dirty = false;
+        lastFrameNs = Long.MIN_VALUE / 2;
+    }
+}
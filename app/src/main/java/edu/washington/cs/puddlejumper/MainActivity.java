@@ -37,9 +37,19 @@ public class MainActivity extends Activity {
             requestPermissions(new String[]{Manifest.permission.RECORD_AUDIO}, 0);
         }
 
-        SpectrogramView specView = findViewById(R.id.spectrogramView);
-        final Thread specThread = new Thread(specView);
-        specThread.start();
+        Bundle extras = getIntent().getExtras();
+        final SonarConfig config = SonarConfig.fromBundle(extras).validate();
+
+        // --ez stats true: time the pipeline and show the numbers over the spectrogram
+        boolean stats = extras != null && extras.getBoolean("stats", false);
+        PipelineStats.setEnabled(stats);
+
+        final SpectrogramView specView = findViewById(R.id.spectrogramView);
+        specView.setConfig(config);
+        specView.setStatsOverlay(stats);
+        // --ef dynamicRangeDb 40: colour the spectrogram in decibels rather than linearly
+        specView.setDynamicRange(extras != null ? extras.getFloat("dynamicRangeDb", 0) : 0);
+        new Thread(specView).start();
 
         ToggleButton fmcwButton = findViewById(R.id.toggleButton);
         fmcwButton.setOnCheckedChangeListener(new CompoundButton.OnCheckedChangeListener() {
@@ -51,23 +61,43 @@ public class MainActivity extends Activity {
                 }
 
                 if(isChecked) {
-                    startCapture();
-                    startFMCW();
+                    specView.captureStarting();
+                    startCapture(config);
+                    startFMCW(config);
                 } else {
                     stopFMCW();
                     stopCapture();
-                    specThread.interrupt();
+                    specView.captureStopped();
                 }
             }
         });
 
     }
 
-    public native void startCapture();
+    public native void startCapture(SonarConfig config);
     public native void stopCapture();
 
-    public native void startFMCW();
+    public native void startFMCW(SonarConfig config);
     public native void stopFMCW();
 
     public native float [] recordFor(int timeout_millis);
+
+    /**
+     * Streams a recording to float32 WAV files named pathPrefix-0000.wav, pathPrefix-0001.wav,
+     * ..., each holding secondsPerFile of audio. Blocks for timeout_millis.
+     *
+     * @return number of samples written, or -1 on a write error
+     * @throws IllegalArgumentException if secondsPerFile isn't positive, or is so long a file
+     * would pass the WAV format's 4 GiB limit
+     */
+    public native long recordToWav(String pathPrefix, int timeout_millis, int secondsPerFile);
+
+    /**
+     * Streams a recording to listener in chunks of chunk.length samples, on this thread.
+     * Blocks for timeout_millis; memory use doesn't grow with the duration.
+     *
+     * @return number of samples delivered, or -1 if the listener threw
+     * @throws IllegalArgumentException if chunk is empty or longer than the recording
+     */
+    public native long recordChunks(int timeout_millis, float [] chunk, RecordingListener listener);
 }
@@ -0,0 +1,42 @@
+package edu.washington.cs.puddlejumper;
+
+/**
+ * Fine ranging: displacement of the reflectors in a few chosen range cells, measured from the
+ * phase of their FFT bins to well under a millimetre (see phase_ranging.h). Select the cells
+ * with SonarConfig.setPhaseCells before capture starts.
+ *
+ * Outputs arrive every SonarConfig.getPhaseDecimation() sweeps, a few per second. Each packs
+ * STRIDE floats per cell, in the order the cells were given, into a caller-owned float[].
+ */
+public class PhaseRanging {
+
+    public static final int MAX_CELLS = 8;
+
+    // offsets within each cell's STRIDE floats
+    public static final int DISPLACEMENT = 0;   // metres since capture started, positive when receding
+    public static final int AMPLITUDE = 1;      // mean bin magnitude; low means the phase is noise
+    public static final int STRIDE = 2;
+
+    private PhaseRanging() {}
+
+    /**
+     * Pops the oldest unread output into out, which must hold MAX_CELLS * STRIDE floats.
+     * Call from one thread at a time.
+     *
+     * @return the output's sequence number, counting from 1; 0 if none is waiting, or -1 if
+     * capture isn't running
+     */
+    public static long poll(float [] out) {
+        if(out.length < MAX_CELLS * STRIDE) {
+            throw new IllegalArgumentException("need room for " + MAX_CELLS + " cells");
+        }
+        return pollPhase(out);
+    }
+
+    /**
+     * @return CLOCK_MONOTONIC time, in nanoseconds, of the last sweep in the last output polled
+     */
+    public static native long getTimestamp();
+
+    private static native long pollPhase(float [] out);
+}
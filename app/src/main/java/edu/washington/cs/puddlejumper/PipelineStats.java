@@ -0,0 +1,172 @@
+package edu.washington.cs.puddlejumper;
+
+/**
+ * Latency histograms and event counters for the capture pipeline (see pipeline_stats.h).
+ *
+ * Off by default; while off, nothing is timed or counted. A snapshot copies the native
+ * values into arrays it owns, so refreshing one with update() allocates nothing:
+ * <pre>
+ *     PipelineStats.setEnabled(true);
+ *     PipelineStats stats = PipelineStats.getStats();
+ *     ...
+ *     long p99 = stats.update().getPercentileNanos(PipelineStats.CALLBACK, 0.99);
+ * </pre>
+ */
+public class PipelineStats {
+
+    // timed stages
+    public static final int CALLBACK = 0;           // one audio callback, end to end
+    public static final int PILOT_SEARCH = 1;       // pilot correlation over one callback
+    public static final int RANGE_TRANSFORM = 2;    // one sweep's range FFT
+    public static final int LOCK_WAIT = 3;          // UI thread waiting on the listener lock
+    public static final int RENDER = 4;             // one SpectrogramView frame
+    public static final int ALIGNMENT_CHECK = 5;    // checking a locked sweep's start
+    public static final int SWEEP_ANALYSIS = 6;     // clutter removal and tracking for one sweep
+    public static final int STAGES = 7;
+
+    // counters
+    public static final int CALLBACKS = 0;          // audio callbacks handled
+    public static final int CALLBACKS_LATE = 1;     // callbacks slower than the audio they carried
+    public static final int SWEEPS_PRODUCED = 2;    // sweeps cut from the stream
+    public static final int SWEEPS_CONSUMED = 3;    // sweeps the UI polled
+    public static final int SWEEPS_DROPPED = 4;     // sweeps lost to a full ring
+    public static final int XRUNS = 5;              // audio stream overruns; AAudio only
+    public static final int INPUT_OVERRUNS = 6;     // audio blocks dropped before the sweep thread
+    public static final int ANALYSIS_DROPPED = 7;   // sweeps dropped before the analysis thread
+    public static final int COUNTERS = 8;
+
+    // a counter's value when its source can't provide it
+    public static final long UNAVAILABLE = -1;
+
+    /**
+     * Bucket 0 counts durations under a microsecond, bucket b those in [2^(b-1), 2^b)
+     * microseconds. The last bucket also takes everything longer.
+     */
+    public static final int BUCKETS = 24;
+
+    // each stage's histogram is BUCKETS counts, then the total and the longest duration
+    private static final int TOTAL = BUCKETS;
+    private static final int MAX = BUCKETS + 1;
+    private static final int STRIDE = BUCKETS + 2;
+
+    private static volatile boolean enabled = false;
+
+    private final long [] counters = new long[COUNTERS];
+    private final long [] histograms = new long[STAGES * STRIDE];
+
+    PipelineStats() {}
+
+    public static void setEnabled(boolean on) {
+        enabled = on;
+        setEnabledNative(on);
+    }
+
+    public static boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Records one duration of a stage timed on the Java side, such as RENDER. Does nothing
+     * while stats are off.
+     */
+    public static void record(int stage, long nanos) {
+        if(enabled) {
+            recordNative(stage, nanos);
+        }
+    }
+
+    // zeroes every histogram and counter
+    public static void reset() {
+        resetNative();
+    }
+
+    /**
+     * @return a new snapshot of the current values
+     */
+    public static PipelineStats getStats() {
+        return new PipelineStats().update();
+    }
+
+    /**
+     * Refreshes this snapshot in place.
+     *
+     * @return this
+     */
+    public PipelineStats update() {
+        snapshot(counters, histograms);
+        return this;
+    }
+
+    /**
+     * @return the counter's value, or UNAVAILABLE if its source can't provide it, as with
+     * XRUNS on a stream that isn't AAudio
+     */
+    public long getCount(int counter) {
+        return counters[counter];
+    }
+
+    public long getBucketCount(int stage, int bucket) {
+        return histograms[stage * STRIDE + bucket];
+    }
+
+    // number of durations recorded for the stage
+    public long getSampleCount(int stage) {
+        long count = 0;
+        for(int b = 0; b < BUCKETS; ++b) {
+            count += histograms[stage * STRIDE + b];
+        }
+        return count;
+    }
+
+    public long getMeanNanos(int stage) {
+        long count = getSampleCount(stage);
+        return count > 0 ? histograms[stage * STRIDE + TOTAL] / count : 0;
+    }
+
+    public long getMaxNanos(int stage) {
+        return histograms[stage * STRIDE + MAX];
+    }
+
+    /**
+     * @return an upper bound on the fraction-th quantile: the top of the bucket it falls in,
+     * capped at the longest duration seen. 0 if nothing was recorded.
+     */
+    public long getPercentileNanos(int stage, double fraction) {
+        long count = getSampleCount(stage);
+        if(count == 0) {
+            return 0;
+        }
+        long rank = (long)Math.ceil(fraction * count);
+        long seen = 0;
+        for(int b = 0; b < BUCKETS; ++b) {
+            seen += histograms[stage * STRIDE + b];
+            if(seen >= rank && seen > 0) {
+                // the last bucket is open-ended
+                long limit = b == BUCKETS - 1 ? Long.MAX_VALUE : bucketLimitNanos(b);
+                return Math.min(limit, getMaxNanos(stage));
+            }
+        }
+        return getMaxNanos(stage);
+    }
+
+    /**
+     * @return the exclusive upper edge of a bucket, in nanoseconds
+     */
+    public static long bucketLimitNanos(int bucket) {
+        return (1L << bucket) * 1000;
+    }
+
+    // for tests: loads a snapshot without native code
+    void load(long [] counters, long [] histograms) {
+        System.arraycopy(counters, 0, this.counters, 0, COUNTERS);
+        System.arraycopy(histograms, 0, this.histograms, 0, STAGES * STRIDE);
+    }
+
+    private static native void setEnabledNative(boolean on);
+
+    private static native void recordNative(int stage, long nanos);
+
+    private static native void resetNative();
+
+    private static native void snapshot(long [] counters, long [] histograms);
+}
@@ -0,0 +1,48 @@
+package edu.washington.cs.puddlejumper;
+
+/**
+ * Reflectors followed from sweep to sweep by the native tracker (see range_tracker.h).
+ *
+ * Tracks come back packed in a caller-owned float[], STRIDE floats per track, so polling
+ * allocates nothing:
+ * <pre>
+ *     float [] tracks = new float[RangeTracks.MAX_TRACKS * RangeTracks.STRIDE];
+ *     int n = RangeTracks.poll(tracks);
+ *     for(int i = 0; i &lt; n; ++i) {
+ *         float range = tracks[i * RangeTracks.STRIDE + RangeTracks.RANGE];
+ *     }
+ * </pre>
+ */
+public class RangeTracks {
+
+    public static final int MAX_TRACKS = 16;
+
+    // offsets within each track's STRIDE floats
+    public static final int ID = 0;             // stable for the life of the track; exact below 2^24
+    public static final int RANGE = 1;          // metres
+    public static final int VELOCITY = 2;       // metres per second, positive when receding
+    public static final int CONFIDENCE = 3;     // 0 to 1; grows with each detection, decays on misses
+    public static final int STRIDE = 4;
+
+    private RangeTracks() {}
+
+    /**
+     * Copies the tracks as of the latest sweep into out, which must hold MAX_TRACKS * STRIDE
+     * floats. Call from one thread at a time.
+     *
+     * @return number of tracks, or -1 if capture isn't running
+     */
+    public static int poll(float [] out) {
+        if(out.length < MAX_TRACKS * STRIDE) {
+            throw new IllegalArgumentException("need room for " + MAX_TRACKS + " tracks");
+        }
+        return pollTracks(out);
+    }
+
+    /**
+     * @return CLOCK_MONOTONIC time, in nanoseconds, of the sweep the last poll reflects
+     */
+    public static native long getTimestamp();
+
+    private static native int pollTracks(float [] out);
+}
@@ -0,0 +1,14 @@
+package edu.washington.cs.puddlejumper;
+
+/**
+ * Receives audio streamed by MainActivity.recordChunks, on the thread that called it.
+ */
+public interface RecordingListener {
+
+    /**
+     * @param chunk the array passed to recordChunks, reused for every chunk
+     * @param length number of valid samples; only the last chunk may be short
+     * @param timestampNs CLOCK_MONOTONIC time the chunk's last sample was captured
+     */
+    void onChunk(float [] chunk, int length, long timestampNs);
+}
@@ -0,0 +1,411 @@
+package edu.washington.cs.puddlejumper;
+
+import android.os.Bundle;
+
+/**
+ * Sweep and audio geometry shared by the native transmitter and listener and the UI.
+ *
+ * Shorter sweeps refresh faster; a wider band gives finer range bins. Configure before
+ * starting capture: native code copies the values when a stream starts. The field names are
+ * read from JNI, so keep them in sync with read_config in jni_config.h.
+ */
+public class SonarConfig {
+
+    public static final float SPEED_OF_SOUND = 343.0f; // metres per second
+
+    // how audio streams are opened, see open_stream in native-lib.cpp
+    public static final int AUDIO_OPENSL = 0;         // OpenSL ES; transmit and capture run separately
+    public static final int AUDIO_LOW_LATENCY = 1;    // AAudio exclusive low latency, full duplex
+
+    // where the receive chain runs, see SweepPipeline in sweep_pipeline.h
+    public static final int PIPELINE_INLINE = 0;      // in the audio callback
+    public static final int PIPELINE_THREADED = 1;    // on worker threads; the callback only copies
+
+    // what the threaded pipeline does when analysis falls behind
+    public static final int QUEUE_DROP_OLDEST = 0;
+    public static final int QUEUE_BLOCK = 1;
+
+    // range FFT backends, see RangeTransform in fft.h
+    public static final int FFT_KISS = 0;
+    public static final int FFT_BAND_DFT = 1;
+    public static final int FFT_CHIRP_Z = 2;
+
+    // static clutter removal, see ClutterFilter in clutter_filter.h
+    public static final int CLUTTER_OFF = 0;
+    public static final int CLUTTER_SUBTRACT = 1;
+    public static final int CLUTTER_DIFFERENCE = 2;
+
+    // chirps sent together in separate bands, see setBands
+    public static final int MAX_BANDS = 4;
+
+    private int sampleRate = 48000;
+    private int framesPerCallback = 1024;
+    private int audioMode = AUDIO_OPENSL;
+    private int pipelineMode = PIPELINE_THREADED;
+    private int queuePolicy = QUEUE_DROP_OLDEST;
+
+    private int basebandHz = 10000;
+    private int bandwidthHz = 6400;
+    private int durationMillis = 20;
+
+    // 0 spaces the bands edge to edge
+    private int bandCount = 1;
+    private int bandSpacingHz = 0;
+
+    // 0 means "derive from the sweep duration"
+    private int nfft = 0;
+    private int pilotWidth = 0;
+    private int zoom = 1;
+
+    private int fftBackend = FFT_KISS;
+
+    private int clutterMode = CLUTTER_SUBTRACT;
+    private int clutterMillis = 2000;
+
+    // range cells followed by PhaseRanging; empty turns it off
+    private int [] phaseCells = new int[0];
+    private int phaseDecimation = 5;
+
+    /**
+     * Builds a config from the defaults, overridden by any int extras with matching names,
+     * e.g. {@code adb shell am start -n ... --ei durationMillis 10}.
+     */
+    public static SonarConfig fromBundle(Bundle extras) {
+        SonarConfig config = new SonarConfig();
+        if(extras == null) {
+            return config;
+        }
+        config.sampleRate = extras.getInt("sampleRate", config.sampleRate);
+        config.framesPerCallback = extras.getInt("framesPerCallback", config.framesPerCallback);
+        config.audioMode = extras.getInt("audioMode", config.audioMode);
+        config.pipelineMode = extras.getInt("pipelineMode", config.pipelineMode);
+        config.queuePolicy = extras.getInt("queuePolicy", config.queuePolicy);
+        config.basebandHz = extras.getInt("basebandHz", config.basebandHz);
+        config.bandwidthHz = extras.getInt("bandwidthHz", config.bandwidthHz);
+        config.durationMillis = extras.getInt("durationMillis", config.durationMillis);
+        config.bandCount = extras.getInt("bandCount", config.bandCount);
+        config.bandSpacingHz = extras.getInt("bandSpacingHz", config.bandSpacingHz);
+        config.nfft = extras.getInt("nfft", config.nfft);
+        config.pilotWidth = extras.getInt("pilotWidth", config.pilotWidth);
+        config.zoom = extras.getInt("zoom", config.zoom);
+        config.fftBackend = extras.getInt("fftBackend", config.fftBackend);
+        config.clutterMode = extras.getInt("clutterMode", config.clutterMode);
+        config.clutterMillis = extras.getInt("clutterMillis", config.clutterMillis);
+        int [] cells = extras.getIntArray("phaseCells");
+        if(cells != null) {
+            config.phaseCells = cells.clone();
+        }
+        config.phaseDecimation = extras.getInt("phaseDecimation", config.phaseDecimation);
+        return config;
+    }
+
+    public SonarConfig setSampleRate(int sampleRate) {
+        this.sampleRate = sampleRate;
+        return this;
+    }
+
+    public SonarConfig setFramesPerCallback(int framesPerCallback) {
+        this.framesPerCallback = framesPerCallback;
+        return this;
+    }
+
+    /**
+     * AUDIO_LOW_LATENCY transmits and captures from one burst-sized callback, so sweeps and
+     * their echoes share a sample clock and the pilot is found once per capture. Callbacks are
+     * then burst-sized, and framesPerCallback only sets how much input is gathered for each
+     * pilot search. Where AAudio is missing, Oboe falls back to OpenSL ES.
+     */
+    public SonarConfig setAudioMode(int audioMode) {
+        this.audioMode = audioMode;
+        return this;
+    }
+
+    /**
+     * PIPELINE_THREADED leaves the audio callback only copying samples into a ring; pilot
+     * search and range transforms run on a thread pinned to the fastest cores, and clutter
+     * removal and tracking on another. PIPELINE_INLINE runs everything in the callback.
+     */
+    public SonarConfig setPipelineMode(int pipelineMode) {
+        this.pipelineMode = pipelineMode;
+        return this;
+    }
+
+    /**
+     * What the threaded pipeline does when analysis can't keep up: QUEUE_DROP_OLDEST skips the
+     * oldest waiting sweeps, QUEUE_BLOCK holds up the range transforms until it catches up,
+     * and input is then dropped at the callback instead.
+     */
+    public SonarConfig setQueuePolicy(int queuePolicy) {
+        this.queuePolicy = queuePolicy;
+        return this;
+    }
+
+    public SonarConfig setBaseband(int basebandHz) {
+        this.basebandHz = basebandHz;
+        return this;
+    }
+
+    public SonarConfig setBandwidth(int bandwidthHz) {
+        this.bandwidthHz = bandwidthHz;
+        return this;
+    }
+
+    public SonarConfig setDuration(int durationMillis) {
+        this.durationMillis = durationMillis;
+        return this;
+    }
+
+    /**
+     * Sends count chirps at once, each the configured bandwidth, starting spacingHz apart from
+     * the baseband up; 0 spaces them edge to edge. One FFT per sweep covers them all. The
+     * magnitude profile is the lower median of the bands at each bin, so one band swamped by
+     * another phone's chirps doesn't show; BandProfiles has each band's own. Phones sharing a
+     * room should use bands that don't overlap. Band starts with a large common divisor make
+     * the pilot repeat within its width, so space them irregularly, e.g. 6100 Hz apart.
+     */
+    public SonarConfig setBands(int count, int spacingHz) {
+        this.bandCount = count;
+        this.bandSpacingHz = spacingHz;
+        return this;
+    }
+
+    public SonarConfig setFftSize(int nfft) {
+        this.nfft = nfft;
+        return this;
+    }
+
+    /**
+     * Zero-pads each sweep to zoom times its length, for zoom times as many range bins across
+     * the same band. Ignored when the FFT size is set explicitly. FFT_CHIRP_Z computes only the
+     * band's bins, so it keeps the cost of large zoom factors down.
+     */
+    public SonarConfig setZoom(int zoom) {
+        this.zoom = zoom;
+        return this;
+    }
+
+    public SonarConfig setPilotWidth(int pilotWidth) {
+        this.pilotWidth = pilotWidth;
+        return this;
+    }
+
+    public SonarConfig setFftBackend(int fftBackend) {
+        this.fftBackend = fftBackend;
+        return this;
+    }
+
+    public SonarConfig setClutterMode(int clutterMode) {
+        this.clutterMode = clutterMode;
+        return this;
+    }
+
+    /**
+     * @param clutterMillis how quickly the clutter background follows the scene; things that
+     * stay put for much longer than this fade from the display
+     */
+    public SonarConfig setClutterTimeConstant(int clutterMillis) {
+        this.clutterMillis = clutterMillis;
+        return this;
+    }
+
+    /**
+     * Turns on fine ranging for up to PhaseRanging.MAX_CELLS range cells, each an index into
+     * the magnitude profile. No cells turns it off. With several bands, it follows the first.
+     */
+    public SonarConfig setPhaseCells(int... cells) {
+        this.phaseCells = cells.clone();
+        return this;
+    }
+
+    /**
+     * @param sweeps number of sweeps averaged into each fine-ranging output
+     */
+    public SonarConfig setPhaseDecimation(int sweeps) {
+        this.phaseDecimation = sweeps;
+        return this;
+    }
+
+    /**
+     * @throws IllegalArgumentException if the native side couldn't run this configuration
+     */
+    public SonarConfig validate() {
+        if(sampleRate <= 0 || durationMillis <= 0 || basebandHz < 0 || bandwidthHz <= 0) {
+            throw new IllegalArgumentException("rates, band and duration must be positive");
+        }
+        if(bandCount < 1 || bandCount > MAX_BANDS) {
+            throw new IllegalArgumentException("band count must be between 1 and " + MAX_BANDS);
+        }
+        if(bandSpacingHz != 0 && bandSpacingHz < bandwidthHz) {
+            throw new IllegalArgumentException("bands overlap");
+        }
+        if(getBandBaseband(bandCount - 1) + bandwidthHz > sampleRate / 2) {
+            throw new IllegalArgumentException("band extends past the Nyquist frequency");
+        }
+        if(audioMode != AUDIO_OPENSL && audioMode != AUDIO_LOW_LATENCY) {
+            throw new IllegalArgumentException("unknown audio mode " + audioMode);
+        }
+        if(pipelineMode != PIPELINE_INLINE && pipelineMode != PIPELINE_THREADED) {
+            throw new IllegalArgumentException("unknown pipeline mode " + pipelineMode);
+        }
+        if(queuePolicy != QUEUE_DROP_OLDEST && queuePolicy != QUEUE_BLOCK) {
+            throw new IllegalArgumentException("unknown queue policy " + queuePolicy);
+        }
+        if(framesPerCallback <= 0 || framesPerCallback % 2 != 0) {
+            throw new IllegalArgumentException("frames per callback must be positive and even");
+        }
+        if(zoom < 1) {
+            throw new IllegalArgumentException("zoom must be at least 1");
+        }
+        if(getFftSize() < getDurationSamples() || getFftSize() % 2 != 0) {
+            throw new IllegalArgumentException("FFT size must be even and cover a whole sweep");
+        }
+        if(getPilotWidth() <= 0 || getPilotWidth() >= framesPerCallback) {
+            throw new IllegalArgumentException("pilot must fit in one callback");
+        }
+        if(getBinCount() <= 0) {
+            throw new IllegalArgumentException("band is narrower than one FFT bin");
+        }
+        if(fftBackend < FFT_KISS || fftBackend > FFT_CHIRP_Z) {
+            throw new IllegalArgumentException("unknown FFT backend " + fftBackend);
+        }
+        if(clutterMode < CLUTTER_OFF || clutterMode > CLUTTER_DIFFERENCE) {
+            throw new IllegalArgumentException("unknown clutter mode " + clutterMode);
+        }
+        if(clutterMillis <= 0) {
+            throw new IllegalArgumentException("clutter time constant must be positive");
+        }
+        if(phaseCells.length > PhaseRanging.MAX_CELLS) {
+            throw new IllegalArgumentException("at most " + PhaseRanging.MAX_CELLS + " phase cells");
+        }
+        for(int cell : phaseCells) {
+            if(cell < 0 || cell >= getBinCount()) {
+                throw new IllegalArgumentException("phase cell " + cell + " is out of range");
+            }
+        }
+        if(phaseDecimation <= 0) {
+            throw new IllegalArgumentException("phase decimation must be positive");
+        }
+        return this;
+    }
+
+    public int getSampleRate() {
+        return sampleRate;
+    }
+
+    public int getFramesPerCallback() {
+        return framesPerCallback;
+    }
+
+    public int getAudioMode() {
+        return audioMode;
+    }
+
+    public int getPipelineMode() {
+        return pipelineMode;
+    }
+
+    public int getQueuePolicy() {
+        return queuePolicy;
+    }
+
+    public int getBaseband() {
+        return basebandHz;
+    }
+
+    public int getBandwidth() {
+        return bandwidthHz;
+    }
+
+    public int getDuration() {
+        return durationMillis;
+    }
+
+    public int getBandCount() {
+        return bandCount;
+    }
+
+    /**
+     * @return hertz from the start of one band to the start of the next
+     */
+    public int getBandSpacing() {
+        return bandSpacingHz > 0 ? bandSpacingHz : bandwidthHz;
+    }
+
+    /**
+     * @return lowest frequency of band b's chirp
+     */
+    public int getBandBaseband(int b) {
+        return basebandHz + b * getBandSpacing();
+    }
+
+    public int getZoom() {
+        return zoom;
+    }
+
+    public int getFftBackend() {
+        return fftBackend;
+    }
+
+    public int getClutterMode() {
+        return clutterMode;
+    }
+
+    public int getClutterTimeConstant() {
+        return clutterMillis;
+    }
+
+    public int [] getPhaseCells() {
+        return phaseCells.clone();
+    }
+
+    public int getPhaseCellCount() {
+        return phaseCells.length;
+    }
+
+    public int getPhaseDecimation() {
+        return phaseDecimation;
+    }
+
+    /**
+     * @return sweeps per second; each sweep is followed by an equally long rest
+     */
+    public float getSweepRate() {
+        return 1000.0f / (2 * durationMillis);
+    }
+
+    public int getDurationSamples() {
+        return sampleRate * durationMillis / 1000;
+    }
+
+    public int getFftSize() {
+        return nfft > 0 ? nfft : zoom * getDurationSamples();
+    }
+
+    public int getPilotWidth() {
+        return pilotWidth > 0 ? pilotWidth : getDurationSamples() / 16;
+    }
+
+    /**
+     * @return first FFT bin of the transmitted band
+     */
+    public int getBasebandBin() {
+        return basebandHz * getFftSize() / sampleRate;
+    }
+
+    /**
+     * @return number of range bins in each sweep's magnitude profile
+     */
+    public int getBinCount() {
+        return bandwidthHz * getFftSize() / sampleRate;
+    }
+
+    /**
+     * @return distance, in metres, to the far edge of the last range bin. A reflector at range
+     * R shows up at beat frequency 2 * R * slope / c, where the slope is bandwidth / duration.
+     */
+    public float getMaxRange() {
+        float maxBeatHz = getBinCount() * (float)sampleRate / getFftSize();
+        float slope = bandwidthHz / (durationMillis / 1000.0f);
+        return SPEED_OF_SOUND * maxBeatHz / (2 * slope);
+    }
+}
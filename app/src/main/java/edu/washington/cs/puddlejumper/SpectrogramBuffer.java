@@ -0,0 +1,90 @@
+package edu.washington.cs.puddlejumper;
+
+import android.graphics.Color;
+
+import java.util.Arrays;
+
+/**
+ * Scrolling spectrogram pixels, one column per sweep and one row per frequency bin.
+ *
+ * Columns are written in place at a wrapping cursor, with the column after the cursor
+ * blanked so the newest data is easy to spot. Nothing is allocated after construction.
+ */
+public class SpectrogramBuffer {
+
+    private final int width;
+    private final int bins;
+    private final int [] pixels;
+
+    private int currentColumn = 0;
+    // 0 colours magnitudes linearly; otherwise the decibels below max shown
+    private float rangeDb = 0;
+
+    public SpectrogramBuffer(int width, int bins) {
+        this.width = width;
+        this.bins = bins;
+        pixels = new int[width * bins];
+        clear();
+    }
+
+    public void clear() {
+        Arrays.fill(pixels, Color.BLACK);
+        currentColumn = 0;
+    }
+
+    /**
+     * Colours magnitudes on a decibel scale from max down to rangeDb below it, rather than
+     * linearly. 0 goes back to linear.
+     */
+    public void setDynamicRange(float rangeDb) {
+        this.rangeDb = rangeDb;
+    }
+
+    /**
+     * Colours the magnitudes, getBins() of them, normalised by max, into the current column
+     * and advances the cursor.
+     *
+     * @return the column that was written
+     */
+    public int pushColumn(float [] magnitudes, float max) {
+        int column = currentColumn;
+
+        if(rangeDb > 0) {
+            ViridisColorMap.convertColumnDb(magnitudes, 1 / max, rangeDb, pixels, column, width);
+        } else {
+            ViridisColorMap.convertColumn(magnitudes, 1 / max, pixels, column, width);
+        }
+        if(column < width - 1) {
+            for(int index = column + 1; index < pixels.length; index += width) {
+                pixels[index] = Color.BLACK;
+            }
+        }
+
+        currentColumn = (currentColumn + 1) % width;
+        return column;
+    }
+
+    /**
+     * @return number of columns touched by the last pushColumn starting at column, i.e. the
+     * column itself plus the blanked one after it where there is one
+     */
+    public int dirtyColumns(int column) {
+        return column < width - 1 ? 2 : 1;
+    }
+
+    public int [] getPixels() {
+        return pixels;
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getBins() {
+        return bins;
+    }
+
+    public int getCurrentColumn() {
+        return currentColumn;
+    }
+}
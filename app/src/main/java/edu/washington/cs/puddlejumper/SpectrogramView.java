@@ -6,162 +6,462 @@ import android.graphics.Canvas;
 import android.graphics.Color;
 import android.graphics.Paint;
 import android.graphics.Rect;
+import android.os.Handler;
+import android.os.Looper;
 import android.util.AttributeSet;
 import android.util.Log;
+import android.view.Choreographer;
 import android.view.SurfaceView;
 import android.view.SurfaceHolder;
 
-import java.io.FileNotFoundException;
-import java.io.FileOutputStream;
+import java.io.File;
 import java.io.IOException;
-import java.util.Arrays;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
 
-public class SpectrogramView extends SurfaceView implements SurfaceHolder.Callback, Runnable {
+/**
+ * Scrolling spectrogram of the captured sweeps, drawn from its own thread: run() it on a new
+ * Thread, and call captureStarting and captureStopped around each capture.
+ *
+ * The thread sleeps in a Looper and wakes on vsync. While capture runs, each vsync drains new
+ * sweeps into the bitmap, but only draws a frame if one arrived, and no more often than sweeps
+ * do (see FramePacer). While the surface is gone it stops drawing and drains about once a
+ * second, so the sweep log stays complete. Everything the thread draws with is reset on the
+ * thread itself, by messages posted to its Looper, so a new capture never races a reset.
+ */
+public class SpectrogramView extends SurfaceView
+        implements SurfaceHolder.Callback, Runnable, Choreographer.FrameCallback {
 
+    // how often sweeps are drained while there's no surface; well inside the native ring
+    private static final long PAUSED_DRAIN_MILLIS = 1000;
 
-    private void initLog(Context ctx) {
+    private void init(Context ctx) {
+        logPath = new File(ctx.getFilesDir(), "sweeps.bin");
+        getHolder().addCallback(this);
+    }
+
+    private void openLog() {
         try {
-            logFile = ctx.openFileOutput("log.txt", Context.MODE_PRIVATE);
-        } catch(FileNotFoundException e) {
+            recorder = new SweepRecorder(logPath, config);
+        } catch(IOException e) {
             Log.e("PuddleJumper", "couldn't open log:" + e.getMessage());
-            logFile = null;
+            recorder = null;
         }
     }
 
     public SpectrogramView(Context context) {
         super(context);
-        initLog(context);
+        init(context);
     }
 
     public SpectrogramView(Context context, AttributeSet attrs) {
         super(context, attrs);
-        initLog(context);
+        init(context);
     }
 
     public SpectrogramView(Context context, AttributeSet attrs, int defStyleAttr) {
         super(context, attrs, defStyleAttr);
-        initLog(context);
+        init(context);
     }
 
     public SpectrogramView(Context context, AttributeSet attrs, int defStyleAttr, int defStyleRes) {
         super(context, attrs, defStyleAttr, defStyleRes);
-        initLog(context);
+        init(context);
     }
 
     public void surfaceChanged(SurfaceHolder holder, int format, int width, int height) {
-        // stub
+        synchronized(surfaceLock) {
+            surfaceReady = true;
+            surfaceWidth = width;
+            surfaceHeight = height;
+            surfaceLock.notifyAll();
+        }
+        Handler handler = renderHandler;
+        if(handler != null) {
+            handler.post(resume);
+        }
     }
 
     public void surfaceCreated(SurfaceHolder holder) {
-        // stub
+        // drawing starts once surfaceChanged gives the size
     }
 
     public void surfaceDestroyed(SurfaceHolder holder) {
-        // stub
+        // frames are only drawn holding surfaceLock, so none is in flight once this returns
+        synchronized(surfaceLock) {
+            surfaceReady = false;
+        }
+        // the activity may not come back: get the log's tail onto disk
+        Handler handler = renderHandler;
+        if(handler != null) {
+            handler.post(flushLog);
+        }
     }
 
-    @Override
-    public void run() {
-        SurfaceHolder holder = getHolder();
+    /**
+     * Call from the UI thread just before capture starts. The display and the sweep log are
+     * cleared for the new capture before any of its sweeps are polled.
+     */
+    public void captureStarting() {
+        postCapture(startDrawing, true);
+    }
 
-        float globalMax = 0;
+    /**
+     * Call from the UI thread once capture has stopped. Polling stops, and the sweeps the log
+     * was still holding are written out; both stay on screen and on disk until the next start.
+     */
+    public void captureStopped() {
+        postCapture(stopDrawing, false);
+    }
 
-        float [] magnitudes = getMagnitudes();
+    private void postCapture(Runnable r, boolean started) {
+        Handler handler;
+        synchronized(surfaceLock) {
+            captureRequested = started;
+            handler = renderHandler;
+        }
+        // without a handler yet, run() picks up captureRequested instead
+        if(handler != null) {
+            handler.post(r);
+        }
+    }
 
-        Canvas c = holder.lockCanvas();
-        while(c == null) {
-            c = holder.lockCanvas();
+    @Override
+    public void run() {
+        Looper.prepare();
+        boolean started;
+        synchronized(surfaceLock) {
+            renderHandler = new Handler();
+            started = captureRequested;
         }
 
-        int height = c.getHeight();
-        int width = c.getWidth();
-        holder.unlockCanvasAndPost(c);
+        // a peak that isn't renewed fades out of the normalisation over about two seconds
+        peak = new DecayingMax(Math.max(1, Math.round(2 * config.getSweepRate())));
+        pacer = new FramePacer(config.getSweepRate());
 
-        int [] spectrogram = null;
-        int currentColumn = 0;
-
-        boolean init = false;
-
-        while (true) {
-
-            if(!init || Thread.interrupted()) {
-                spectrogram = new int[magnitudes.length * width];
-                Arrays.fill(spectrogram, Color.parseColor("black"));
-                currentColumn = 0;
-                globalMax = 0;
-                init = true;
-                if(logFile != null) {
-                    try {
-                        logFile.getChannel().truncate(0);
-                    } catch (IOException e) {
-                        Log.e("PuddleJumper", "couldn't truncate file" + e.getMessage());
-                        logFile = null;
-                    }
+        // registered once; native code copies each new sweep into it when polled
+        bins = config.getBinCount();
+        magnitudeBuffer = ByteBuffer.allocateDirect(bins * 4)
+                .order(ByteOrder.nativeOrder())
+                .asFloatBuffer();
+        registerMagnitudeBuffer(magnitudeBuffer);
+        magnitudes = new float[bins];
+
+        int width;
+        int height;
+        synchronized(surfaceLock) {
+            while(!surfaceReady) {
+                try {
+                    surfaceLock.wait();
+                } catch(InterruptedException e) {
+                    // nothing signals this thread by interrupting it; keep waiting
                 }
             }
+            width = surfaceWidth;
+            height = surfaceHeight;
+        }
 
-            magnitudes = getMagnitudes();
+        // everything drawn per frame is set up once here, so frames don't allocate
+        spectrogram = new SpectrogramBuffer(width, bins);
+        spectrogram.setDynamicRange(dynamicRangeDb);
+        bmp = Bitmap.createBitmap(width, bins, Bitmap.Config.ARGB_8888);
+        dst = new Rect(25, 0, width, height);
+        paint = new Paint();
+        paint.setARGB(255, 255, 255, 255);
+        axis = drawAxis(height, paint);
 
-            float localMax = 0;
-            for(int i = 0; i < magnitudes.length; ++i) {
-                if (magnitudes[i] > localMax) {
-                    localMax = magnitudes[i];
-                }
+        openLog();
+
+        // refreshed about once a second; formatting the text is the only allocation it adds
+        stats = statsOverlay ? PipelineStats.getStats() : null;
+
+        reset();
+        if(started) {
+            renderHandler.post(startDrawing);
+        }
+        rendering = true;
+        Choreographer.getInstance().postFrameCallback(this);
+        Looper.loop();
+    }
+
+    // the range labels never change, so they're drawn once into a transparent layer
+    private Bitmap drawAxis(int height, Paint p) {
+        int nsteps = 12;
+        int step = height / nsteps;
+        String [] labels = new String[nsteps];
+        float labelWidth = 0;
+        for(int i = 0; i < nsteps; ++i) {
+            int y = height - (i * step);
+            float dist = (height - y) / (float)height * config.getMaxRange();
+            labels[i] = String.format("%4.2fm", dist);
+            labelWidth = Math.max(labelWidth, p.measureText(labels[i]));
+        }
+
+        Bitmap layer = Bitmap.createBitmap((int)Math.ceil(labelWidth) + 1, height,
+                Bitmap.Config.ARGB_8888);
+        Canvas c = new Canvas(layer);
+        for(int i = 0; i < nsteps; ++i) {
+            int y = height - (i * step);
+            c.drawText(labels[i], 0, y-5, p);
+        }
+        return layer;
+    }
+
+    private void reset() {
+        spectrogram.clear();
+        bmp.eraseColor(Color.BLACK);
+        peak.reset();
+        pacer.reset();
+        pacer.markDirty();
+        if(recorder != null) {
+            recorder.reset();
+        }
+    }
+
+    @Override
+    public void doFrame(long frameTimeNanos) {
+        if(capturing) {
+            drain();
+        }
+
+        synchronized(surfaceLock) {
+            if(!surfaceReady) {
+                // paused until surfaceChanged posts resume
+                rendering = false;
+                renderHandler.postDelayed(pausedDrain, PAUSED_DRAIN_MILLIS);
+                return;
             }
-            if(localMax > globalMax) {
-                globalMax = localMax;
+            if(pacer.shouldDraw(frameTimeNanos)) {
+                drawFrame();
             }
+        }
+        Choreographer.getInstance().postFrameCallback(this);
+    }
 
-            for(int i = 0; i < magnitudes.length; ++i) {
-                int index = i * width + currentColumn;
-                float normedMag = magnitudes[i] / globalMax;
-                int color = ViridisColorMap.convertToColor(normedMag);
-                spectrogram[index] = color;
-                if(currentColumn < width - 1) {
-                    spectrogram[index+1] = Color.parseColor("black");
-                }
-                if(logFile != null) {
-                    try {
-                        logFile.write(String.format("%.5f ", magnitudes[i]).getBytes());
-                    } catch (IOException e) {
-                        Log.e("PuddleJumper", "couldn't write to log:" + e.getMessage());
-                        logFile = null;
-                    }
-                }
+    // drains every sweep that arrived since the last call into the bitmap, oldest first
+    private void drain() {
+        long latest;
+        boolean any = false;
+        // 0 once capture has stopped natively, ahead of stopDrawing
+        while((latest = pollMagnitudes()) > 0 && latest != sequence) {
+            any = true;
+            sequence = latest;
+            magnitudeBuffer.get(magnitudes, 0, bins);
+            magnitudeBuffer.rewind();
+
+            int column = spectrogram.pushColumn(magnitudes, peak.update(magnitudes, bins));
+            bmp.setPixels(spectrogram.getPixels(), column, spectrogram.getWidth(),
+                    column, 0, spectrogram.dirtyColumns(column), bins);
+            pacer.markDirty();
+
+            if(recorder != null) {
+                recorder.record(magnitudes, getSweepTimestamp(), sequence);
             }
-            if(logFile != null) {
-                try {
-                    logFile.write('\n');
-                } catch (IOException e) {
-                    Log.e("PuddleJumper", "couldn't write to log:" + e.getMessage());
-                    logFile = null;
-                }
+        }
+        if(!any && recorder != null) {
+            // nothing new: hand the writer what's buffered rather than hold it for a full batch
+            recorder.flush();
+        }
+        if(recorder != null && recorder.getError() != null) {
+            Log.e("PuddleJumper", "couldn't write to log:" + recorder.getError().getMessage());
+            try {
+                recorder.close();
+            } catch(IOException e) {
+                // the error was just logged
             }
+            recorder = null;
+        }
+    }
+
+    // called holding surfaceLock with the surface ready
+    private void drawFrame() {
+        if(stats != null && System.nanoTime() - overlayRefreshNs > 1000000000L) {
+            overlay = formatStats(stats.update());
+            overlayRefreshNs = System.nanoTime();
+        }
 
-            currentColumn = (currentColumn + 1) % width;
-            Bitmap bmp = Bitmap.createBitmap(spectrogram, width, magnitudes.length, Bitmap.Config.ARGB_8888);
+        long frameStart = System.nanoTime();
+        SurfaceHolder holder = getHolder();
+        Canvas c = holder.lockCanvas();
+        if(c == null) {
+            // try again next vsync
+            pacer.markDirty();
+            return;
+        }
+        c.drawBitmap(bmp, null, dst, null);
+        c.drawBitmap(axis, 0, 0, null);
+        for(int i = 0; i < overlay.length; ++i) {
+            c.drawText(overlay[i], 60, 15 * (i + 1), paint);
+        }
+        holder.unlockCanvasAndPost(c);
+        PipelineStats.record(PipelineStats.RENDER, System.nanoTime() - frameStart);
+    }
 
-            c = holder.lockCanvas();
-            if(c == null) {
-                continue;
+    // render thread, while paused
+    private final Runnable pausedDrain = new Runnable() {
+        @Override
+        public void run() {
+            if(capturing) {
+                drain();
             }
-            c.drawBitmap(bmp, null, new Rect(25, 0, width, height), null);
+            renderHandler.postDelayed(this, PAUSED_DRAIN_MILLIS);
+        }
+    };
 
-            Paint p = new Paint();
-            p.setARGB(255, 255, 255, 255);
+    // render thread, posted just before capture starts; the new capture numbers its sweeps
+    // from 1 and starts a fresh log
+    private final Runnable startDrawing = new Runnable() {
+        @Override
+        public void run() {
+            reset();
+            sequence = 0;
+            capturing = true;
+        }
+    };
+
+    // render thread, posted once capture has stopped
+    private final Runnable stopDrawing = new Runnable() {
+        @Override
+        public void run() {
+            capturing = false;
+            flushLog.run();
+        }
+    };
+
+    // render thread, posted when capture stops or the surface goes away
+    private final Runnable flushLog = new Runnable() {
+        @Override
+        public void run() {
+            if(recorder != null) {
+                recorder.flush();
+            }
+        }
+    };
 
-            int nsteps = 12;
-            int step = height / nsteps;
-            for(int i = 0; i < nsteps; ++i) {
-                int y = height - (i * step);
-                float dist = (height - y) / (float)height * 3.43f;
-                c.drawText(String.format("%4.2fm", dist), 0, y-5, p);
+    // render thread, posted when the surface comes back
+    private final Runnable resume = new Runnable() {
+        @Override
+        public void run() {
+            if(rendering) {
+                return;
             }
-            holder.unlockCanvasAndPost(c);
+            renderHandler.removeCallbacks(pausedDrain);
+            rendering = true;
+            // the new surface starts out blank
+            pacer.reset();
+            pacer.markDirty();
+            Choreographer.getInstance().postFrameCallback(SpectrogramView.this);
         }
+    };
+
+    private static String [] formatStats(PipelineStats stats) {
+        return new String[] {
+                String.format("callback p99 %.2f ms, max %.2f ms, late %d/%d",
+                        stats.getPercentileNanos(PipelineStats.CALLBACK, 0.99) / 1e6,
+                        stats.getMaxNanos(PipelineStats.CALLBACK) / 1e6,
+                        stats.getCount(PipelineStats.CALLBACKS_LATE),
+                        stats.getCount(PipelineStats.CALLBACKS)),
+                String.format("pilot p99 %.0f us, align p99 %.0f us, fft p99 %.0f us",
+                        stats.getPercentileNanos(PipelineStats.PILOT_SEARCH, 0.99) / 1e3,
+                        stats.getPercentileNanos(PipelineStats.ALIGNMENT_CHECK, 0.99) / 1e3,
+                        stats.getPercentileNanos(PipelineStats.RANGE_TRANSFORM, 0.99) / 1e3),
+                String.format("sweeps %d in, %d drawn, %d dropped, xruns %s",
+                        stats.getCount(PipelineStats.SWEEPS_PRODUCED),
+                        stats.getCount(PipelineStats.SWEEPS_CONSUMED),
+                        stats.getCount(PipelineStats.SWEEPS_DROPPED),
+                        stats.getCount(PipelineStats.XRUNS) == PipelineStats.UNAVAILABLE
+                                ? "n/a" : Long.toString(stats.getCount(PipelineStats.XRUNS))),
+                String.format("analysis p99 %.0f us, dropped %d blocks, %d sweeps",
+                        stats.getPercentileNanos(PipelineStats.SWEEP_ANALYSIS, 0.99) / 1e3,
+                        stats.getCount(PipelineStats.INPUT_OVERRUNS),
+                        stats.getCount(PipelineStats.ANALYSIS_DROPPED)),
+                String.format("lock p99 %.0f us, render p99 %.2f ms",
+                        stats.getPercentileNanos(PipelineStats.LOCK_WAIT, 0.99) / 1e3,
+                        stats.getPercentileNanos(PipelineStats.RENDER, 0.99) / 1e6),
+        };
     }
 
-    public native float [] getMagnitudes();
+    /**
+     * Sets the sweep geometry; must be called before the render thread starts.
+     */
+    public void setConfig(SonarConfig config) {
+        this.config = config;
+    }
+
+    /**
+     * Draws PipelineStats over the spectrogram, refreshed once a second. Stats must also be
+     * enabled with PipelineStats.setEnabled. Must be called before the render thread starts.
+     */
+    public void setStatsOverlay(boolean statsOverlay) {
+        this.statsOverlay = statsOverlay;
+    }
+
+    /**
+     * Colours the spectrogram in decibels, from the normalising peak down to rangeDb below it,
+     * instead of linearly; 0 keeps it linear. Must be called before the render thread starts.
+     */
+    public void setDynamicRange(float rangeDb) {
+        this.dynamicRangeDb = rangeDb;
+    }
+
+    /**
+     * Registers a direct buffer of at least SonarConfig.getBinCount() floats in native byte order,
+     * which pollMagnitudes fills in place.
+     */
+    public native void registerMagnitudeBuffer(FloatBuffer buffer);
+
+    /**
+     * Pops the oldest sweep not yet polled into the registered buffer. Sweeps are numbered
+     * from 1 in the order they were captured; a gap means sweeps were dropped because the
+     * native ring was full (see getSweepOverruns).
+     *
+     * @return the sweep's sequence number, unchanged if no new sweep has arrived since the
+     * last poll, 0 if capture isn't running, or -1 if no buffer is registered
+     */
+    public native long pollMagnitudes();
+
+    /**
+     * @return CLOCK_MONOTONIC time, in nanoseconds, at which the last polled sweep finished
+     */
+    public native long getSweepTimestamp();
+
+    /**
+     * @return number of sweeps dropped since capture started because they weren't polled in time
+     */
+    public native long getSweepOverruns();
+
+    private File logPath;
+    private SweepRecorder recorder;
+
+    private SonarConfig config = new SonarConfig();
+    private boolean statsOverlay = false;
+    private float dynamicRangeDb = 0;
+
+    // shared with the UI thread's surface callbacks
+    private final Object surfaceLock = new Object();
+    private boolean surfaceReady = false;
+    // whether capture was last started or stopped, for a render thread without a handler yet
+    private boolean captureRequested = false;
+    private int surfaceWidth;
+    private int surfaceHeight;
+    private volatile Handler renderHandler;
 
-    private FileOutputStream logFile;
+    // render thread only, set up in run()
+    private boolean rendering = false;
+    private boolean capturing = false;
+    private FramePacer pacer;
+    private DecayingMax peak;
+    private int bins;
+    private FloatBuffer magnitudeBuffer;
+    private float [] magnitudes;
+    private long sequence;
+    private SpectrogramBuffer spectrogram;
+    private Bitmap bmp;
+    private Rect dst;
+    private Bitmap axis;
+    private Paint paint;
+    private PipelineStats stats;
+    private String [] overlay = new String[0];
+    private long overlayRefreshNs = 0;
 }
@@ -0,0 +1,50 @@
+package edu.washington.cs.puddlejumper;
+
+/**
+ * How well the live capture is staying aligned with the transmitted sweeps (see
+ * sweep_aligner.h).
+ *
+ * Once the pilot has been found, each sweep's start is checked against the chirp in a few
+ * samples either side of where it should be. Small slips are corrected as they happen; a lock
+ * that stays lost falls back to a full pilot search. The metrics come back in a caller-owned
+ * float[], so polling allocates nothing:
+ * <pre>
+ *     float [] alignment = new float[SweepAlignment.STRIDE];
+ *     if(SweepAlignment.poll(alignment)) {
+ *         float drift = alignment[SweepAlignment.DRIFT];
+ *     }
+ * </pre>
+ */
+public class SweepAlignment {
+
+    // offsets within the STRIDE floats
+    public static final int LOCKED = 0;         // 1 while sweeps are being cut, else 0
+    public static final int SIMILARITY = 1;     // of the last checked sweep with the chirp, -1 to 1
+    public static final int OFFSET = 2;         // samples the last checked sweep was off by; positive if late
+    public static final int DRIFT = 3;          // sum of all corrections made, in samples
+    public static final int CORRECTIONS = 4;    // sweeps that needed a correction
+    public static final int RELOCKS = 5;        // times the lock was lost and the pilot searched for again
+    public static final int STRIDE = 6;
+
+    private SweepAlignment() {}
+
+    /**
+     * Copies the latest metrics into out, which must hold STRIDE floats. Call from one thread
+     * at a time.
+     *
+     * @return false if capture isn't running
+     */
+    public static boolean poll(float [] out) {
+        if(out.length < STRIDE) {
+            throw new IllegalArgumentException("need room for " + STRIDE + " values");
+        }
+        return pollAlignment(out);
+    }
+
+    /**
+     * @return CLOCK_MONOTONIC time, in nanoseconds, of the last sweep checked before the last poll
+     */
+    public static native long getTimestamp();
+
+    private static native boolean pollAlignment(float [] out);
+}
@@ -0,0 +1,53 @@
+package edu.washington.cs.puddlejumper;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+
+/**
+ * Converts a binary sweep log to the original text format: one line per sweep, each
+ * magnitude printed as "%.5f ".
+ *
+ * Usable off-device: java -cp ... SweepLogConverter sweeps.bin log.txt
+ */
+public class SweepLogConverter {
+
+    /**
+     * @return number of sweeps converted
+     */
+    public static long toText(File log, Writer out) throws IOException {
+        SweepLogReader reader = new SweepLogReader(log);
+        try {
+            float [] magnitudes = new float[reader.getBinCount()];
+            long count = 0;
+            while(reader.next(magnitudes)) {
+                for(int i = 0; i < magnitudes.length; ++i) {
+                    out.write(String.format("%.5f ", magnitudes[i]));
+                }
+                out.write('\n');
+                count++;
+            }
+            out.flush();
+            return count;
+        } finally {
+            reader.close();
+        }
+    }
+
+    public static void main(String [] args) throws IOException {
+        if(args.length != 2) {
+            System.err.println("usage: SweepLogConverter <sweeps.bin> <log.txt>");
+            System.exit(2);
+        }
+        Writer out = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(args[1])));
+        try {
+            long count = toText(new File(args[0]), out);
+            System.out.println(count + " sweeps written to " + args[1]);
+        } finally {
+            out.close();
+        }
+    }
+}
@@ -0,0 +1,139 @@
+package edu.washington.cs.puddlejumper;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+
+/**
+ * Reads sweep logs written by SweepRecorder, one frame at a time.
+ */
+public class SweepLogReader implements Closeable {
+
+    private final FileChannel channel;
+    private final ByteBuffer frame;
+
+    private final int sampleRate;
+    private final int basebandHz;
+    private final int bandwidthHz;
+    private final int durationMillis;
+    private final int fftSize;
+    private final int basebandBin;
+    private final int binCount;
+    private final int clutterMode;
+    private final int clutterMillis;
+
+    private long timestampNs;
+    private long sequence;
+
+    public SweepLogReader(File file) throws IOException {
+        channel = new RandomAccessFile(file, "r").getChannel();
+
+        ByteBuffer header = ByteBuffer.allocate(SweepRecorder.HEADER_BYTES)
+                .order(ByteOrder.LITTLE_ENDIAN);
+        if(!readFully(header)) {
+            channel.close();
+            throw new IOException("truncated sweep log header");
+        }
+        header.flip();
+        int magic = header.getInt();
+        int version = header.getInt();
+        if(magic != SweepRecorder.MAGIC || version != SweepRecorder.VERSION) {
+            channel.close();
+            throw new IOException("not a version " + SweepRecorder.VERSION + " sweep log");
+        }
+        sampleRate = header.getInt();
+        basebandHz = header.getInt();
+        bandwidthHz = header.getInt();
+        durationMillis = header.getInt();
+        fftSize = header.getInt();
+        basebandBin = header.getInt();
+        binCount = header.getInt();
+        clutterMode = header.getInt();
+        clutterMillis = header.getInt();
+
+        frame = ByteBuffer.allocate(SweepRecorder.FRAME_HEADER_BYTES + 4 * binCount)
+                .order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    /**
+     * Reads the next sweep's binCount magnitudes into out.
+     *
+     * @return false at the end of the log; a partly written last frame is ignored
+     */
+    public boolean next(float [] out) throws IOException {
+        frame.clear();
+        if(!readFully(frame)) {
+            return false;
+        }
+        frame.flip();
+        timestampNs = frame.getLong();
+        sequence = frame.getLong();
+        frame.asFloatBuffer().get(out, 0, binCount);
+        return true;
+    }
+
+    // timestamp of the sweep last returned by next()
+    public long getTimestamp() {
+        return timestampNs;
+    }
+
+    // sequence number of the sweep last returned by next()
+    public long getSequence() {
+        return sequence;
+    }
+
+    public int getSampleRate() {
+        return sampleRate;
+    }
+
+    public int getBaseband() {
+        return basebandHz;
+    }
+
+    public int getBandwidth() {
+        return bandwidthHz;
+    }
+
+    public int getDuration() {
+        return durationMillis;
+    }
+
+    public int getFftSize() {
+        return fftSize;
+    }
+
+    public int getBasebandBin() {
+        return basebandBin;
+    }
+
+    public int getBinCount() {
+        return binCount;
+    }
+
+    // SonarConfig.CLUTTER_*: anything but CLUTTER_OFF means the sweeps are residuals
+    public int getClutterMode() {
+        return clutterMode;
+    }
+
+    public int getClutterTimeConstant() {
+        return clutterMillis;
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    private boolean readFully(ByteBuffer buf) throws IOException {
+        while(buf.hasRemaining()) {
+            if(channel.read(buf) < 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -0,0 +1,222 @@
+package edu.washington.cs.puddlejumper;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.ArrayBlockingQueue;
+
+/**
+ * Records sweeps to a binary log on a background thread.
+ *
+ * The calling (render) thread only copies each sweep into a pooled direct buffer; full
+ * buffers are handed to a writer thread, which writes them to a FileChannel in one call per
+ * batch. Nothing is allocated per sweep. If the writer falls so far behind that every pooled
+ * buffer is full, further sweeps are dropped and counted rather than stalling the caller.
+ *
+ * The file is little-endian: a header (see SweepLogReader) followed by one frame per sweep,
+ * each a long timestamp in nanoseconds, a long sequence number and binCount float32
+ * magnitudes. SweepLogConverter turns it back into the old text log.
+ *
+ * The magnitudes are what the spectrogram shows: with clutter removal on (the default) they
+ * are residuals after the background is subtracted, not raw range profiles. The header
+ * records the clutter mode and time constant so a reader can tell.
+ */
+public class SweepRecorder {
+
+    public static final int MAGIC = 0x57534a50; // "PJSW" in little-endian
+    public static final int VERSION = 2;
+    public static final int HEADER_BYTES = 4 * 11;
+    public static final int FRAME_HEADER_BYTES = 8 + 8;
+
+    private static final int POOL_SIZE = 4;
+    private static final int FRAMES_PER_BATCH = 32; // ~1.3 s of sweeps at the default rate
+
+    // queued to the writer in place of a batch
+    private static final ByteBuffer TRUNCATE = ByteBuffer.allocate(0);
+    private static final ByteBuffer CLOSE = ByteBuffer.allocate(0);
+
+    private final FileChannel channel;
+    private final SonarConfig config;
+    private final int frameBytes;
+
+    private final ArrayBlockingQueue<ByteBuffer> free;
+    private final ArrayBlockingQueue<ByteBuffer> filled;
+    private ByteBuffer current;
+
+    private final Thread writer;
+    private volatile IOException error;
+    private volatile long dropped = 0;
+
+    public SweepRecorder(File file, SonarConfig config) throws IOException {
+        this.config = config;
+        frameBytes = FRAME_HEADER_BYTES + 4 * config.getBinCount();
+
+        channel = new RandomAccessFile(file, "rw").getChannel();
+        channel.truncate(0);
+        writeHeader();
+
+        free = new ArrayBlockingQueue<ByteBuffer>(POOL_SIZE);
+        filled = new ArrayBlockingQueue<ByteBuffer>(POOL_SIZE + 2);
+        for(int i = 0; i < POOL_SIZE; ++i) {
+            free.add(ByteBuffer.allocateDirect(frameBytes * FRAMES_PER_BATCH)
+                    .order(ByteOrder.LITTLE_ENDIAN));
+        }
+        current = free.poll();
+
+        writer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                drain();
+            }
+        }, "SweepRecorder");
+        writer.start();
+    }
+
+    /**
+     * Queues one sweep of config.getBinCount() magnitudes. Never blocks on I/O.
+     */
+    public void record(float [] magnitudes, long timestampNs, long sequence) {
+        if(current == null) {
+            current = free.poll();
+            if(current == null) {
+                dropped++;
+                return;
+            }
+        }
+        current.putLong(timestampNs);
+        current.putLong(sequence);
+        for(int i = 0; i < config.getBinCount(); ++i) {
+            current.putFloat(magnitudes[i]);
+        }
+        if(current.remaining() < frameBytes) {
+            handOff();
+        }
+    }
+
+    /**
+     * Hands whatever has been recorded so far to the writer.
+     */
+    public void flush() {
+        if(current != null && current.position() > 0) {
+            handOff();
+        }
+    }
+
+    /**
+     * Discards everything recorded so far, leaving just the header.
+     */
+    public void reset() {
+        if(current != null) {
+            current.clear();
+        }
+        enqueue(TRUNCATE);
+    }
+
+    /**
+     * Writes out pending sweeps and closes the file.
+     */
+    public void close() throws IOException {
+        flush();
+        enqueue(CLOSE);
+        try {
+            writer.join();
+        } catch(InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        channel.close();
+        if(error != null) {
+            throw error;
+        }
+    }
+
+    /**
+     * @return the first write error, if any; once one occurs nothing more is written
+     */
+    public IOException getError() {
+        return error;
+    }
+
+    /**
+     * @return number of sweeps dropped because the writer fell behind
+     */
+    public long getDropped() {
+        return dropped;
+    }
+
+    private void handOff() {
+        current.flip();
+        enqueue(current);
+        current = free.poll();
+    }
+
+    private void enqueue(ByteBuffer batch) {
+        // an interrupt mustn't lose the batch, nor should waiting here swallow it
+        boolean interrupted = false;
+        while(true) {
+            try {
+                filled.put(batch);
+                break;
+            } catch(InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if(interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void writeHeader() throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+        header.putInt(MAGIC);
+        header.putInt(VERSION);
+        header.putInt(config.getSampleRate());
+        header.putInt(config.getBaseband());
+        header.putInt(config.getBandwidth());
+        header.putInt(config.getDuration());
+        header.putInt(config.getFftSize());
+        header.putInt(config.getBasebandBin());
+        header.putInt(config.getBinCount());
+        header.putInt(config.getClutterMode());
+        header.putInt(config.getClutterTimeConstant());
+        header.flip();
+        while(header.hasRemaining()) {
+            channel.write(header);
+        }
+    }
+
+    private void drain() {
+        while(true) {
+            ByteBuffer batch;
+            try {
+                batch = filled.take();
+            } catch(InterruptedException e) {
+                continue;
+            }
+            if(batch == CLOSE) {
+                return;
+            }
+            try {
+                if(error == null) {
+                    if(batch == TRUNCATE) {
+                        channel.truncate(0);
+                        channel.position(0);
+                        writeHeader();
+                    } else {
+                        while(batch.hasRemaining()) {
+                            channel.write(batch);
+                        }
+                    }
+                }
+            } catch(IOException e) {
+                error = e;
+            }
+            if(batch != TRUNCATE) {
+                batch.clear();
+                free.add(batch);
+            }
+        }
+    }
+}
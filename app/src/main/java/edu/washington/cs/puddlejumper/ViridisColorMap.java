@@ -1,13 +1,11 @@
 package edu.washington.cs.puddlejumper;
 
-import android.graphics.Color;
-
 /**
  * Created by kendall on 3/28/18.
  */
 
 public class ViridisColorMap {
-    private static double[][] rgb = new double[][]{
+    private static final double[][] rgb = new double[][]{
             {0.267004, 0.004874, 0.329415},
             {0.26851, 0.009605, 0.335427},
             {0.269944, 0.014625, 0.341379},
@@ -266,15 +264,66 @@ public class ViridisColorMap {
             {0.993248, 0.906157, 0.143936}
     };
 
+    /**
+     * The palette packed as ARGB, built once from rgb the way convertToColor always has.
+     */
+    private static final int [] LUT = new int[256];
+
+    static {
+        for(int i = 0; i < LUT.length; ++i) {
+            LUT[i] = argb(
+                    (int)Math.floor(rgb[i][0] * 256),
+                    (int)Math.floor(rgb[i][1] * 256),
+                    (int)Math.floor(rgb[i][2] * 256)
+            );
+        }
+    }
+
+    private static final int BLACK = argb(0, 0, 0);
+
+    /**
+     * @param val 0 to 1; values outside are clamped to the ends of the palette, NaN is black
+     */
     public static int convertToColor(double val) {
-        if (Double.isNaN(val)) {
-            return Color.rgb(0,0,0);
+        if(Double.isNaN(val)) {
+            return BLACK;
+        }
+        return LUT[clamp((int)(val * 255))];
+    }
+
+    /**
+     * Colours a column of magnitudes, each multiplied by scale: mags[i] * scale goes to
+     * out[offset + i * stride], with the same colours and clamping as convertToColor.
+     */
+    public static void convertColumn(float [] mags, float scale, int [] out, int offset, int stride) {
+        float k = scale * 255f;
+        for(int i = 0, o = offset; i < mags.length; ++i, o += stride) {
+            float v = mags[i] * k;
+            out[o] = v == v ? LUT[clamp((int)v)] : BLACK;
+        }
+    }
+
+    /**
+     * Like convertColumn, but on a decibel scale: mags[i] * scale of 1 is the top of the
+     * palette and rangeDb below it the bottom, so weak echoes stay visible next to strong ones.
+     */
+    public static void convertColumnDb(float [] mags, float scale, float rangeDb, int [] out,
+                                       int offset, int stride) {
+        // 20 * log10(m * scale) / rangeDb + 1, mapped onto 0 to 255
+        float k = 255f * 20f / (rangeDb * (float)Math.log(10));
+        float bias = 255f + k * (float)Math.log(scale);
+        for(int i = 0, o = offset; i < mags.length; ++i, o += stride) {
+            float v = k * (float)Math.log(mags[i]) + bias;
+            out[o] = v == v ? LUT[clamp((int)v)] : BLACK;
         }
-        int idx = (int)Math.floor(val / 1.0 * 255);
-        return Color.rgb(
-                (int)Math.floor(rgb[idx][0] / 1.0 * 256),
-                (int)Math.floor(rgb[idx][1] / 1.0 * 256),
-                (int)Math.floor(rgb[idx][2] / 1.0 * 256)
-        );
     }
-}
\ No newline at end of file
+
+    private static int clamp(int index) {
+        return index < 0 ? 0 : index > 255 ? 255 : index;
+    }
+
+    // same packing as Color.rgb, but usable from local (non-Android) unit tests
+    private static int argb(int r, int g, int b) {
+        return 0xff000000 | (r << 16) | (g << 8) | b;
+    }
+}
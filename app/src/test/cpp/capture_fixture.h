@@ -0,0 +1,85 @@
+// Synthetic captures for the tests that drive FMCWProcessor, and the loop that replays them.
+
+#ifndef PUDDLEJUMPER_CAPTURE_FIXTURE_H
+#define PUDDLEJUMPER_CAPTURE_FIXTURE_H
+
+#include <stdint.h>
+#include <algorithm>
+#include <random>
+#include <vector>
+
+#include "fmcw_processor.h"
+
+static const int LEAD_IN = 300;     // silence before the first chirp
+
+// a delayed, attenuated copy of the transmission
+struct Echo {
+    int delay;      // samples
+    float gain;
+};
+
+/**
+ * The transmission as heard by the phone: LEAD_IN samples of silence, periods chirp periods
+ * in every band config sets up, then a quarter period of silence. Once locked, the processor
+ * keeps cutting sweeps, so the capture stops short of another full chirp slot. The direct
+ * path is heard with each echo and with noise seeded from seed.
+ */
+inline std::vector<float> make_capture(const SonarConfig &config, int periods, unsigned seed,
+                                const std::vector<Echo> &echoes) {
+    FMCWSweepGenerator gen(config.baseband_hz, config.bandwidth_hz, config.duration_millis,
+                           config.sample_rate, config.band_count, config.band_spacing_hz);
+    int period = (int)gen.get_period().size();
+    std::vector<float> tx(LEAD_IN + periods * period + period / 4, 0.0f);
+    gen.generate(periods * period, &tx[LEAD_IN]);
+
+    std::mt19937 rng(seed);
+    std::normal_distribution<float> noise(0, 0.002f);
+    std::vector<float> capture(tx.size());
+    for(size_t n = 0; n < capture.size(); ++n) {
+        float s = tx[n] + noise(rng);
+        for(size_t e = 0; e < echoes.size(); ++e) {
+            if(n >= (size_t)echoes[e].delay) {
+                s += echoes[e].gain * tx[n - echoes[e].delay];
+            }
+        }
+        capture[n] = s;
+    }
+    return capture;
+}
+
+struct Sweep {
+    uint64_t sequence;
+    int64_t timestamp_ns;
+    std::vector<float> profile;
+};
+
+// pops every sweep processor has waiting into sweeps, or discards them if sweeps is NULL
+inline void drain(FMCWProcessor *processor, std::vector<Sweep> *sweeps) {
+    Sweep s;
+    s.profile.resize(processor->get_config().bin_count());
+    while(processor->available() > 0) {
+        s.sequence = processor->poll_magnitudes(s.profile.data());
+        s.timestamp_ns = processor->get_sweep_timestamp();
+        if(sweeps) {
+            sweeps->push_back(s);
+        }
+    }
+}
+
+/**
+ * Feeds audio to sink in blocks of block frames, the last possibly short, each stamped with
+ * the time of its last sample counting from sample first. after_block() runs after every
+ * block, to drain whatever the test follows before its ring overruns.
+ */
+template<typename AfterBlock>
+void replay(CaptureSink *sink, const SonarConfig &config, const std::vector<float> &audio,
+            int block, AfterBlock after_block, int64_t first = 0) {
+    for(size_t i = 0; i < audio.size(); i += block) {
+        int n = (int)std::min<size_t>(block, audio.size() - i);
+        int64_t end_ns = (first + (int64_t)(i + n)) * 1000000000LL / config.sample_rate;
+        sink->process(&audio[i], n, end_ns);
+        after_block();
+    }
+}
+
+#endif //PUDDLEJUMPER_CAPTURE_FIXTURE_H
@@ -0,0 +1,94 @@
+// Checks that ClutterFilter removes a static reflector while keeping a moving one, and that
+// differencing leaves only the change between sweeps.
+
+#include <stdio.h>
+#include <stdlib.h>
+#include <math.h>
+#include <vector>
+
+#include "clutter_filter.h"
+
+#define CHECK(cond) do { \
+    if(!(cond)) { \
+        fprintf(stderr, "%s:%d: check failed: %s\n", __FILE__, __LINE__, #cond); \
+        exit(1); \
+    } \
+} while(0)
+
+static const int BINS = 128;
+static const int STATIC_BIN = 10;
+static const int MOVING_BIN = 60;
+
+// a strong fixed reflector plus a weak one whose phase advances every sweep
+static void make_profile(int sweep, std::vector<kiss_fft_cpx> &bins) {
+    for(int j = 0; j < BINS; ++j) {
+        bins[j].r = bins[j].i = 0;
+    }
+    bins[STATIC_BIN].r = 100;
+    bins[STATIC_BIN].i = -40;
+    float phase = 0.9f * sweep;
+    bins[MOVING_BIN].r = 2 * cosf(phase);
+    bins[MOVING_BIN].i = 2 * sinf(phase);
+}
+
+int main() {
+    std::vector<kiss_fft_cpx> bins(BINS);
+    std::vector<float> out(BINS);
+
+    // OFF passes magnitudes straight through
+    {
+        ClutterFilter off(BINS, ClutterFilter::OFF, 0.1f);
+        make_profile(0, bins);
+        off.apply(bins.data(), out.data());
+        CHECK(fabsf(out[STATIC_BIN] - sqrtf(100 * 100 + 40 * 40)) < 1e-3f);
+        CHECK(fabsf(out[MOVING_BIN] - 2) < 1e-5f);
+    }
+
+    // SUBTRACT: the first sweep seeds the background, after which the static bin vanishes
+    // while the moving one stays at about its own magnitude
+    {
+        ClutterFilter subtract(BINS, ClutterFilter::SUBTRACT, 0.05f);
+        make_profile(0, bins);
+        subtract.apply(bins.data(), out.data());
+        for(int j = 0; j < BINS; ++j) {
+            CHECK(out[j] == 0);
+        }
+        for(int k = 1; k < 400; ++k) {
+            make_profile(k, bins);
+            subtract.apply(bins.data(), out.data());
+        }
+        CHECK(out[STATIC_BIN] < 1e-3f);
+        CHECK(out[MOVING_BIN] > 1.5f && out[MOVING_BIN] < 2.5f);
+        CHECK(out[0] == 0);
+
+        // after a reset the next sweep is the background again
+        subtract.reset();
+        subtract.apply(bins.data(), out.data());
+        CHECK(out[MOVING_BIN] == 0);
+    }
+
+    // DIFFERENCE: a steady rotation of the moving bin shows as a constant chord length
+    {
+        ClutterFilter difference(BINS, ClutterFilter::DIFFERENCE, 0.05f);
+        for(int k = 0; k < 400; ++k) {
+            make_profile(k, bins);
+            difference.apply(bins.data(), out.data());
+        }
+        float chord = 2 * 2 * sinf(0.9f / 2);
+        CHECK(out[STATIC_BIN] < 1e-3f);
+        CHECK(fabsf(out[MOVING_BIN] - chord) < 0.1f * chord);
+    }
+
+    // a background time constant of one sweep tracks everything: nothing but change remains
+    {
+        ClutterFilter instant(BINS, ClutterFilter::SUBTRACT, 1.0f);
+        for(int k = 0; k < 3; ++k) {
+            make_profile(0, bins);
+            instant.apply(bins.data(), out.data());
+            CHECK(out[STATIC_BIN] == 0);
+        }
+    }
+
+    printf("clutter_filter_test passed\n");
+    return 0;
+}
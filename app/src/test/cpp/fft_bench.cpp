@@ -0,0 +1,219 @@
+// Compares range FFT backends and magnitude kernels on realistic 960-sample sweeps: the
+// default 10-16.4 kHz band at 48 kHz, i.e. bins [200, 328) of a 960-point transform. Then
+// zooms in by zero padding and reports each backend's cost per sweep at each zoom factor.
+
+#include <stdio.h>
+#include <stdlib.h>
+#include <math.h>
+#include <chrono>
+#include <random>
+#include <vector>
+
+#include "fft.h"
+#include "fmcw_sweep.h"
+
+#define CHECK(cond) do { \
+    if(!(cond)) { \
+        fprintf(stderr, "%s:%d: check failed: %s\n", __FILE__, __LINE__, #cond); \
+        exit(1); \
+    } \
+} while(0)
+
+static const int SAMPLING_RATE = 48000;
+static const int NFFT = 960;
+static const int FIRST_BIN = 10000 * NFFT / SAMPLING_RATE;
+static const int BIN_COUNT = 6400 * NFFT / SAMPLING_RATE;
+
+// a received sweep: the chirp plus a few delayed, attenuated echoes and noise
+static std::vector<float> make_sweep(std::mt19937 &rng) {
+    FMCWSweepGenerator gen(10000, 6400, 20, SAMPLING_RATE);
+    const std::vector<float> &chirp = gen.get_period();
+    std::normal_distribution<float> noise(0, 0.01f);
+    std::vector<float> sweep(NFFT);
+    int delays[] = {0, 7, 23, 41};
+    float gains[] = {0.5f, 0.2f, 0.1f, 0.05f};
+    for(int n = 0; n < NFFT; ++n) {
+        float s = noise(rng);
+        for(int e = 0; e < 4; ++e) {
+            if(n >= delays[e]) {
+                s += gains[e] * chirp[n - delays[e]];
+            }
+        }
+        sweep[n] = s;
+    }
+    return sweep;
+}
+
+template<typename F>
+static double time_us(int reps, F f) {
+    auto t0 = std::chrono::steady_clock::now();
+    for(int r = 0; r < reps; ++r) {
+        f(r);
+    }
+    auto t1 = std::chrono::steady_clock::now();
+    return std::chrono::duration<double, std::micro>(t1 - t0).count() / reps;
+}
+
+/**
+ * Zero-pads the same sweeps by each zoom factor and times every backend on the padded band.
+ * Chirp-z is checked against the padded FFT first, so the table compares equal outputs.
+ */
+static void zoom_table(const std::vector<std::vector<float>> &sweeps) {
+    const int zooms[] = {1, 2, 4, 8, 16};
+    volatile float sink = 0;
+    size_t n = sweeps.size();
+
+    printf("zoom  bins  padded FFT  KISS us  BAND_DFT us  CHIRP_Z us (conv size)\n");
+    for(int zoom : zooms) {
+        int nfft = zoom * NFFT;
+        int first = zoom * FIRST_BIN;
+        int count = zoom * BIN_COUNT;
+        KissRangeTransform kiss(nfft, first, count);
+        BandDFTRangeTransform dft(nfft, first, count);
+        ChirpZRangeTransform czt(nfft, first, count, NFFT);
+        std::vector<float> reference(count), out(count);
+
+        for(size_t k = 0; k < 4; ++k) {
+            kiss.magnitudes(sweeps[k].data(), NFFT, reference.data());
+            float peak = 0;
+            for(int j = 0; j < count; ++j) {
+                peak = fmaxf(peak, reference[j]);
+            }
+            czt.magnitudes(sweeps[k].data(), NFFT, out.data());
+            for(int j = 0; j < count; ++j) {
+                CHECK(fabsf(out[j] - reference[j]) <= 1e-3f * peak);
+            }
+        }
+
+        // scale repetitions so each measurement takes a similar time
+        int reps = 4000 / zoom;
+        double kiss_us = time_us(reps, [&](int r) {
+            kiss.magnitudes(sweeps[r % n].data(), NFFT, out.data());
+            sink += out[r % count];
+        });
+        double dft_us = time_us(reps / 20 + 1, [&](int r) {
+            dft.magnitudes(sweeps[r % n].data(), NFFT, out.data());
+            sink += out[r % count];
+        });
+        double czt_us = time_us(reps, [&](int r) {
+            czt.magnitudes(sweeps[r % n].data(), NFFT, out.data());
+            sink += out[r % count];
+        });
+        printf("%4d  %4d  %10d  %7.2f  %11.2f  %10.2f (%d)\n",
+               zoom, count, nfft, kiss_us, dft_us, czt_us, czt.get_convolution_size());
+    }
+}
+
+int main() {
+    std::mt19937 rng(42);
+    std::vector<std::vector<float>> sweeps;
+    for(int k = 0; k < 32; ++k) {
+        sweeps.push_back(make_sweep(rng));
+    }
+
+    // the pool hands the same plan back once it's released
+    {
+        FFTPlan a(NFFT, false);
+        FFTPlan b(NFFT, false);
+        CHECK((kiss_fftr_cfg)a != (kiss_fftr_cfg)b);
+    }
+    int plans = FFTPlanCache::size();
+    {
+        FFTPlan c(NFFT, false);
+    }
+    CHECK(FFTPlanCache::size() == plans);
+
+    FFTPlan plan(NFFT, false);
+    std::vector<kiss_fft_cpx> spectrum(NFFT / 2 + 1);
+    std::vector<float> reference(BIN_COUNT), out(BIN_COUNT), out2(BIN_COUNT);
+
+    KissRangeTransform kiss(NFFT, FIRST_BIN, BIN_COUNT);
+    BandDFTRangeTransform dft(NFFT, FIRST_BIN, BIN_COUNT);
+    ChirpZRangeTransform czt(NFFT, FIRST_BIN, BIN_COUNT, NFFT);
+
+    // every path agrees with the original magnitude computation
+    for(size_t k = 0; k < sweeps.size(); ++k) {
+        kiss_fftr(plan, sweeps[k].data(), spectrum.data());
+        float peak = 0;
+        for(int j = 0; j < BIN_COUNT; ++j) {
+            const kiss_fft_cpx &c = spectrum[FIRST_BIN + j];
+            reference[j] = sqrtf(powf(c.i, 2) + powf(c.r, 2));
+            peak = fmaxf(peak, reference[j]);
+        }
+
+        band_magnitudes(&spectrum[FIRST_BIN], BIN_COUNT, out.data(), false);
+        band_magnitudes(&spectrum[FIRST_BIN], BIN_COUNT, out2.data(), true);
+        for(int j = 0; j < BIN_COUNT; ++j) {
+            CHECK(fabsf(out[j] - reference[j]) <= 1e-6f * reference[j]);
+            CHECK(fabsf(out2[j] - reference[j] * reference[j]) <= 1e-5f * out2[j] + 1e-12f);
+        }
+
+        kiss.magnitudes(sweeps[k].data(), NFFT, out.data());
+        for(int j = 0; j < BIN_COUNT; ++j) {
+            CHECK(fabsf(out[j] - reference[j]) <= 1e-6f * reference[j]);
+        }
+
+        dft.magnitudes(sweeps[k].data(), NFFT, out.data());
+        for(int j = 0; j < BIN_COUNT; ++j) {
+            CHECK(fabsf(out[j] - reference[j]) <= 1e-3f * peak);
+        }
+
+        czt.magnitudes(sweeps[k].data(), NFFT, out.data());
+        for(int j = 0; j < BIN_COUNT; ++j) {
+            CHECK(fabsf(out[j] - reference[j]) <= 1e-3f * peak);
+        }
+    }
+
+    const int reps = 2000;
+    volatile float sink = 0;
+    size_t n = sweeps.size();
+
+    double original = time_us(reps, [&](int r) {
+        kiss_fftr(plan, sweeps[r % n].data(), spectrum.data());
+        for(int j = 0; j < BIN_COUNT; ++j) {
+            const kiss_fft_cpx &c = spectrum[FIRST_BIN + j];
+            out[j] = sqrtf(powf(c.i, 2) + powf(c.r, 2));
+        }
+        sink += out[r % BIN_COUNT];
+    });
+    double fft_only = time_us(reps, [&](int r) {
+        kiss_fftr(plan, sweeps[r % n].data(), spectrum.data());
+        sink += spectrum[FIRST_BIN].r;
+    });
+    double kernel = time_us(reps * 10, [&](int r) {
+        band_magnitudes(&spectrum[FIRST_BIN], BIN_COUNT, out.data(), false);
+        sink += out[r % BIN_COUNT];
+    });
+    double kernel_sq = time_us(reps * 10, [&](int r) {
+        band_magnitudes(&spectrum[FIRST_BIN], BIN_COUNT, out.data(), true);
+        sink += out[r % BIN_COUNT];
+    });
+    double kiss_backend = time_us(reps, [&](int r) {
+        kiss.magnitudes(sweeps[r % n].data(), NFFT, out.data());
+        sink += out[r % BIN_COUNT];
+    });
+    double dft_backend = time_us(reps / 10, [&](int r) {
+        dft.magnitudes(sweeps[r % n].data(), NFFT, out.data());
+        sink += out[r % BIN_COUNT];
+    });
+
+#if PUDDLEJUMPER_NEON
+    const char *simd = "NEON";
+#elif PUDDLEJUMPER_SSE
+    const char *simd = "SSE";
+#else
+    const char *simd = "scalar";
+#endif
+
+    printf("%d-point sweep, bins [%d, %d), magnitude kernel: %s\n",
+           NFFT, FIRST_BIN, FIRST_BIN + BIN_COUNT, simd);
+    printf("  original kiss_fftr + sqrtf(powf)  %8.2f us/sweep\n", original);
+    printf("  kiss_fftr alone                   %8.2f us/sweep\n", fft_only);
+    printf("  band magnitude kernel             %8.3f us/sweep\n", kernel);
+    printf("  band squared-magnitude kernel     %8.3f us/sweep\n", kernel_sq);
+    printf("  backend KISS                      %8.2f us/sweep\n", kiss_backend);
+    printf("  backend BAND_DFT                  %8.2f us/sweep\n", dft_backend);
+
+    zoom_table(sweeps);
+    return 0;
+}
@@ -0,0 +1,198 @@
+// Replays a recorded capture through FMCWProcessor as fast as possible and reports
+// throughput. Accepts mono WAV (float32 as written by recordToWav, or 16-bit PCM) or raw
+// native-endian float32 samples, such as recordFor output saved with a .f32 extension.
+//
+//   fmcw_replay capture.wav                      sweeps/s and real-time factor
+//   fmcw_replay capture.wav --write golden.f32   also saves every range profile
+//   fmcw_replay capture.wav --check golden.f32   fails if any profile differs by > 1e-4
+//   fmcw_replay capture.wav --repeat 20          replays the capture 20 times
+
+#include <stdio.h>
+#include <stdlib.h>
+#include <string.h>
+#include <math.h>
+#include <chrono>
+#include <string>
+#include <vector>
+
+#include "fmcw_processor.h"
+
+static bool ends_with(const std::string &s, const char *suffix) {
+    size_t n = strlen(suffix);
+    return s.size() >= n && s.compare(s.size() - n, n, suffix) == 0;
+}
+
+static std::vector<unsigned char> read_file(const char *path) {
+    std::vector<unsigned char> bytes;
+    FILE *f = fopen(path, "rb");
+    if(!f) {
+        perror(path);
+        exit(1);
+    }
+    unsigned char buf[1 << 16];
+    size_t n;
+    while((n = fread(buf, 1, sizeof(buf), f)) > 0) {
+        bytes.insert(bytes.end(), buf, buf + n);
+    }
+    fclose(f);
+    return bytes;
+}
+
+static uint32_t get32(const unsigned char *p) {
+    return p[0] | (p[1] << 8) | (p[2] << 16) | ((uint32_t)p[3] << 24);
+}
+
+static uint16_t get16(const unsigned char *p) {
+    return (uint16_t)(p[0] | (p[1] << 8));
+}
+
+// reads the first channel of a float32 or 16-bit PCM WAV file
+static std::vector<float> read_wav(const char *path, int *sample_rate) {
+    std::vector<unsigned char> b = read_file(path);
+    if(b.size() < 12 || memcmp(&b[0], "RIFF", 4) != 0 || memcmp(&b[8], "WAVE", 4) != 0) {
+        fprintf(stderr, "%s: not a WAV file\n", path);
+        exit(1);
+    }
+    int format = 0, channels = 0, bits = 0;
+    size_t pos = 12;
+    while(pos + 8 <= b.size()) {
+        uint32_t size = get32(&b[pos + 4]);
+        const unsigned char *body = &b[pos + 8];
+        if(memcmp(&b[pos], "fmt ", 4) == 0) {
+            format = get16(body);
+            channels = get16(body + 2);
+            *sample_rate = (int)get32(body + 4);
+            bits = get16(body + 14);
+        } else if(memcmp(&b[pos], "data", 4) == 0) {
+            size = std::min<size_t>(size, b.size() - pos - 8);
+            std::vector<float> samples;
+            if(format == 3 && bits == 32) {
+                size_t frames = size / (4 * channels);
+                samples.resize(frames);
+                for(size_t i = 0; i < frames; ++i) {
+                    memcpy(&samples[i], body + 4 * channels * i, 4);
+                }
+            } else if(format == 1 && bits == 16) {
+                size_t frames = size / (2 * channels);
+                samples.resize(frames);
+                for(size_t i = 0; i < frames; ++i) {
+                    samples[i] = (int16_t)get16(body + 2 * channels * i) / 32768.0f;
+                }
+            } else {
+                fprintf(stderr, "%s: unsupported format %d/%d bits\n", path, format, bits);
+                exit(1);
+            }
+            return samples;
+        }
+        pos += 8 + size + (size & 1);
+    }
+    fprintf(stderr, "%s: no data chunk\n", path);
+    exit(1);
+}
+
+static std::vector<float> read_f32(const char *path) {
+    std::vector<unsigned char> b = read_file(path);
+    std::vector<float> samples(b.size() / sizeof(float));
+    if(!samples.empty()) {
+        memcpy(samples.data(), b.data(), samples.size() * sizeof(float));
+    }
+    return samples;
+}
+
+static void usage() {
+    fprintf(stderr, "usage: fmcw_replay <capture.wav|capture.f32> "
+                    "[--write profiles.f32] [--check profiles.f32] [--repeat n]\n");
+    exit(2);
+}
+
+int main(int argc, char **argv) {
+    if(argc < 2) {
+        usage();
+    }
+    const char *write_path = NULL;
+    const char *check_path = NULL;
+    int repeat = 1;
+    for(int i = 2; i < argc; ++i) {
+        if(strcmp(argv[i], "--write") == 0 && i + 1 < argc) {
+            write_path = argv[++i];
+        } else if(strcmp(argv[i], "--check") == 0 && i + 1 < argc) {
+            check_path = argv[++i];
+        } else if(strcmp(argv[i], "--repeat") == 0 && i + 1 < argc) {
+            repeat = atoi(argv[++i]);
+        } else {
+            usage();
+        }
+    }
+
+    SonarConfig config;
+    std::string input = argv[1];
+    std::vector<float> capture;
+    if(ends_with(input, ".wav")) {
+        capture = read_wav(argv[1], &config.sample_rate);
+    } else {
+        capture = read_f32(argv[1]);
+    }
+
+    int bins = config.bin_count();
+    int block = config.frames_per_callback;
+    std::vector<float> profiles;
+    std::vector<float> profile(bins);
+
+    uint64_t sweeps = 0;
+    int64_t pilot = -1;
+    double elapsed = 0;
+    for(int r = 0; r < repeat; ++r) {
+        FMCWProcessor processor(config, block, 64);
+        auto t0 = std::chrono::steady_clock::now();
+        for(size_t i = 0; i < capture.size(); i += block) {
+            int n = (int)std::min<size_t>(block, capture.size() - i);
+            int64_t end_ns = (int64_t)(i + n) * 1000000000LL / config.sample_rate;
+            processor.process(&capture[i], n, end_ns);
+            while(processor.available() > 0) {
+                processor.poll_magnitudes(profile.data());
+                if(r == 0 && (write_path || check_path)) {
+                    profiles.insert(profiles.end(), profile.begin(), profile.end());
+                }
+                sweeps++;
+            }
+        }
+        auto t1 = std::chrono::steady_clock::now();
+        elapsed += std::chrono::duration<double>(t1 - t0).count();
+        pilot = processor.get_pilot_position();
+    }
+
+    double audio_secs = (double)capture.size() * repeat / config.sample_rate;
+    printf("%s: %.1f s of audio at %d Hz, pilot at sample %lld\n",
+           argv[1], audio_secs / repeat, config.sample_rate, (long long)pilot);
+    printf("  %llu sweeps in %.3f s: %.0f sweeps/s, %.0fx real time\n",
+           (unsigned long long)sweeps, elapsed, sweeps / elapsed, audio_secs / elapsed);
+
+    if(write_path) {
+        FILE *f = fopen(write_path, "wb");
+        if(!f || fwrite(profiles.data(), sizeof(float), profiles.size(), f) != profiles.size()) {
+            perror(write_path);
+            return 1;
+        }
+        fclose(f);
+        printf("  wrote %zu profiles to %s\n", profiles.size() / bins, write_path);
+    }
+
+    if(check_path) {
+        std::vector<float> golden = read_f32(check_path);
+        if(golden.size() != profiles.size()) {
+            fprintf(stderr, "  %zu profiles, golden has %zu\n",
+                    profiles.size() / bins, golden.size() / bins);
+            return 1;
+        }
+        for(size_t i = 0; i < golden.size(); ++i) {
+            float tolerance = 1e-4f * fmaxf(1.0f, fabsf(golden[i]));
+            if(fabsf(profiles[i] - golden[i]) > tolerance) {
+                fprintf(stderr, "  sweep %zu bin %zu: %g, golden %g\n",
+                        i / bins, i % bins, profiles[i], golden[i]);
+                return 1;
+            }
+        }
+        printf("  matches %s\n", check_path);
+    }
+    return 0;
+}
@@ -0,0 +1,134 @@
+// Checks the wavetable chirp against the analytic one and times it against per-sample
+// synthesis.
+
+#include <stdio.h>
+#include <stdlib.h>
+#include <math.h>
+#include <chrono>
+#include <vector>
+
+#include "fmcw_sweep.h"
+
+#define CHECK(cond) do { \
+    if(!(cond)) { \
+        fprintf(stderr, "%s:%d: check failed: %s\n", __FILE__, __LINE__, #cond); \
+        exit(1); \
+    } \
+} while(0)
+
+static const int SAMPLING_RATE = 48000;
+static const int BASEBAND = 10000;
+static const int BANDWIDTH = 6400;
+static const int DURATION = 20;
+static const int CALLBACK = 1024;
+
+// the generator as it was before the wavetable: sinf/powf per sample, time kept in float
+class AnalyticGenerator {
+public:
+    void generate(int num_samples, float *audio_data) {
+        const float baseband_hz = BASEBAND, bandwidth_hz = BANDWIDTH;
+        const float duration_secs = DURATION / 1000.0f;
+        const int duration_samples = SAMPLING_RATE * DURATION / 1000;
+        for(int i = 0; i < num_samples; ++i) {
+            float sample;
+            if (resting) {
+                sample = 0;
+            } else {
+                sample = sinf(
+                        bandwidth_hz / duration_secs * (float) M_PI *
+                        powf(t_secs + baseband_hz / bandwidth_hz * duration_secs, 2)
+                );
+            }
+            audio_data[i] = sample;
+            t_secs += 1.0 / SAMPLING_RATE;
+            t_samples++;
+
+            if (t_samples >= duration_samples) {
+                t_samples = 0;
+                t_secs = 0;
+                resting = !resting;
+            }
+        }
+    }
+
+private:
+    float t_secs = 0;
+    int t_samples = 0;
+    bool resting = false;
+};
+
+static double exact(int n) {
+    double t = (double)n / SAMPLING_RATE;
+    double T = DURATION / 1000.0;
+    return sin((double)BANDWIDTH / T * M_PI * pow(t + (double)BASEBAND / BANDWIDTH * T, 2));
+}
+
+int main() {
+    FMCWSweepGenerator gen(BASEBAND, BANDWIDTH, DURATION, SAMPLING_RATE);
+    int duration_samples = gen.get_duration_samples();
+    CHECK(duration_samples == 960);
+
+    // table matches the analytic chirp, then rests
+    const std::vector<float> &period = gen.get_period();
+    CHECK((int)period.size() == 2 * duration_samples);
+    double max_err = 0;
+    for(int n = 0; n < duration_samples; ++n) {
+        max_err = fmax(max_err, fabs(period[n] - exact(n)));
+    }
+    for(int n = duration_samples; n < 2 * duration_samples; ++n) {
+        CHECK(period[n] == 0);
+    }
+    printf("max error against analytic chirp: %g\n", max_err);
+    CHECK(max_err < 1e-6);
+
+    // every period comes out identical, whatever the callback size
+    std::vector<float> out(50 * period.size() + 123);
+    int done = 0;
+    int sizes[] = {1024, 192, 7, 960, 1920, 1};
+    for(int k = 0; done < (int)out.size(); ++k) {
+        int n = sizes[k % 6];
+        if(n > (int)out.size() - done) {
+            n = (int)out.size() - done;
+        }
+        gen.generate(n, &out[done]);
+        done += n;
+    }
+    for(size_t i = 0; i < out.size(); ++i) {
+        CHECK(out[i] == period[i % period.size()]);
+    }
+
+    // the float-time generator drifts from the analytic chirp; the table never does
+    AnalyticGenerator analytic;
+    std::vector<float> drift(period.size());
+    for(int p = 0; p < 1000; ++p) {
+        analytic.generate((int)drift.size(), drift.data());
+    }
+    double analytic_err = 0;
+    for(int n = 0; n < duration_samples; ++n) {
+        analytic_err = fmax(analytic_err, fabs(drift[n] - exact(n)));
+    }
+    printf("max error of per-sample synthesis after 1000 sweeps: %g\n", analytic_err);
+
+    // timing per callback
+    const int reps = 20000;
+    std::vector<float> buf(CALLBACK);
+    volatile float sink = 0;
+
+    auto t0 = std::chrono::steady_clock::now();
+    for(int r = 0; r < reps; ++r) {
+        analytic.generate(CALLBACK, buf.data());
+        sink += buf[r % CALLBACK];
+    }
+    auto t1 = std::chrono::steady_clock::now();
+    for(int r = 0; r < reps; ++r) {
+        gen.generate(CALLBACK, buf.data());
+        sink += buf[r % CALLBACK];
+    }
+    auto t2 = std::chrono::steady_clock::now();
+
+    double analytic_us = std::chrono::duration<double, std::micro>(t1 - t0).count() / reps;
+    double table_us = std::chrono::duration<double, std::micro>(t2 - t1).count() / reps;
+    printf("%d-frame callback: per-sample %.2f us, wavetable %.2f us (%.0fx)\n",
+           CALLBACK, analytic_us, table_us, analytic_us / table_us);
+    return 0;
+}
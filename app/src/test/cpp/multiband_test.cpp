@@ -0,0 +1,201 @@
+// Sends three bands at once and checks that FMCWProcessor cuts each band's profile out of the
+// shared transform, combines them, and keeps the combined profile clean when another device
+// chirps in one of the bands.
+
+#include <stdio.h>
+#include <stdlib.h>
+#include <math.h>
+#include <vector>
+
+#include "capture_fixture.h"
+#include "sweep_pipeline.h"
+
+#define CHECK(cond) do { \
+    if(!(cond)) { \
+        fprintf(stderr, "%s:%d: check failed: %s\n", __FILE__, __LINE__, #cond); \
+        exit(1); \
+    } \
+} while(0)
+
+static const int PERIODS = 8;
+
+static SonarConfig make_config() {
+    SonarConfig config;
+    config.baseband_hz = 4000;
+    config.bandwidth_hz = 3000;
+    config.band_count = 3;
+    config.band_spacing_hz = 6100;
+    // raw profiles, so they can be compared with the transform alone
+    config.clutter_mode = ClutterFilter::OFF;
+    return config;
+}
+
+// what the phone hears of its own bands: direct path, an echo and noise, plus, if
+// interferer_gain > 0, another phone's chirps in band 2 on a clock of its own
+static std::vector<float> make_capture(const SonarConfig &config, float interferer_gain) {
+    std::vector<float> capture = make_capture(config, PERIODS, 11, {{12, 0.3f}});
+    FMCWSweepGenerator other(config.band_baseband_hz(2), config.bandwidth_hz,
+                             config.duration_millis, config.sample_rate);
+    int offset = 2 * config.duration_samples() / 8;
+    std::vector<float> interference(capture.size() + offset);
+    other.generate((int)interference.size(), interference.data());
+    for(size_t n = 0; n < capture.size(); ++n) {
+        capture[n] += interferer_gain * interference[n + offset];
+    }
+    return capture;
+}
+
+struct Output {
+    std::vector<std::vector<float> > fused;
+    std::vector<std::vector<float> > bands;
+};
+
+static Output run(const SonarConfig &config, const std::vector<float> &capture, bool threaded) {
+    FMCWProcessor processor(config, config.frames_per_callback, 64);
+    SweepPipeline *pipeline = NULL;
+    CaptureSink *sink = &processor;
+    if(threaded) {
+        int blocks = (int)(capture.size() / config.frames_per_callback) + 1;
+        pipeline = new SweepPipeline(config, &processor, config.frames_per_callback, blocks, NULL);
+        pipeline->start();
+        sink = pipeline;
+    }
+
+    replay(sink, config, capture, config.frames_per_callback, []() {});
+    if(pipeline) {
+        pipeline->flush();
+    }
+    CHECK(processor.get_pilot_position() == LEAD_IN);
+
+    Output out;
+    std::vector<float> fused(config.bin_count());
+    std::vector<float> bands(config.bands_bin_count());
+    SweepInfo info;
+    while(processor.available() > 0) {
+        uint64_t sequence = processor.poll_magnitudes(fused.data());
+        CHECK(processor.poll_bands(bands.data(), &info));
+        CHECK(info.sequence == sequence);
+        CHECK(info.timestamp_ns == processor.get_sweep_timestamp());
+        out.fused.push_back(fused);
+        out.bands.push_back(bands);
+    }
+    CHECK(!processor.poll_bands(bands.data(), &info));
+    delete pipeline;
+    return out;
+}
+
+static void test_generator() {
+    SonarConfig config = make_config();
+    FMCWSweepGenerator all(config.baseband_hz, config.bandwidth_hz, config.duration_millis,
+                           config.sample_rate, config.band_count, config.band_spacing_hz);
+    int period = (int)all.get_period().size();
+    std::vector<double> sum(period, 0.0);
+    for(int b = 0; b < config.band_count; ++b) {
+        FMCWSweepGenerator one(config.band_baseband_hz(b), config.bandwidth_hz,
+                               config.duration_millis, config.sample_rate);
+        for(int n = 0; n < period; ++n) {
+            sum[n] += one.get_period()[n];
+        }
+    }
+    for(int n = 0; n < period; ++n) {
+        CHECK(fabs(all.get_period()[n] - sum[n] / config.band_count) < 1e-6);
+        CHECK(fabsf(all.get_period()[n]) <= 1.0f);
+    }
+}
+
+static void test_bands_match_transform() {
+    SonarConfig config = make_config();
+    std::vector<float> capture = make_capture(config, 0);
+    Output out = run(config, capture, false);
+    CHECK((int)out.fused.size() == PERIODS);
+
+    int duration = config.duration_samples();
+    int bins = config.bin_count();
+    std::vector<float> expected(bins);
+    for(int b = 0; b < config.band_count; ++b) {
+        KissRangeTransform reference(config.fft_size(), config.baseband_bin() + config.band_offset(b),
+                                     bins);
+        for(int k = 0; k < PERIODS; ++k) {
+            reference.magnitudes(&capture[LEAD_IN + 2 * k * duration], duration, expected.data());
+            for(int j = 0; j < bins; ++j) {
+                CHECK(out.bands[k][b * bins + j] == expected[j]);
+            }
+        }
+    }
+
+    // three bands: the combined profile is the middle one at each bin
+    for(int k = 0; k < PERIODS; ++k) {
+        for(int j = 0; j < bins; ++j) {
+            float a = out.bands[k][j], b = out.bands[k][bins + j], c = out.bands[k][2 * bins + j];
+            float mid = std::max(std::min(a, b), std::min(std::max(a, b), c));
+            CHECK(out.fused[k][j] == mid);
+        }
+    }
+
+    // the threaded pipeline carries all bands through its queue
+    Output threaded = run(config, capture, true);
+    CHECK(threaded.fused == out.fused);
+    CHECK(threaded.bands == out.bands);
+}
+
+// mean absolute difference relative to the clean profile's mean, over every sweep
+static double error(const std::vector<std::vector<float> > &profiles,
+                    const std::vector<std::vector<float> > &clean, int first, int count) {
+    double diff = 0, total = 0;
+    for(size_t k = 0; k < clean.size(); ++k) {
+        for(int j = first; j < first + count; ++j) {
+            diff += fabs(profiles[k][j] - clean[k][j]);
+            total += fabs(clean[k][j]);
+        }
+    }
+    return diff / total;
+}
+
+// another phone's chirps alone: they match the combined pilot in one band of three, so the
+// search would take them without each band's pilot being checked
+static void test_ignores_other_device() {
+    SonarConfig config = make_config();
+    std::vector<float> capture = make_capture(config, 0.5f);
+    std::vector<float> own = make_capture(config, 0);
+    for(size_t n = 0; n < capture.size(); ++n) {
+        capture[n] -= own[n];
+    }
+
+    FMCWProcessor processor(config, config.frames_per_callback, 64);
+    replay(&processor, config, capture, config.frames_per_callback, []() {});
+    CHECK(!processor.is_locked());
+    CHECK(processor.get_pilot_position() == -1);
+}
+
+static void test_rejects_interference() {
+    SonarConfig config = make_config();
+    int bins = config.bin_count();
+    Output clean = run(config, make_capture(config, 0), false);
+    Output jammed = run(config, make_capture(config, 0.5f), false);
+    CHECK(jammed.fused.size() == clean.fused.size());
+
+    double band_error = error(jammed.bands, clean.bands, 2 * bins, bins);
+    double fused_error = error(jammed.fused, clean.fused, 0, bins);
+    printf("interferer in band 2: band 2 off by %.0f%%, combined profile by %.0f%%\n",
+           100 * band_error, 100 * fused_error);
+    CHECK(band_error > 0.3);
+    CHECK(fused_error < band_error / 2);
+
+    // however loud band 2 gets, each bin stays between what bands 0 and 1 saw
+    for(size_t k = 0; k < jammed.fused.size(); ++k) {
+        for(int j = 0; j < bins; ++j) {
+            float a = jammed.bands[k][j], b = jammed.bands[k][bins + j];
+            CHECK(jammed.fused[k][j] >= std::min(a, b) && jammed.fused[k][j] <= std::max(a, b));
+        }
+    }
+}
+
+int main() {
+    test_generator();
+    test_bands_match_transform();
+    test_ignores_other_device();
+    test_rejects_interference();
+
+    printf("multiband_test passed\n");
+    return 0;
+}
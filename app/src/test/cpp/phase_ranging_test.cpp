@@ -0,0 +1,164 @@
+// Moves a synthetic reflector by fractions of a millimetre between sweeps and checks that
+// PhaseRanging, driven through FMCWProcessor, recovers the motion from the capture alone.
+// Also checks that a relock starts PhaseRanging over without a jump in displacement.
+
+#include <stdio.h>
+#include <stdlib.h>
+#include <math.h>
+#include <vector>
+
+#include "capture_fixture.h"
+
+#define CHECK(cond) do { \
+    if(!(cond)) { \
+        fprintf(stderr, "%s:%d: check failed: %s\n", __FILE__, __LINE__, #cond); \
+        exit(1); \
+    } \
+} while(0)
+
+static const int PERIODS = 100;
+
+// 0.4 mm swing over 50 sweeps: a hundredth of a range bin
+static double displacement(int sweep) {
+    return 0.0004 * sin(2 * M_PI * sweep / 50.0);
+}
+
+// every chirp delayed by the round trip to a reflector at the sweep's displacement
+static std::vector<float> make_capture(const SonarConfig &config) {
+    int duration = config.duration_samples();
+    double T = config.duration_millis / 1000.0;
+    double B = config.bandwidth_hz, f0 = config.baseband_hz;
+
+    std::vector<float> capture(LEAD_IN + 2 * PERIODS * duration + duration / 2, 0.0f);
+    for(int k = 0; k < PERIODS; ++k) {
+        double tau = 2 * displacement(k) / SonarConfig::SPEED_OF_SOUND;
+        for(int n = 0; n < duration; ++n) {
+            // evaluated slightly outside the chirp too, so the delay shifts it smoothly
+            // rather than zeroing a sample at the edge
+            double t = (double)n / config.sample_rate - tau;
+            capture[LEAD_IN + 2 * k * duration + n] =
+                    (float)sin(B / T * M_PI * pow(t + f0 / B * T, 2));
+        }
+    }
+    return capture;
+}
+
+static std::vector<std::vector<float>> replay(const SonarConfig &config,
+                                              const std::vector<float> &capture) {
+    FMCWProcessor processor(config, config.frames_per_callback, 64);
+    std::vector<std::vector<float>> outputs;
+    std::vector<float> out(SonarConfig::MAX_PHASE_CELLS * PhaseRanging::STRIDE);
+    SweepInfo info;
+    replay(&processor, config, capture, config.frames_per_callback, [&]() {
+        // profiles aren't under test, but drain them so the ring never overruns
+        drain(&processor, NULL);
+        while(processor.poll_phase(out.data(), &info)) {
+            CHECK(info.sequence == outputs.size() + 1);
+            outputs.push_back(out);
+        }
+    });
+    return outputs;
+}
+
+// one sweep's band with each selected cell turned by the phase of reflector displacement d
+static void set_band(const SonarConfig &config, double d, std::vector<kiss_fft_cpx> *band) {
+    for(int c = 0; c < config.phase_cell_count; ++c) {
+        double turn = -4 * M_PI * config.cell_hz(config.phase_cells[c]) * d
+                      / SonarConfig::SPEED_OF_SOUND;
+        (*band)[config.phase_cells[c]].r = (float)cos(turn);
+        (*band)[config.phase_cells[c]].i = (float)sin(turn);
+    }
+}
+
+/**
+ * Relocks two sweeps into a decimation window, with the reflector 10 mm further away after
+ * the gap: more than a quarter wavelength, so unwrapping across it would alias. Each output
+ * after the relock should average only sweeps after it, continuing from the displacement
+ * the lock was lost at.
+ */
+static void test_relock(const SonarConfig &config) {
+    PhaseRanging phase(config);
+    std::vector<kiss_fft_cpx> band(config.bands_bin_count());
+    std::vector<float> out(SonarConfig::MAX_PHASE_CELLS * PhaseRanging::STRIDE);
+    SweepInfo info;
+    int decimation = config.phase_decimation;
+    int before = 2 * decimation + 2;
+    int after = 3 * decimation;
+
+    for(int k = 0; k < before; ++k) {
+        set_band(config, displacement(k), &band);
+        phase.update(band.data(), k);
+    }
+    for(int o = 0; o < 2; ++o) {
+        CHECK(phase.poll(out.data(), &info));
+    }
+    CHECK(!phase.poll(out.data(), &info));
+
+    phase.reset();
+    double last = displacement(before - 1) - displacement(0);
+    for(int k = before; k < before + after; ++k) {
+        set_band(config, 0.010 + displacement(k), &band);
+        phase.update(band.data(), k);
+    }
+    for(int o = 0; o < 3; ++o) {
+        CHECK(phase.poll(out.data(), &info));
+        int first = before + o * decimation;
+        CHECK(info.timestamp_ns == first + decimation - 1);
+        double mean = 0;
+        for(int k = first; k < first + decimation; ++k) {
+            mean += (last + displacement(k) - displacement(before)) / decimation;
+        }
+        for(int c = 0; c < config.phase_cell_count; ++c) {
+            CHECK(fabs(out[c * PhaseRanging::STRIDE + PhaseRanging::DISPLACEMENT] - mean) < 1e-6);
+        }
+    }
+    CHECK(!phase.poll(out.data(), &info));
+}
+
+int main() {
+    SonarConfig config;
+    std::vector<float> capture = make_capture(config);
+
+    // off unless cells are selected
+    CHECK(replay(config, capture).empty());
+
+    config.phase_cells[0] = 20;
+    config.phase_cells[1] = 64;
+    config.phase_cells[2] = 110;
+    config.phase_cell_count = 3;
+
+    // every sweep: each cell follows the displacement to a few microns
+    config.phase_decimation = 1;
+    std::vector<std::vector<float>> outputs = replay(config, capture);
+    CHECK((int)outputs.size() == PERIODS);
+    double worst = 0;
+    for(int k = 0; k < PERIODS; ++k) {
+        double expected = displacement(k) - displacement(0);
+        for(int c = 0; c < config.phase_cell_count; ++c) {
+            float d = outputs[k][c * PhaseRanging::STRIDE + PhaseRanging::DISPLACEMENT];
+            float a = outputs[k][c * PhaseRanging::STRIDE + PhaseRanging::AMPLITUDE];
+            CHECK(a > 0);
+            worst = fmax(worst, fabs(d - expected));
+        }
+    }
+    printf("phase ranging: worst error %.2f um over a %.0f um swing\n",
+           worst * 1e6, 2 * 0.0004 * 1e6);
+    CHECK(worst < 10e-6);
+
+    // decimated: one output per 5 sweeps, the mean of those sweeps
+    config.phase_decimation = 5;
+    outputs = replay(config, capture);
+    CHECK((int)outputs.size() == PERIODS / 5);
+    for(int o = 0; o < (int)outputs.size(); ++o) {
+        double mean = 0;
+        for(int k = 5 * o; k < 5 * o + 5; ++k) {
+            mean += (displacement(k) - displacement(0)) / 5;
+        }
+        CHECK(fabs(outputs[o][PhaseRanging::DISPLACEMENT] - mean) < 10e-6);
+    }
+
+    test_relock(config);
+
+    printf("phase_ranging_test passed\n");
+    return 0;
+}
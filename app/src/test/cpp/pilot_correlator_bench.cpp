@@ -0,0 +1,128 @@
+// Checks PilotCorrelator against the original offset-by-offset pilot search and times both
+// on realistic 1024-frame callbacks.
+
+#include <stdio.h>
+#include <stdlib.h>
+#include <math.h>
+#include <chrono>
+#include <random>
+#include <vector>
+
+#include "pilot_correlator.h"
+
+#define CHECK(cond) do { \
+    if(!(cond)) { \
+        fprintf(stderr, "%s:%d: check failed: %s\n", __FILE__, __LINE__, #cond); \
+        exit(1); \
+    } \
+} while(0)
+
+static const int SAMPLING_RATE = 48000;
+static const int FRAMES = 1024;
+static const int PILOT_WIDTH = 960 / 16;
+
+// the search as FMCWListener::onAudioReady used to do it
+static float reference_find(const float *pilot, const float *audio, int numFrames, int *offset) {
+    float maxSim = 0;
+    *offset = 0;
+    for(int i = 0; i < numFrames - PILOT_WIDTH; ++i) {
+        float sim = 0;
+        float dot = 0;
+        float a_ssq = 0;
+        float b_ssq = 0;
+        for(int j = 0; j < PILOT_WIDTH;  ++j) {
+            dot += pilot[j] * audio[i + j];
+            a_ssq += powf(pilot[j], 2);
+            b_ssq += powf(audio[i + j], 2);
+        }
+        float norm = sqrtf(a_ssq) * sqrtf(b_ssq);
+        if (norm > 0) {
+            sim = dot / norm;
+        }
+        if(sim > maxSim) {
+            maxSim = sim;
+            *offset = i;
+        }
+    }
+    return maxSim;
+}
+
+static void make_pilot(float *pilot) {
+    const float baseband = 10000, bandwidth = 6400, duration = 0.02f;
+    for(int i = 0; i < PILOT_WIDTH; ++i) {
+        float t = (float)i / SAMPLING_RATE;
+        pilot[i] = sinf(bandwidth / duration * (float)M_PI *
+                        powf(t + baseband / bandwidth * duration, 2));
+    }
+}
+
+// noise with a scaled copy of the pilot at the given offset, and a silent stretch at the start
+static void make_capture(const float *pilot, int at, float gain, float noise,
+                         std::mt19937 &rng, float *audio) {
+    std::normal_distribution<float> dist(0, noise);
+    for(int i = 0; i < FRAMES; ++i) {
+        audio[i] = i < 64 ? 0 : dist(rng);
+    }
+    for(int j = 0; j < PILOT_WIDTH && at + j < FRAMES; ++j) {
+        audio[at + j] += gain * pilot[j];
+    }
+}
+
+int main() {
+    float pilot[PILOT_WIDTH];
+    make_pilot(pilot);
+    PilotCorrelator correlator(pilot, PILOT_WIDTH, FRAMES);
+
+    std::mt19937 rng(1234);
+    std::vector<std::vector<float>> captures;
+    for(int k = 0; k < 64; ++k) {
+        std::vector<float> audio(FRAMES);
+        int at = 64 + (k * 131) % (FRAMES - PILOT_WIDTH - 64);
+        make_capture(pilot, at, 0.05f + 0.01f * (k % 8), 0.02f, rng, audio.data());
+        captures.push_back(audio);
+    }
+
+    // same answers
+    for(size_t k = 0; k < captures.size(); ++k) {
+        int ref_offset, fast_offset, direct_offset;
+        float ref_sim = reference_find(pilot, captures[k].data(), FRAMES, &ref_offset);
+        float fast_sim = correlator.find(captures[k].data(), FRAMES, &fast_offset);
+        float direct_sim = correlator.find_direct(captures[k].data(), FRAMES, &direct_offset);
+        CHECK(fast_offset == ref_offset);
+        CHECK(direct_offset == ref_offset);
+        CHECK(fabsf(fast_sim - ref_sim) < 1e-4f);
+        CHECK(fabsf(direct_sim - ref_sim) < 1e-4f);
+    }
+
+    int offset;
+    std::vector<float> silence(FRAMES, 0.0f);
+    CHECK(correlator.find(silence.data(), FRAMES, &offset) == 0);
+
+    // timing
+    const int reps = 200;
+    volatile float sink = 0;
+
+    auto t0 = std::chrono::steady_clock::now();
+    for(int r = 0; r < reps; ++r) {
+        sink += reference_find(pilot, captures[r % captures.size()].data(), FRAMES, &offset);
+    }
+    auto t1 = std::chrono::steady_clock::now();
+    for(int r = 0; r < reps; ++r) {
+        sink += correlator.find_direct(captures[r % captures.size()].data(), FRAMES, &offset);
+    }
+    auto t2 = std::chrono::steady_clock::now();
+    for(int r = 0; r < reps; ++r) {
+        sink += correlator.find(captures[r % captures.size()].data(), FRAMES, &offset);
+    }
+    auto t3 = std::chrono::steady_clock::now();
+
+    double ref_us = std::chrono::duration<double, std::micro>(t1 - t0).count() / reps;
+    double direct_us = std::chrono::duration<double, std::micro>(t2 - t1).count() / reps;
+    double fft_us = std::chrono::duration<double, std::micro>(t3 - t2).count() / reps;
+
+    printf("pilot search over %d frames, pilot width %d\n", FRAMES, PILOT_WIDTH);
+    printf("  original (powf per term): %9.1f us/callback\n", ref_us);
+    printf("  direct, running energies: %9.1f us/callback (%.1fx)\n", direct_us, ref_us / direct_us);
+    printf("  FFT matched filter:       %9.1f us/callback (%.1fx)\n", fft_us, ref_us / fft_us);
+    return 0;
+}
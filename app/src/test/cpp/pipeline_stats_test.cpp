@@ -0,0 +1,148 @@
+// Checks histogram bucketing, concurrent recording against snapshots, and that the processor
+// times its stages only while stats are enabled. Then prints what a timed stage costs.
+
+#include <stdio.h>
+#include <stdlib.h>
+#include <chrono>
+#include <thread>
+#include <vector>
+
+#include "fmcw_processor.h"
+#include "pipeline_stats.h"
+
+#define CHECK(cond) do { \
+    if(!(cond)) { \
+        fprintf(stderr, "%s:%d: check failed: %s\n", __FILE__, __LINE__, #cond); \
+        exit(1); \
+    } \
+} while(0)
+
+static uint64_t samples(const uint64_t *histogram) {
+    uint64_t n = 0;
+    for(int b = 0; b < LatencyHistogram::BUCKETS; ++b) {
+        n += histogram[b];
+    }
+    return n;
+}
+
+static void test_buckets() {
+    CHECK(LatencyHistogram::bucket(-5) == 0);
+    CHECK(LatencyHistogram::bucket(999) == 0);
+    CHECK(LatencyHistogram::bucket(1000) == 1);
+    CHECK(LatencyHistogram::bucket(1999) == 1);
+    CHECK(LatencyHistogram::bucket(2000) == 2);
+    CHECK(LatencyHistogram::bucket(21333000) == 15);   // a 1024-frame callback's budget
+    CHECK(LatencyHistogram::bucket(3600LL * 1000000000LL) == LatencyHistogram::BUCKETS - 1);
+
+    LatencyHistogram h;
+    h.record(1500);
+    h.record(1500);
+    h.record(40000);
+    uint64_t out[LatencyHistogram::STRIDE];
+    h.snapshot(out);
+    CHECK(out[1] == 2);
+    CHECK(out[6] == 1);
+    CHECK(samples(out) == 3);
+    CHECK(out[LatencyHistogram::TOTAL_NS] == 43000);
+    CHECK(out[LatencyHistogram::MAX_NS] == 40000);
+
+    h.reset();
+    h.snapshot(out);
+    CHECK(samples(out) == 0 && out[LatencyHistogram::MAX_NS] == 0);
+}
+
+// the audio thread records while the UI thread snapshots; counts only ever grow
+static void test_concurrent() {
+    PipelineStats stats;
+    stats.set_enabled(true);
+    const int N = 200000;
+
+    std::thread writer([&] {
+        for(int i = 0; i < N; ++i) {
+            stats.record(PipelineStats::CALLBACK, i % 5000);
+            stats.add(PipelineStats::CALLBACKS, 1);
+        }
+    });
+
+    uint64_t counters[PipelineStats::COUNTER_COUNT];
+    uint64_t stages[PipelineStats::STAGE_COUNT * LatencyHistogram::STRIDE];
+    uint64_t last = 0;
+    for(int i = 0; i < 1000; ++i) {
+        stats.snapshot(counters, stages);
+        uint64_t n = samples(stages + PipelineStats::CALLBACK * LatencyHistogram::STRIDE);
+        CHECK(n >= last && n <= (uint64_t)N);
+        last = n;
+    }
+    writer.join();
+
+    stats.snapshot(counters, stages);
+    CHECK(counters[PipelineStats::CALLBACKS] == (uint64_t)N);
+    CHECK(samples(stages + PipelineStats::CALLBACK * LatencyHistogram::STRIDE) == (uint64_t)N);
+    CHECK(stages[PipelineStats::CALLBACK * LatencyHistogram::STRIDE + LatencyHistogram::MAX_NS] == 4999);
+}
+
+static uint64_t stage_samples(const PipelineStats &stats, PipelineStats::Stage stage) {
+    uint64_t counters[PipelineStats::COUNTER_COUNT];
+    uint64_t stages[PipelineStats::STAGE_COUNT * LatencyHistogram::STRIDE];
+    stats.snapshot(counters, stages);
+    return samples(stages + stage * LatencyHistogram::STRIDE);
+}
+
+static void test_processor() {
+    SonarConfig config;
+    FMCWSweepGenerator gen(config.baseband_hz, config.bandwidth_hz, config.duration_millis,
+                           config.sample_rate);
+    std::vector<float> capture(8 * config.frames_per_callback, 0.0f);
+    gen.generate((int)capture.size() - 300, &capture[300]);
+
+    PipelineStats stats;
+    FMCWProcessor processor(config, config.frames_per_callback, 64);
+    processor.set_stats(&stats);
+
+    // disabled: nothing is recorded
+    int block = config.frames_per_callback;
+    processor.process(&capture[0], block, 0);
+    CHECK(stage_samples(stats, PipelineStats::PILOT_SEARCH) == 0);
+    CHECK(processor.is_locked());
+
+    // enabled: one transform timed per sweep
+    stats.set_enabled(true);
+    int sweeps = 0;
+    for(size_t i = block; i < capture.size(); i += block) {
+        sweeps += processor.process(&capture[i], block, 0);
+    }
+    CHECK(sweeps > 0);
+    CHECK(stage_samples(stats, PipelineStats::RANGE_TRANSFORM) == (uint64_t)sweeps);
+    // already locked, so no more searching
+    CHECK(stage_samples(stats, PipelineStats::PILOT_SEARCH) == 0);
+}
+
+template<typename F>
+static double time_ns(int reps, F f) {
+    auto t0 = std::chrono::steady_clock::now();
+    for(int r = 0; r < reps; ++r) {
+        f();
+    }
+    auto t1 = std::chrono::steady_clock::now();
+    return std::chrono::duration<double, std::nano>(t1 - t0).count() / reps;
+}
+
+int main() {
+    test_buckets();
+    test_concurrent();
+    test_processor();
+
+    PipelineStats stats;
+    const int reps = 1000000;
+    double off = time_ns(reps, [&] {
+        StageTimer timer(&stats, PipelineStats::CALLBACK);
+    });
+    stats.set_enabled(true);
+    double on = time_ns(reps, [&] {
+        StageTimer timer(&stats, PipelineStats::CALLBACK);
+    });
+    printf("timed stage: %.1f ns disabled, %.1f ns enabled\n", off, on);
+
+    printf("pipeline_stats_test passed\n");
+    return 0;
+}
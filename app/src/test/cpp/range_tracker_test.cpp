@@ -0,0 +1,178 @@
+// Tracks two synthetic reflectors, one still and one moving, through noisy range profiles,
+// unpadded and zoomed, then times the tracker against the 25 sweeps/s budget.
+
+#include <stdio.h>
+#include <stdlib.h>
+#include <math.h>
+#include <chrono>
+#include <random>
+#include <vector>
+
+#include "range_tracker.h"
+#include "sonar_config.h"
+
+#define CHECK(cond) do { \
+    if(!(cond)) { \
+        fprintf(stderr, "%s:%d: check failed: %s\n", __FILE__, __LINE__, #cond); \
+        exit(1); \
+    } \
+} while(0)
+
+static const int64_t SWEEP_NS = 40000000;
+
+// a reflector at a fractional bin spreads into its neighbours like a sinc main lobe, zoom
+// bins wide when the transform is zero-padded zoom times
+static void add_peak(std::vector<float> &profile, float bin, float height, int zoom) {
+    for(int j = 0; j < (int)profile.size(); ++j) {
+        float x = (j - bin) / zoom * (float)M_PI;
+        float s = fabsf(x) < 1e-6f ? 1 : sinf(x) / x;
+        profile[j] += height * fabsf(s);
+    }
+}
+
+struct Seen {
+    int id;
+    float range;
+    float velocity;
+    float confidence;
+};
+
+// tracks in the snapshot within half a metre-per-bin of range, or id -1 if none
+static Seen find_track(const float *tracks, int count, float range, float meters_per_bin) {
+    Seen seen = {-1, 0, 0, 0};
+    for(int t = 0; t < count; ++t) {
+        const float *o = tracks + t * RangeTracker::TRACK_STRIDE;
+        if(fabsf(o[RangeTracker::TRACK_RANGE] - range) < 2 * meters_per_bin) {
+            seen.id = (int)o[RangeTracker::TRACK_ID];
+            seen.range = o[RangeTracker::TRACK_RANGE];
+            seen.velocity = o[RangeTracker::TRACK_VELOCITY];
+            seen.confidence = o[RangeTracker::TRACK_CONFIDENCE];
+        }
+    }
+    return seen;
+}
+
+// the same scene at any zoom: positions, speeds and tolerances are in unpadded bins
+static void test_tracking(int zoom) {
+    SonarConfig config;
+    config.zoom = zoom;
+    int bins = config.bin_count();
+    // metres per unpadded bin
+    float mpb = config.meters_per_bin() * zoom;
+    RangeTracker tracker(bins, config.meters_per_bin(), config.sweep_interval_secs(),
+                         config.zoom_factor());
+
+    std::mt19937 rng(3);
+    std::uniform_real_distribution<float> noise(0, 0.2f);
+    std::vector<float> profile(bins);
+    float tracks[RangeTracker::MAX_TRACKS * RangeTracker::TRACK_STRIDE];
+
+    // still reflector at bin 30.3; moving one from bin 80 towards the phone at 0.05 bin/sweep
+    const float still_bin = 30.3f;
+    const float speed_bins = -0.05f;
+    int still_id = -1, moving_id = -1;
+    float velocity_sum = 0;
+    int velocity_count = 0;
+    for(int k = 0; k < 200; ++k) {
+        for(int j = 0; j < bins; ++j) {
+            profile[j] = noise(rng);
+        }
+        float moving_bin = 80 + speed_bins * k;
+        add_peak(profile, still_bin * zoom, 10, zoom);
+        add_peak(profile, moving_bin * zoom, 5, zoom);
+
+        tracker.update(profile.data(), (k + 1) * SWEEP_NS);
+        int count = tracker.snapshot(tracks);
+        CHECK(count <= RangeTracker::MAX_TRACKS);
+
+        if(k < 50) {
+            continue;
+        }
+        Seen still = find_track(tracks, count, still_bin * mpb, mpb);
+        Seen moving = find_track(tracks, count, moving_bin * mpb, mpb);
+        CHECK(still.id != -1 && moving.id != -1 && still.id != moving.id);
+
+        // identities persist from sweep to sweep
+        if(still_id == -1) {
+            still_id = still.id;
+            moving_id = moving.id;
+        }
+        CHECK(still.id == still_id);
+        CHECK(moving.id == moving_id);
+
+        // sub-bin accuracy from the interpolation, and the velocity from the filter
+        CHECK(fabsf(still.range - still_bin * mpb) < 0.15f * mpb);
+        CHECK(fabsf(moving.range - moving_bin * mpb) < 0.3f * mpb);
+        float velocity = speed_bins * mpb / (SWEEP_NS * 1e-9f);
+        CHECK(fabsf(still.velocity) < 0.2f * fabsf(velocity));
+        CHECK(fabsf(moving.velocity - velocity) < fabsf(velocity));
+        velocity_sum += moving.velocity;
+        velocity_count++;
+        CHECK(still.confidence > 0.9f && moving.confidence > 0.9f);
+    }
+
+    // single sweeps are noisy, but on average the velocity is right
+    float velocity = speed_bins * mpb / (SWEEP_NS * 1e-9f);
+    CHECK(fabsf(velocity_sum / velocity_count - velocity) < 0.1f * fabsf(velocity));
+
+    // once the moving reflector disappears its track fades and is dropped
+    for(int k = 200; k < 220; ++k) {
+        for(int j = 0; j < bins; ++j) {
+            profile[j] = noise(rng);
+        }
+        add_peak(profile, still_bin * zoom, 10, zoom);
+        tracker.update(profile.data(), (k + 1) * SWEEP_NS);
+    }
+    int count = tracker.snapshot(tracks);
+    bool moving_alive = false;
+    for(int t = 0; t < count; ++t) {
+        if((int)tracks[t * RangeTracker::TRACK_STRIDE + RangeTracker::TRACK_ID] == moving_id) {
+            moving_alive = true;
+        }
+    }
+    CHECK(!moving_alive);
+    CHECK(find_track(tracks, count, still_bin * mpb, mpb).id == still_id);
+}
+
+int main() {
+    test_tracking(1);
+    test_tracking(4);
+
+    SonarConfig config;
+    int bins = config.bin_count();
+    float mpb = config.meters_per_bin();
+    RangeTracker tracker(bins, mpb, config.sweep_interval_secs());
+
+    std::mt19937 rng(3);
+    std::uniform_real_distribution<float> noise(0, 0.2f);
+    std::vector<float> profile(bins);
+    float tracks[RangeTracker::MAX_TRACKS * RangeTracker::TRACK_STRIDE];
+
+    // flat noise alone produces no confident tracks
+    RangeTracker quiet(bins, mpb, config.sweep_interval_secs());
+    for(int k = 0; k < 100; ++k) {
+        for(int j = 0; j < bins; ++j) {
+            profile[j] = 1 + noise(rng);
+        }
+        quiet.update(profile.data(), (k + 1) * SWEEP_NS);
+    }
+    int count = quiet.snapshot(tracks);
+    for(int t = 0; t < count; ++t) {
+        CHECK(tracks[t * RangeTracker::TRACK_STRIDE + RangeTracker::TRACK_CONFIDENCE] < 0.5f);
+    }
+
+    // cost per sweep, against a 40 ms sweep period
+    const int reps = 20000;
+    auto t0 = std::chrono::steady_clock::now();
+    for(int r = 0; r < reps; ++r) {
+        tracker.update(profile.data(), (300 + r) * SWEEP_NS);
+    }
+    auto t1 = std::chrono::steady_clock::now();
+    double us = std::chrono::duration<double, std::micro>(t1 - t0).count() / reps;
+    printf("range tracker: %.2f us/sweep, %.3f%% of a core at 25 sweeps/s\n",
+           us, us * 25 / 1e4);
+    CHECK(us < 400);
+
+    printf("range_tracker_test passed\n");
+    return 0;
+}
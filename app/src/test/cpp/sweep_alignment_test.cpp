@@ -0,0 +1,169 @@
+// Slips frames in and out of a synthetic capture and checks that FMCWProcessor follows them:
+// small slips are corrected without losing the lock, a large glitch loses it and the pilot is
+// found again. Then prints the cost of a lock check against a full pilot search.
+
+#include <stdio.h>
+#include <stdlib.h>
+#include <chrono>
+#include <random>
+#include <vector>
+
+#include "capture_fixture.h"
+
+#define CHECK(cond) do { \
+    if(!(cond)) { \
+        fprintf(stderr, "%s:%d: check failed: %s\n", __FILE__, __LINE__, #cond); \
+        exit(1); \
+    } \
+} while(0)
+
+static const int PERIODS = 30;
+
+struct Capture {
+    std::vector<float> audio;
+    std::vector<int64_t> starts;    // where each chirp starts in audio
+};
+
+// the transmitted signal as heard by the phone: direct path, an echo and noise
+static Capture make_capture(const SonarConfig &config) {
+    Capture capture;
+    capture.audio = make_capture(config, PERIODS, 11, {{12, 0.3f}});
+    int period = 2 * config.duration_samples();
+    for(int k = 0; k < PERIODS; ++k) {
+        capture.starts.push_back(LEAD_IN + (int64_t)k * period);
+    }
+    return capture;
+}
+
+// inserts (count > 0) or drops (count < 0) frames halfway through the rest after chirp k
+static void slip(const SonarConfig &config, Capture *capture, int k, int count) {
+    int duration = config.duration_samples();
+    int64_t at = capture->starts[k] + duration + duration / 2;
+    if(count > 0) {
+        std::mt19937 rng(k);
+        std::normal_distribution<float> noise(0, 0.002f);
+        std::vector<float> extra(count);
+        for(int n = 0; n < count; ++n) {
+            extra[n] = noise(rng);
+        }
+        capture->audio.insert(capture->audio.begin() + at, extra.begin(), extra.end());
+    } else {
+        capture->audio.erase(capture->audio.begin() + at, capture->audio.begin() + at - count);
+    }
+    for(int j = k + 1; j < PERIODS; ++j) {
+        capture->starts[j] += count;
+    }
+}
+
+struct Result {
+    std::vector<Sweep> sweeps;
+    float alignment[FMCWProcessor::ALIGN_STRIDE];
+};
+
+static Result replay(const SonarConfig &config, const Capture &capture) {
+    FMCWProcessor processor(config, config.frames_per_callback, 64);
+    Result result;
+    replay(&processor, config, capture.audio, config.frames_per_callback,
+           [&]() { drain(&processor, &result.sweeps); });
+    CHECK(processor.get_overruns() == 0);
+    processor.poll_alignment(result.alignment);
+    return result;
+}
+
+// the last `count` sweeps must be cut exactly where their chirps start
+static void check_tail(const SonarConfig &config, const Capture &capture, const Result &result,
+                       int count) {
+    KissRangeTransform reference(config.fft_size(), config.baseband_bin(), config.bin_count());
+    std::vector<float> expected(config.bin_count());
+    int sweeps = (int)result.sweeps.size();
+    CHECK(sweeps >= count);
+    for(int i = 1; i <= count; ++i) {
+        reference.magnitudes(&capture.audio[capture.starts[PERIODS - i]],
+                             config.duration_samples(), expected.data());
+        const std::vector<float> &profile = result.sweeps[sweeps - i].profile;
+        for(int j = 0; j < config.bin_count(); ++j) {
+            CHECK(profile[j] == expected[j]);
+        }
+    }
+}
+
+static void test_steady(const SonarConfig &config) {
+    Capture capture = make_capture(config);
+    Result result = replay(config, capture);
+    CHECK((int)result.sweeps.size() == PERIODS);
+    CHECK(result.alignment[FMCWProcessor::ALIGN_LOCKED] == 1);
+    CHECK(result.alignment[FMCWProcessor::ALIGN_SIMILARITY] > 0.9f);
+    CHECK(result.alignment[FMCWProcessor::ALIGN_OFFSET] == 0);
+    CHECK(result.alignment[FMCWProcessor::ALIGN_CORRECTIONS] == 0);
+    CHECK(result.alignment[FMCWProcessor::ALIGN_RELOCKS] == 0);
+    check_tail(config, capture, result, PERIODS);
+}
+
+static void test_small_slips(const SonarConfig &config) {
+    Capture capture = make_capture(config);
+    slip(config, &capture, 8, -3);
+    slip(config, &capture, 15, 5);
+    slip(config, &capture, 22, -SweepAligner::WINDOW);
+    Result result = replay(config, capture);
+
+    // each slip costs one misaligned sweep, then the cut catches up without a new search
+    CHECK((int)result.sweeps.size() == PERIODS);
+    CHECK(result.alignment[FMCWProcessor::ALIGN_LOCKED] == 1);
+    CHECK(result.alignment[FMCWProcessor::ALIGN_DRIFT] == -3 + 5 - SweepAligner::WINDOW);
+    CHECK(result.alignment[FMCWProcessor::ALIGN_CORRECTIONS] == 3);
+    CHECK(result.alignment[FMCWProcessor::ALIGN_RELOCKS] == 0);
+    check_tail(config, capture, result, PERIODS - 24);
+}
+
+static void test_glitch(const SonarConfig &config) {
+    Capture capture = make_capture(config);
+    slip(config, &capture, 10, 500);
+    Result result = replay(config, capture);
+
+    CHECK(result.alignment[FMCWProcessor::ALIGN_LOCKED] == 1);
+    CHECK(result.alignment[FMCWProcessor::ALIGN_RELOCKS] == 1);
+    CHECK(result.alignment[FMCWProcessor::ALIGN_SIMILARITY] > 0.9f);
+    check_tail(config, capture, result, 10);
+}
+
+static void bench(const SonarConfig &config) {
+    Capture capture = make_capture(config);
+    FMCWSweepGenerator gen(config.baseband_hz, config.bandwidth_hz, config.duration_millis,
+                           config.sample_rate);
+    std::vector<float> pilot(config.pilot_samples());
+    gen.generate((int)pilot.size(), pilot.data());
+    PilotCorrelator correlator(pilot.data(), (int)pilot.size(), config.frames_per_callback);
+    SweepAligner aligner(gen.get_period().data(), config.duration_samples());
+
+    const int reps = 2000;
+    volatile float sink = 0;
+    int offset;
+    auto t0 = std::chrono::steady_clock::now();
+    for(int r = 0; r < reps; ++r) {
+        sink += correlator.find(&capture.audio[0], config.frames_per_callback, &offset);
+    }
+    auto t1 = std::chrono::steady_clock::now();
+    for(int r = 0; r < reps; ++r) {
+        sink += aligner.check(&capture.audio[capture.starts[1]], &offset);
+    }
+    auto t2 = std::chrono::steady_clock::now();
+
+    double search_us = std::chrono::duration<double, std::micro>(t1 - t0).count() / reps;
+    double check_us = std::chrono::duration<double, std::micro>(t2 - t1).count() / reps;
+    printf("full pilot search %.1f us per callback, lock check %.1f us per sweep (%.0f%%)\n",
+           search_us, check_us, 100 * check_us / search_us);
+}
+
+int main() {
+    SonarConfig config;
+    // raw profiles, so they can be compared with the transform alone
+    config.clutter_mode = ClutterFilter::OFF;
+
+    test_steady(config);
+    test_small_slips(config);
+    test_glitch(config);
+    bench(config);
+
+    printf("sweep_alignment_test passed\n");
+    return 0;
+}
@@ -0,0 +1,206 @@
+// Checks that SweepPipeline produces exactly what FMCWProcessor does inline, checks both
+// BoundedQueue policies and that DROP_OLDEST never loses a relock, then prints what the
+// audio callback costs each way.
+
+#include <stdio.h>
+#include <stdlib.h>
+#include <chrono>
+#include <thread>
+#include <vector>
+
+#include "capture_fixture.h"
+#include "sweep_pipeline.h"
+
+#define CHECK(cond) do { \
+    if(!(cond)) { \
+        fprintf(stderr, "%s:%d: check failed: %s\n", __FILE__, __LINE__, #cond); \
+        exit(1); \
+    } \
+} while(0)
+
+static const int PERIODS = 12;
+
+// the transmitted signal as heard by the phone: direct path, an echo and noise
+static std::vector<float> make_capture(const SonarConfig &config) {
+    return make_capture(config, PERIODS, 3, {{12, 0.3f}});
+}
+
+struct Output {
+    std::vector<Sweep> sweeps;
+    std::vector<float> tracks;
+};
+
+static Output run(const SonarConfig &config, const std::vector<float> &capture, bool threaded) {
+    FMCWProcessor processor(config, config.frames_per_callback, 64);
+    SweepPipeline *pipeline = NULL;
+    CaptureSink *sink = &processor;
+    if(threaded) {
+        // room for the whole capture, so nothing is dropped however the threads are scheduled
+        int blocks = (int)(capture.size() / config.frames_per_callback) + 1;
+        pipeline = new SweepPipeline(config, &processor, config.frames_per_callback, blocks, NULL);
+        pipeline->start();
+        sink = pipeline;
+    }
+
+    Output out;
+    replay(sink, config, capture, config.frames_per_callback, []() {});
+    if(pipeline) {
+        pipeline->flush();
+        CHECK(pipeline->get_input_overruns() == 0);
+        CHECK(pipeline->get_analysis_drops() == 0);
+    }
+    drain(&processor, &out.sweeps);
+    CHECK(processor.is_locked());
+
+    float tracks[RangeTracker::MAX_TRACKS * RangeTracker::TRACK_STRIDE];
+    int count = processor.poll_tracks(tracks);
+    out.tracks.assign(tracks, tracks + count * RangeTracker::TRACK_STRIDE);
+    delete pipeline;
+    return out;
+}
+
+static void test_matches_inline(SonarConfig config) {
+    std::vector<float> capture = make_capture(config);
+    Output inline_out = run(config, capture, false);
+    CHECK((int)inline_out.sweeps.size() == PERIODS);
+
+    config.queue_policy = SonarConfig::QUEUE_DROP_OLDEST;
+    for(int policy = 0; policy < 2; ++policy) {
+        Output threaded = run(config, capture, true);
+        CHECK(threaded.sweeps.size() == inline_out.sweeps.size());
+        for(size_t k = 0; k < threaded.sweeps.size(); ++k) {
+            CHECK(threaded.sweeps[k].profile == inline_out.sweeps[k].profile);
+            CHECK(threaded.sweeps[k].timestamp_ns == inline_out.sweeps[k].timestamp_ns);
+        }
+        CHECK(threaded.tracks == inline_out.tracks);
+        config.queue_policy = SonarConfig::QUEUE_BLOCK;
+    }
+}
+
+static void test_queue_drop_oldest() {
+    BoundedQueue queue(3, 2, BoundedQueue::DROP_OLDEST);
+    for(int i = 0; i < 5; ++i) {
+        float frame[2] = {(float)i, -(float)i};
+        CHECK(queue.push(frame, i));
+    }
+    CHECK(queue.size() == 3);
+    CHECK(queue.dropped() == 2);
+
+    float frame[2];
+    int64_t ts;
+    for(int i = 2; i < 5; ++i) {
+        CHECK(queue.pop(frame, &ts));
+        CHECK(frame[0] == i && frame[1] == -i && ts == i);
+    }
+    queue.close();
+    CHECK(!queue.pop(frame, &ts));
+    CHECK(!queue.push(frame, 0));
+}
+
+// a dropped frame's flag moves on to the next frame waiting, or to the new one
+static void test_queue_carries_flag() {
+    BoundedQueue queue(3, 2, BoundedQueue::DROP_OLDEST, 0);
+    for(int i = 0; i < 5; ++i) {
+        float frame[2] = {i == 0 ? 1.0f : 0.0f, (float)i};
+        CHECK(queue.push(frame, i));
+    }
+    CHECK(queue.dropped() == 2);
+    float frame[2];
+    int64_t ts;
+    for(int i = 2; i < 5; ++i) {
+        CHECK(queue.pop(frame, &ts));
+        CHECK(frame[1] == i && frame[0] == (i == 2 ? 1.0f : 0.0f));
+    }
+
+    BoundedQueue single(1, 2, BoundedQueue::DROP_OLDEST, 0);
+    float flagged[2] = {1, 0};
+    float plain[2] = {0, 1};
+    CHECK(single.push(flagged, 0));
+    CHECK(single.push(plain, 1));
+    CHECK(single.pop(frame, &ts));
+    CHECK(frame[0] == 1 && frame[1] == 1 && ts == 1);
+}
+
+static void test_queue_block() {
+    BoundedQueue queue(2, 1, BoundedQueue::BLOCK);
+    const int count = 1000;
+    // the producer outruns the consumer and has to wait; nothing is lost or reordered
+    std::thread producer([&queue]() {
+        for(int i = 0; i < count; ++i) {
+            float v = (float)i;
+            CHECK(queue.push(&v, i));
+        }
+        queue.close();
+    });
+    float v;
+    int64_t ts;
+    int expected = 0;
+    while(queue.pop(&v, &ts)) {
+        CHECK(v == expected && ts == expected);
+        expected++;
+        if(expected % 100 == 0) {
+            std::this_thread::sleep_for(std::chrono::milliseconds(1));
+        }
+    }
+    producer.join();
+    CHECK(expected == count);
+    CHECK(queue.dropped() == 0);
+}
+
+// mean time the callback spends handing over one block, inline and threaded
+static void bench(SonarConfig config) {
+    std::vector<float> capture = make_capture(config);
+    int block = config.frames_per_callback;
+    int blocks = (int)(capture.size() / block);
+    const int reps = 20;
+
+    for(int threaded = 0; threaded < 2; ++threaded) {
+        double total_us = 0;
+        double worst_us = 0;
+        for(int r = 0; r < reps; ++r) {
+            FMCWProcessor processor(config, block, 64);
+            SweepPipeline *pipeline = NULL;
+            CaptureSink *sink = &processor;
+            if(threaded) {
+                pipeline = new SweepPipeline(config, &processor, block, blocks + 1, NULL);
+                pipeline->start();
+                sink = pipeline;
+            }
+            for(int b = 0; b < blocks; ++b) {
+                auto t0 = std::chrono::steady_clock::now();
+                sink->process(&capture[b * block], block, (int64_t)(b + 1) * 1000000);
+                auto t1 = std::chrono::steady_clock::now();
+                double us = std::chrono::duration<double, std::micro>(t1 - t0).count();
+                total_us += us;
+                worst_us = us > worst_us ? us : worst_us;
+            }
+            if(pipeline) {
+                pipeline->flush();
+                delete pipeline;
+            }
+        }
+        printf("%s: callback %.1f us mean, %.1f us worst per %d frames\n",
+               threaded ? "threaded" : "inline", total_us / (reps * blocks), worst_us, block);
+    }
+    int pinned;
+    std::thread worker([&pinned]() { pinned = pin_to_fastest_cores(); });
+    worker.join();
+    printf("sweep thread pinned to %d cpus (-1: no cpufreq here)\n", pinned);
+}
+
+int main() {
+    SonarConfig config;
+    test_matches_inline(config);
+    config.phase_cell_count = 2;
+    config.phase_cells[0] = 20;
+    config.phase_cells[1] = 64;
+    test_matches_inline(config);
+
+    test_queue_drop_oldest();
+    test_queue_carries_flag();
+    test_queue_block();
+    bench(SonarConfig());
+
+    printf("sweep_pipeline_test passed\n");
+    return 0;
+}
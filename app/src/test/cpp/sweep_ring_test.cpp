@@ -0,0 +1,211 @@
+// Host-side tests for SweepRing, including a producer/consumer stress test that checks no
+// frame is ever observed half-written.
+
+#include <stdio.h>
+#include <stdlib.h>
+#include <atomic>
+#include <thread>
+#include <vector>
+
+#include "sweep_ring.h"
+
+#define CHECK(cond) do { \
+    if(!(cond)) { \
+        fprintf(stderr, "%s:%d: check failed: %s\n", __FILE__, __LINE__, #cond); \
+        exit(1); \
+    } \
+} while(0)
+
+static const int BINS = 128;
+
+static void fill(float *frame, uint64_t seq) {
+    for(int i = 0; i < BINS; ++i) {
+        frame[i] = (float)(seq * BINS + i);
+    }
+}
+
+// true if every bin of the frame was written for the same sweep
+static bool intact(const float *frame, uint64_t seq) {
+    for(int i = 0; i < BINS; ++i) {
+        if(frame[i] != (float)(seq * BINS + i)) {
+            return false;
+        }
+    }
+    return true;
+}
+
+static void test_fifo_order_and_overrun() {
+    SweepRing ring(8, BINS);
+    CHECK(ring.get_capacity() == 8);
+
+    float out[BINS];
+    SweepInfo info;
+    CHECK(!ring.read(out, &info));
+
+    for(uint64_t seq = 1; seq <= 8; ++seq) {
+        float *frame = ring.begin_write();
+        CHECK(frame != NULL);
+        fill(frame, seq);
+        ring.end_write((int64_t)seq * 40000000);
+    }
+    CHECK(ring.available() == 8);
+
+    // full: the ninth sweep is dropped, not written over the oldest
+    CHECK(ring.begin_write() == NULL);
+    CHECK(ring.overruns() == 1);
+
+    for(uint64_t seq = 1; seq <= 8; ++seq) {
+        CHECK(ring.read(out, &info));
+        CHECK(info.sequence == seq);
+        CHECK(info.timestamp_ns == (int64_t)seq * 40000000);
+        CHECK(intact(out, seq));
+    }
+    CHECK(!ring.read(out, &info));
+
+    // the dropped sweep shows up as a gap in the sequence numbers
+    float *frame = ring.begin_write();
+    CHECK(frame != NULL);
+    fill(frame, 10);
+    ring.end_write(0);
+    CHECK(ring.read(out, &info));
+    CHECK(info.sequence == 10);
+}
+
+static void test_concurrent_stress() {
+    const uint64_t total = 2000000;
+    SweepRing ring(16, BINS);
+    std::atomic<bool> done(false);
+
+    std::thread producer([&]() {
+        for(uint64_t seq = 1; seq <= total; ++seq) {
+            // vary the pace so the ring runs both near-empty and full
+            for(volatile int spin = 0; spin < (int)(seq % 97) * 4; ++spin) {}
+
+            float *frame = ring.begin_write();
+            if(frame) {
+                fill(frame, seq);
+                ring.end_write((int64_t)seq);
+            }
+        }
+        done.store(true);
+    });
+
+    float out[BINS];
+    SweepInfo info;
+    uint64_t received = 0;
+    uint64_t last = 0;
+    uint64_t gaps = 0;
+    bool torn = false;
+
+    while(true) {
+        bool finished = done.load();
+        while(ring.read(out, &info)) {
+            if(!intact(out, info.sequence) || info.timestamp_ns != (int64_t)info.sequence) {
+                torn = true;
+            }
+            CHECK(info.sequence > last);
+            gaps += info.sequence - last - 1;
+            last = info.sequence;
+            received++;
+        }
+        if(finished) {
+            break;
+        }
+    }
+    producer.join();
+
+    printf("stress: %llu sweeps, %llu received, %llu dropped\n",
+           (unsigned long long)total, (unsigned long long)received,
+           (unsigned long long)ring.overruns());
+
+    CHECK(!torn);
+    CHECK(received + ring.overruns() == total);
+    CHECK(gaps + (total - last) == ring.overruns());
+}
+
+static void test_paced_producer_is_lossless() {
+    // a consumer that keeps up, even sporadically, loses nothing
+    const uint64_t total = 20000;
+    SweepRing ring(64, BINS);
+
+    std::thread producer([&]() {
+        for(uint64_t seq = 1; seq <= total; ++seq) {
+            while(ring.available() >= ring.get_capacity() / 2) {
+                std::this_thread::yield();
+            }
+            float *frame = ring.begin_write();
+            CHECK(frame != NULL);
+            fill(frame, seq);
+            ring.end_write(0);
+        }
+    });
+
+    float out[BINS];
+    SweepInfo info;
+    uint64_t expected = 1;
+    while(expected <= total) {
+        if(ring.read(out, &info)) {
+            CHECK(info.sequence == expected);
+            CHECK(intact(out, expected));
+            expected++;
+        }
+    }
+    producer.join();
+    CHECK(ring.overruns() == 0);
+}
+
+static void test_latest_frame() {
+    LatestFrame latest(BINS);
+    CHECK(!latest.update());
+    CHECK(latest.read_info().sequence == 0);
+
+    // only the newest of several unread frames is seen
+    for(uint64_t seq = 1; seq <= 3; ++seq) {
+        fill(latest.write_frame(), seq);
+        latest.publish((int64_t)seq);
+    }
+    CHECK(latest.update());
+    CHECK(latest.read_info().sequence == 3);
+    CHECK(intact(latest.read_frame(), 3));
+    CHECK(!latest.update());
+    CHECK(intact(latest.read_frame(), 3));
+
+    // concurrently, frames only move forward and are never torn
+    const uint64_t total = 1000000;
+    std::atomic<bool> done(false);
+    std::thread producer([&]() {
+        for(uint64_t seq = 4; seq < 4 + total; ++seq) {
+            for(volatile int spin = 0; spin < (int)(seq % 61) * 4; ++spin) {}
+            fill(latest.write_frame(), seq);
+            latest.publish((int64_t)seq);
+        }
+        done.store(true);
+    });
+    uint64_t last = 3;
+    uint64_t taken = 0;
+    while(true) {
+        bool finished = done.load();
+        if(latest.update()) {
+            uint64_t seq = latest.read_info().sequence;
+            CHECK(seq > last);
+            CHECK(intact(latest.read_frame(), seq));
+            last = seq;
+            taken++;
+        } else if(finished) {
+            break;
+        }
+    }
+    producer.join();
+    CHECK(last == 3 + total);
+    printf("latest: %llu frames published, %llu taken\n",
+           (unsigned long long)total, (unsigned long long)taken);
+}
+
+int main() {
+    test_fifo_order_and_overrun();
+    test_concurrent_stress();
+    test_paced_producer_is_lossless();
+    test_latest_frame();
+    printf("sweep_ring_test: OK\n");
+    return 0;
+}
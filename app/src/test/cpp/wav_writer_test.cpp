@@ -0,0 +1,119 @@
+// Checks that ChunkedWavWriter produces valid float32 WAV files and rotates them at the
+// configured length without losing or duplicating samples.
+
+#include <stdio.h>
+#include <stdlib.h>
+#include <string.h>
+#include <unistd.h>
+#include <vector>
+
+#include "wav_writer.h"
+
+#define CHECK(cond) do { \
+    if(!(cond)) { \
+        fprintf(stderr, "%s:%d: check failed: %s\n", __FILE__, __LINE__, #cond); \
+        exit(1); \
+    } \
+} while(0)
+
+static uint32_t get32(const unsigned char *p) {
+    return p[0] | (p[1] << 8) | (p[2] << 16) | ((uint32_t)p[3] << 24);
+}
+
+static uint16_t get16(const unsigned char *p) {
+    return (uint16_t)(p[0] | (p[1] << 8));
+}
+
+static std::vector<unsigned char> read_file(const char *path) {
+    std::vector<unsigned char> bytes;
+    FILE *f = fopen(path, "rb");
+    CHECK(f != NULL);
+    unsigned char buf[4096];
+    size_t n;
+    while((n = fread(buf, 1, sizeof(buf), f)) > 0) {
+        bytes.insert(bytes.end(), buf, buf + n);
+    }
+    fclose(f);
+    return bytes;
+}
+
+// parses the header ChunkedWavWriter writes and appends the samples to out
+static void read_wav(const char *path, int sample_rate, std::vector<float> &out) {
+    std::vector<unsigned char> b = read_file(path);
+    CHECK(b.size() >= 58);
+    CHECK(memcmp(&b[0], "RIFF", 4) == 0);
+    CHECK(get32(&b[4]) == b.size() - 8);
+    CHECK(memcmp(&b[8], "WAVE", 4) == 0);
+    CHECK(memcmp(&b[12], "fmt ", 4) == 0);
+    CHECK(get16(&b[20]) == 3);
+    CHECK(get16(&b[22]) == 1);
+    CHECK(get32(&b[24]) == (uint32_t)sample_rate);
+    CHECK(get16(&b[34]) == 32);
+    CHECK(memcmp(&b[38], "fact", 4) == 0);
+    uint32_t frames = get32(&b[46]);
+    CHECK(memcmp(&b[50], "data", 4) == 0);
+    uint32_t data_bytes = get32(&b[54]);
+    CHECK(data_bytes == frames * 4);
+    CHECK(b.size() == 58 + data_bytes);
+
+    size_t start = out.size();
+    out.resize(start + frames);
+    memcpy(&out[start], &b[58], data_bytes);
+}
+
+int main() {
+    char dir[] = "/tmp/wav_writer_testXXXXXX";
+    CHECK(mkdtemp(dir) != NULL);
+    std::string prefix = std::string(dir) + "/rec";
+
+    const int sample_rate = 48000;
+    const int per_file = 10000;
+    const int chunk = 4096;
+    const int total = 3 * per_file + 123;
+
+    std::vector<float> samples(total);
+    for(int i = 0; i < total; ++i) {
+        samples[i] = (float)i / total - 0.5f;
+    }
+
+    {
+        ChunkedWavWriter writer(prefix, sample_rate, per_file);
+        for(int i = 0; i < total; i += chunk) {
+            int n = total - i < chunk ? total - i : chunk;
+            CHECK(writer.write(&samples[i], n, 0));
+        }
+        CHECK(writer.get_file_count() == 4);
+    }
+
+    std::vector<float> back;
+    for(int k = 0; k < 4; ++k) {
+        char path[256];
+        snprintf(path, sizeof(path), "%s-%04d.wav", prefix.c_str(), k);
+        size_t before = back.size();
+        read_wav(path, sample_rate, back);
+        CHECK(back.size() - before == (size_t)(k < 3 ? per_file : 123));
+        unlink(path);
+    }
+    CHECK(back == samples);
+
+    // a failed open stops the capture instead of dropping samples silently
+    {
+        ChunkedWavWriter writer(std::string(dir) + "/missing/rec", sample_rate, per_file);
+        CHECK(!writer.write(&samples[0], chunk, 0));
+    }
+
+    // file lengths that would never fill, or overflow the header, are refused without
+    // creating a file
+    {
+        ChunkedWavWriter empty(prefix, sample_rate, 0);
+        CHECK(!empty.write(&samples[0], chunk, 0));
+        CHECK(empty.get_file_count() == 0);
+        ChunkedWavWriter huge(prefix, sample_rate, ChunkedWavWriter::MAX_SAMPLES_PER_FILE + 1);
+        CHECK(!huge.write(&samples[0], chunk, 0));
+        CHECK(huge.get_file_count() == 0);
+    }
+
+    rmdir(dir);
+    printf("wav_writer_test passed\n");
+    return 0;
+}
@@ -0,0 +1,46 @@
+package edu.washington.cs.puddlejumper;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class DecayingMaxTest {
+    @Test
+    public void update_followsLargerValuesImmediately() throws Exception {
+        DecayingMax max = new DecayingMax(10);
+        assertEquals(3f, max.update(new float[]{1, 3, 2}, 3), 0f);
+        assertEquals(5f, max.update(new float[]{5, 0, 0}, 3), 0f);
+    }
+
+    @Test
+    public void update_halvesUnrenewedPeakOverHalfLife() throws Exception {
+        DecayingMax max = new DecayingMax(10);
+        float [] quiet = new float[]{0.01f};
+        max.update(new float[]{8}, 1);
+        for(int i = 0; i < 10; ++i) {
+            max.update(quiet, 1);
+        }
+        assertEquals(4f, max.get(), 1e-4f);
+        for(int i = 0; i < 1000; ++i) {
+            max.update(quiet, 1);
+        }
+        // settles on the level actually present
+        assertEquals(0.01f, max.get(), 1e-6f);
+    }
+
+    @Test
+    public void update_onlyLooksAtCountValues() throws Exception {
+        DecayingMax max = new DecayingMax(1);
+        assertEquals(1f, max.update(new float[]{1, 100}, 1), 0f);
+    }
+
+    @Test
+    public void get_isUsableAsDivisorBeforeAnyUpdate() throws Exception {
+        DecayingMax max = new DecayingMax(5);
+        assertTrue(max.get() > 0);
+        max.update(new float[]{0, 0}, 2);
+        assertTrue(max.get() > 0);
+        max.reset();
+        assertTrue(max.get() > 0);
+    }
+}
@@ -0,0 +1,236 @@
+package edu.washington.cs.puddlejumper;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.util.Arrays;
+
+import static org.junit.Assert.*;
+import static org.junit.Assume.assumeTrue;
+
+/**
+ * Needs the host build of libpuddlejumper_replay (see src/test/cpp/CMakeLists.txt);
+ * skipped when it hasn't been built.
+ */
+public class FMCWReplayTest {
+
+    private static final int LEAD_IN = 300;
+    private static final int PERIODS = 6;
+
+    @Before
+    public void loadLibrary() {
+        String path = System.getProperty("puddlejumper.replayLibrary");
+        assumeTrue(path != null && new File(path).isFile());
+        System.load(path);
+    }
+
+    // silence, then PERIODS chirps in every band, each followed by an equally long rest
+    private static float [] capture(SonarConfig config) {
+        int duration = config.getDurationSamples();
+        double T = config.getDuration() / 1000.0;
+        double B = config.getBandwidth();
+        int bands = config.getBandCount();
+
+        float [] audio = new float[LEAD_IN + 2 * PERIODS * duration + duration / 2];
+        for(int k = 0; k < PERIODS; ++k) {
+            for(int n = 0; n < duration; ++n) {
+                double t = (double)n / config.getSampleRate();
+                double sum = 0;
+                for(int b = 0; b < bands; ++b) {
+                    double f0 = config.getBandBaseband(b);
+                    sum += Math.sin(B / T * Math.PI * Math.pow(t + f0 / B * T, 2));
+                }
+                audio[LEAD_IN + 2 * k * duration + n] = (float)(sum / bands);
+            }
+        }
+        return audio;
+    }
+
+    @Test
+    public void replay_locksOntoPilotAndCutsEverySweep() throws Exception {
+        SonarConfig config = new SonarConfig().setClutterMode(SonarConfig.CLUTTER_OFF);
+        float [] audio = capture(config);
+
+        FMCWReplay replay = new FMCWReplay(config);
+        try {
+            assertEquals(-1, replay.getPilotPosition());
+            assertEquals(PERIODS, replay.process(audio, 0, audio.length));
+            assertEquals(LEAD_IN, replay.getPilotPosition());
+
+            float [] first = new float[config.getBinCount()];
+            float [] mags = new float[config.getBinCount()];
+            assertTrue(replay.nextSweep(first));
+            assertEquals(1, replay.getSequence());
+
+            // the capture repeats exactly, so every profile matches the first
+            for(int k = 2; k <= PERIODS; ++k) {
+                assertTrue(replay.nextSweep(mags));
+                assertEquals(k, replay.getSequence());
+                long end = LEAD_IN + (2L * (k - 1) + 1) * config.getDurationSamples();
+                assertEquals(end * 1000000000L / config.getSampleRate(), replay.getTimestamp(), 1000);
+                assertArrayEquals(first, mags, 1e-4f * max(first));
+            }
+            assertFalse(replay.nextSweep(mags));
+            assertEquals(0, replay.getOverruns());
+            assertTrue(max(first) > 0);
+        } finally {
+            replay.close();
+        }
+    }
+
+    @Test
+    public void replay_sameSweepsWhateverTheBlockSize() throws Exception {
+        SonarConfig config = new SonarConfig().setClutterMode(SonarConfig.CLUTTER_OFF);
+        float [] audio = capture(config);
+
+        FMCWReplay whole = new FMCWReplay(config);
+        FMCWReplay pieces = new FMCWReplay(config);
+        try {
+            // the pilot is only searched for within a block, so it mustn't straddle one
+            whole.process(audio, 0, audio.length);
+            for(int i = 0; i < audio.length; i += 500) {
+                pieces.process(audio, i, Math.min(500, audio.length - i));
+            }
+
+            float [] a = new float[config.getBinCount()];
+            float [] b = new float[config.getBinCount()];
+            int count = 0;
+            while(whole.nextSweep(a)) {
+                assertTrue(pieces.nextSweep(b));
+                assertArrayEquals(a, b, 0f);
+                count++;
+            }
+            assertFalse(pieces.nextSweep(b));
+            assertEquals(PERIODS, count);
+        } finally {
+            whole.close();
+            pieces.close();
+        }
+    }
+
+    @Test
+    public void pollTracks_staticSceneLeavesNothingConfident() throws Exception {
+        // with clutter removal, a scene that never changes has nothing to track
+        SonarConfig config = new SonarConfig();
+        float [] audio = capture(config);
+
+        FMCWReplay replay = new FMCWReplay(config);
+        try {
+            float [] tracks = new float[RangeTracks.MAX_TRACKS * RangeTracks.STRIDE];
+            assertEquals(0, replay.pollTracks(tracks));
+            replay.process(audio, 0, audio.length);
+            int count = replay.pollTracks(tracks);
+            assertTrue(count >= 0 && count <= RangeTracks.MAX_TRACKS);
+            for(int i = 0; i < count; ++i) {
+                assertTrue(tracks[i * RangeTracks.STRIDE + RangeTracks.CONFIDENCE] < 0.5f);
+            }
+        } finally {
+            replay.close();
+        }
+    }
+
+    @Test
+    public void pollPhase_staticSceneStaysPut() throws Exception {
+        // PERIODS sweeps in twos: three outputs, each cell still where it started
+        SonarConfig config = new SonarConfig().setPhaseCells(20, 64).setPhaseDecimation(2);
+        float [] audio = capture(config);
+
+        FMCWReplay replay = new FMCWReplay(config);
+        try {
+            float [] phase = new float[PhaseRanging.MAX_CELLS * PhaseRanging.STRIDE];
+            assertEquals(0, replay.pollPhase(phase));
+            replay.process(audio, 0, audio.length);
+            for(int k = 1; k <= PERIODS / 2; ++k) {
+                assertEquals(k, replay.pollPhase(phase));
+                assertTrue(replay.getPhaseTimestamp() > 0);
+                for(int c = 0; c < 2; ++c) {
+                    assertEquals(0, phase[c * PhaseRanging.STRIDE + PhaseRanging.DISPLACEMENT], 1e-6f);
+                    assertTrue(phase[c * PhaseRanging.STRIDE + PhaseRanging.AMPLITUDE] > 0);
+                }
+            }
+            assertEquals(0, replay.pollPhase(phase));
+        } finally {
+            replay.close();
+        }
+    }
+
+    @Test
+    public void pollAlignment_steadyCaptureNeedsNoCorrection() throws Exception {
+        SonarConfig config = new SonarConfig();
+        float [] audio = capture(config);
+
+        FMCWReplay replay = new FMCWReplay(config);
+        try {
+            float [] alignment = new float[SweepAlignment.STRIDE];
+            replay.pollAlignment(alignment);
+            assertEquals(0, alignment[SweepAlignment.LOCKED], 0);
+            replay.process(audio, 0, audio.length);
+            replay.pollAlignment(alignment);
+            assertEquals(1, alignment[SweepAlignment.LOCKED], 0);
+            assertTrue(alignment[SweepAlignment.SIMILARITY] > 0.9f);
+            assertEquals(0, alignment[SweepAlignment.DRIFT], 0);
+            assertEquals(0, alignment[SweepAlignment.CORRECTIONS], 0);
+            assertEquals(0, alignment[SweepAlignment.RELOCKS], 0);
+        } finally {
+            replay.close();
+        }
+    }
+
+    @Test
+    public void pollBands_eachBandSeesItsOwnChirp() throws Exception {
+        SonarConfig config = new SonarConfig()
+                .setClutterMode(SonarConfig.CLUTTER_OFF)
+                .setBands(2, 0)
+                .validate();
+        float [] audio = capture(config);
+        int bins = config.getBinCount();
+
+        FMCWReplay replay = new FMCWReplay(config);
+        try {
+            assertEquals(PERIODS, replay.process(audio, 0, audio.length));
+            assertEquals(LEAD_IN, replay.getPilotPosition());
+
+            float [] mags = new float[bins];
+            float [] bands = new float[2 * bins];
+            for(int k = 1; k <= PERIODS; ++k) {
+                assertTrue(replay.nextSweep(mags));
+                assertEquals(k, replay.pollBands(bands));
+                // both bands carry half the signal, so neither is much weaker than the other
+                float [] first = Arrays.copyOfRange(bands, 0, bins);
+                float [] second = Arrays.copyOfRange(bands, bins, 2 * bins);
+                assertTrue(max(first) > 0.5f * max(second));
+                assertTrue(max(second) > 0.5f * max(first));
+                // with two bands the profile is the smaller of them at each bin
+                for(int j = 0; j < bins; ++j) {
+                    assertEquals(Math.min(first[j], second[j]), mags[j], 0);
+                }
+            }
+            assertEquals(0, replay.pollBands(bands));
+        } finally {
+            replay.close();
+        }
+    }
+
+    @Test
+    public void pollBands_noneWithOneBand() throws Exception {
+        SonarConfig config = new SonarConfig();
+        float [] audio = capture(config);
+
+        FMCWReplay replay = new FMCWReplay(config);
+        try {
+            assertEquals(PERIODS, replay.process(audio, 0, audio.length));
+            assertEquals(0, replay.pollBands(new float[config.getBinCount()]));
+        } finally {
+            replay.close();
+        }
+    }
+
+    private static float max(float [] values) {
+        float max = 0;
+        for(float v : values) {
+            max = Math.max(max, v);
+        }
+        return max;
+    }
+}
@@ -0,0 +1,74 @@
+package edu.washington.cs.puddlejumper;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class FramePacerTest {
+
+    private static final long VSYNC_NS = 16666667L;
+
+    @Test
+    public void shouldDraw_onlyWhenDirty() throws Exception {
+        FramePacer pacer = new FramePacer(25);
+        assertFalse(pacer.shouldDraw(0));
+
+        pacer.markDirty();
+        assertTrue(pacer.shouldDraw(0));
+        // nothing new since
+        assertFalse(pacer.shouldDraw(100 * VSYNC_NS));
+    }
+
+    @Test
+    public void shouldDraw_cappedAtRate() throws Exception {
+        // a new sweep every vsync, but only 25 frames a second
+        FramePacer pacer = new FramePacer(25);
+        int frames = 0;
+        for(int i = 0; i < 60; ++i) {
+            pacer.markDirty();
+            if(pacer.shouldDraw(i * VSYNC_NS)) {
+                frames++;
+            }
+        }
+        // every other vsync: the quarter interval of slack lets 33 ms through for a 40 ms cap
+        assertEquals(30, frames);
+    }
+
+    @Test
+    public void shouldDraw_keepsPaceWithSweeps() throws Exception {
+        // a sweep every 40 ms against a 60 Hz vsync: each one is drawn at the next vsync
+        FramePacer pacer = new FramePacer(25);
+        int frames = 0;
+        long nextSweepNs = 0;
+        for(int i = 0; i < 600; ++i) {
+            long t = i * VSYNC_NS;
+            if(t >= nextSweepNs) {
+                pacer.markDirty();
+                nextSweepNs += 40000000L;
+            }
+            if(pacer.shouldDraw(t)) {
+                frames++;
+            }
+        }
+        assertEquals(250, frames);
+    }
+
+    @Test
+    public void reset_forgetsLastFrame() throws Exception {
+        FramePacer pacer = new FramePacer(25);
+        pacer.markDirty();
+        assertTrue(pacer.shouldDraw(1000));
+
+        pacer.markDirty();
+        assertFalse(pacer.shouldDraw(1000 + VSYNC_NS));
+        pacer.reset();
+        assertFalse(pacer.shouldDraw(1000 + VSYNC_NS));
+        pacer.markDirty();
+        assertTrue(pacer.shouldDraw(1000 + VSYNC_NS));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void constructor_rejectsNonPositiveRate() throws Exception {
+        new FramePacer(0);
+    }
+}
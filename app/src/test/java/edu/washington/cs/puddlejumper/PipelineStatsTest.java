@@ -0,0 +1,61 @@
+package edu.washington.cs.puddlejumper;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class PipelineStatsTest {
+    private static final int STRIDE = PipelineStats.BUCKETS + 2;
+
+    // a snapshot with the given bucket counts for one stage
+    private static PipelineStats snapshot(int stage, long maxNanos, long totalNanos, long... buckets) {
+        long [] histograms = new long[PipelineStats.STAGES * STRIDE];
+        System.arraycopy(buckets, 0, histograms, stage * STRIDE, buckets.length);
+        histograms[stage * STRIDE + PipelineStats.BUCKETS] = totalNanos;
+        histograms[stage * STRIDE + PipelineStats.BUCKETS + 1] = maxNanos;
+        PipelineStats stats = new PipelineStats();
+        stats.load(new long[PipelineStats.COUNTERS], histograms);
+        return stats;
+    }
+
+    @Test
+    public void percentile_isTopOfBucketHoldingRank() throws Exception {
+        // 90 callbacks in [4, 8) us, 9 in [512, 1024) us, one at 3 ms
+        long [] buckets = new long[PipelineStats.BUCKETS];
+        buckets[3] = 90;
+        buckets[10] = 9;
+        buckets[12] = 1;
+        PipelineStats stats = snapshot(PipelineStats.CALLBACK, 3000000, 10000000, buckets);
+
+        assertEquals(100, stats.getSampleCount(PipelineStats.CALLBACK));
+        assertEquals(100000, stats.getMeanNanos(PipelineStats.CALLBACK));
+        assertEquals(8000, stats.getPercentileNanos(PipelineStats.CALLBACK, 0.5));
+        assertEquals(8000, stats.getPercentileNanos(PipelineStats.CALLBACK, 0.9));
+        assertEquals(1024000, stats.getPercentileNanos(PipelineStats.CALLBACK, 0.99));
+        // capped at the longest duration seen rather than the bucket's 4.096 ms
+        assertEquals(3000000, stats.getPercentileNanos(PipelineStats.CALLBACK, 1.0));
+    }
+
+    @Test
+    public void percentile_lastBucketReportsMax() throws Exception {
+        long [] buckets = new long[PipelineStats.BUCKETS];
+        buckets[PipelineStats.BUCKETS - 1] = 1;
+        PipelineStats stats = snapshot(PipelineStats.RENDER, 60000000000L, 60000000000L, buckets);
+        assertEquals(60000000000L, stats.getPercentileNanos(PipelineStats.RENDER, 0.5));
+    }
+
+    @Test
+    public void emptyStage_reportsZero() throws Exception {
+        PipelineStats stats = snapshot(PipelineStats.RENDER, 0, 0);
+        assertEquals(0, stats.getSampleCount(PipelineStats.PILOT_SEARCH));
+        assertEquals(0, stats.getMeanNanos(PipelineStats.PILOT_SEARCH));
+        assertEquals(0, stats.getPercentileNanos(PipelineStats.PILOT_SEARCH, 0.99));
+    }
+
+    @Test
+    public void bucketLimits_doubleFromOneMicrosecond() throws Exception {
+        assertEquals(1000, PipelineStats.bucketLimitNanos(0));
+        assertEquals(2000, PipelineStats.bucketLimitNanos(1));
+        assertEquals(1024000, PipelineStats.bucketLimitNanos(10));
+    }
+}
@@ -0,0 +1,125 @@
+package edu.washington.cs.puddlejumper;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class SonarConfigTest {
+    @Test
+    public void defaults_matchOriginalGeometry() throws Exception {
+        SonarConfig config = new SonarConfig().validate();
+        assertEquals(960, config.getDurationSamples());
+        assertEquals(960, config.getFftSize());
+        assertEquals(60, config.getPilotWidth());
+        assertEquals(200, config.getBasebandBin());
+        assertEquals(128, config.getBinCount());
+        assertEquals(3.43f, config.getMaxRange(), 1e-4f);
+    }
+
+    @Test
+    public void maxRange_followsSweepGeometry() throws Exception {
+        // halving the duration halves the range covered by the same band
+        SonarConfig shorter = new SonarConfig().setDuration(10).validate();
+        assertEquals(64, shorter.getBinCount());
+        assertEquals(1.715f, shorter.getMaxRange(), 1e-4f);
+
+        // zero padding adds bins, not range
+        SonarConfig padded = new SonarConfig().setFftSize(1920).validate();
+        assertEquals(256, padded.getBinCount());
+        assertEquals(3.43f, padded.getMaxRange(), 1e-4f);
+    }
+
+    @Test
+    public void zoom_padsSweepForFinerBins() throws Exception {
+        SonarConfig zoomed = new SonarConfig().setZoom(4).setFftBackend(SonarConfig.FFT_CHIRP_Z).validate();
+        assertEquals(3840, zoomed.getFftSize());
+        assertEquals(800, zoomed.getBasebandBin());
+        assertEquals(512, zoomed.getBinCount());
+        assertEquals(3.43f, zoomed.getMaxRange(), 1e-4f);
+
+        // an explicit FFT size wins
+        assertEquals(1920, new SonarConfig().setZoom(4).setFftSize(1920).getFftSize());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void validate_rejectsZeroZoom() throws Exception {
+        new SonarConfig().setZoom(0).validate();
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void validate_rejectsBandPastNyquist() throws Exception {
+        new SonarConfig().setBaseband(20000).setBandwidth(6400).validate();
+    }
+
+    @Test
+    public void bands_spacedFromBaseband() throws Exception {
+        SonarConfig config = new SonarConfig().setBaseband(4000).setBandwidth(3000);
+        config.setBands(3, 0).validate();
+        assertEquals(7000, config.getBandBaseband(1));
+        assertEquals(10000, config.getBandBaseband(2));
+        config.setBands(3, 6100).validate();
+        assertEquals(3, config.getBandCount());
+        assertEquals(16200, config.getBandBaseband(2));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void validate_rejectsOverlappingBands() throws Exception {
+        new SonarConfig().setBands(2, 3200).validate();
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void validate_rejectsTopBandPastNyquist() throws Exception {
+        new SonarConfig().setBands(3, 0).validate();
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void validate_rejectsTooManyBands() throws Exception {
+        new SonarConfig().setBaseband(1000).setBandwidth(1000).setBands(5, 0).validate();
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void validate_rejectsFftShorterThanSweep() throws Exception {
+        new SonarConfig().setFftSize(512).validate();
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void validate_rejectsUnknownAudioMode() throws Exception {
+        new SonarConfig().setAudioMode(2).validate();
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void validate_rejectsUnknownPipelineMode() throws Exception {
+        new SonarConfig().setPipelineMode(2).validate();
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void validate_rejectsUnknownQueuePolicy() throws Exception {
+        new SonarConfig().setQueuePolicy(-1).validate();
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void validate_rejectsUnknownClutterMode() throws Exception {
+        new SonarConfig().setClutterMode(3).validate();
+    }
+
+    @Test
+    public void phaseCells_copiedInAndOut() throws Exception {
+        int [] cells = {3, 40};
+        SonarConfig config = new SonarConfig().setPhaseCells(cells).validate();
+        cells[0] = 99;
+        assertArrayEquals(new int[] {3, 40}, config.getPhaseCells());
+        config.getPhaseCells()[1] = 99;
+        assertEquals(40, config.getPhaseCells()[1]);
+        assertEquals(2, config.getPhaseCellCount());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void validate_rejectsPhaseCellOutsideBand() throws Exception {
+        new SonarConfig().setPhaseCells(0, 128).validate();
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void validate_rejectsTooManyPhaseCells() throws Exception {
+        new SonarConfig().setPhaseCells(0, 1, 2, 3, 4, 5, 6, 7, 8).validate();
+    }
+}
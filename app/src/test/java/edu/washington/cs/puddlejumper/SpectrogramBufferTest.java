@@ -0,0 +1,79 @@
+package edu.washington.cs.puddlejumper;
+
+import org.junit.Test;
+
+import java.lang.management.ManagementFactory;
+
+import static org.junit.Assert.*;
+
+public class SpectrogramBufferTest {
+
+    private static final int WIDTH = 600;
+    private static final int BINS = 128;
+
+    private static float [] sweep(int seed) {
+        float [] mags = new float[BINS];
+        for(int i = 0; i < BINS; ++i) {
+            mags[i] = (float)Math.abs(Math.sin(seed * 0.37 + i * 0.11));
+        }
+        return mags;
+    }
+
+    @Test
+    public void pushColumn_colorsColumnAndBlanksNext() throws Exception {
+        SpectrogramBuffer buf = new SpectrogramBuffer(WIDTH, BINS);
+        float [] mags = sweep(1);
+
+        assertEquals(0, buf.pushColumn(mags, 1.0f));
+        assertEquals(1, buf.getCurrentColumn());
+
+        int [] pixels = buf.getPixels();
+        for(int i = 0; i < BINS; ++i) {
+            assertEquals(ViridisColorMap.convertToColor(mags[i]), pixels[i * WIDTH]);
+            assertEquals(0xff000000, pixels[i * WIDTH + 1]);
+        }
+    }
+
+    @Test
+    public void pushColumn_wrapsAtWidth() throws Exception {
+        SpectrogramBuffer buf = new SpectrogramBuffer(WIDTH, BINS);
+        float [] mags = sweep(2);
+
+        for(int i = 0; i < WIDTH - 1; ++i) {
+            buf.pushColumn(mags, 1.0f);
+        }
+        assertEquals(WIDTH - 1, buf.pushColumn(mags, 1.0f));
+        assertEquals(1, buf.dirtyColumns(WIDTH - 1));
+        assertEquals(0, buf.pushColumn(mags, 1.0f));
+    }
+
+    @Test
+    public void pushColumn_doesNotAllocate() throws Exception {
+        com.sun.management.ThreadMXBean threads =
+                (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long tid = Thread.currentThread().getId();
+
+        SpectrogramBuffer buf = new SpectrogramBuffer(WIDTH, BINS);
+        float [][] sweeps = new float[16][];
+        for(int i = 0; i < sweeps.length; ++i) {
+            sweeps[i] = sweep(i);
+        }
+
+        // warm up so the measured loop runs compiled code
+        for(int i = 0; i < 20000; ++i) {
+            buf.pushColumn(sweeps[i % sweeps.length], 1.0f);
+        }
+
+        long overhead = threads.getThreadAllocatedBytes(tid);
+        overhead = threads.getThreadAllocatedBytes(tid) - overhead;
+
+        int frames = 5000;
+        long before = threads.getThreadAllocatedBytes(tid);
+        for(int i = 0; i < frames; ++i) {
+            buf.pushColumn(sweeps[i % sweeps.length], 1.0f);
+        }
+        long allocated = threads.getThreadAllocatedBytes(tid) - before - overhead;
+
+        assertEquals("bytes allocated over " + frames + " frames", 0, allocated);
+    }
+}
@@ -0,0 +1,156 @@
+package edu.washington.cs.puddlejumper;
+
+import org.junit.Test;
+
+import java.io.File;
+import java.io.StringWriter;
+
+import static org.junit.Assert.*;
+
+public class SweepRecorderTest {
+
+    private static float [] sweep(SonarConfig config, int seq) {
+        float [] mags = new float[config.getBinCount()];
+        for(int i = 0; i < mags.length; ++i) {
+            mags[i] = seq * 0.001f + i * 0.5f;
+        }
+        return mags;
+    }
+
+    @Test
+    public void recordedSweeps_readBackWithHeader() throws Exception {
+        SonarConfig config = new SonarConfig();
+        File log = File.createTempFile("sweeps", ".bin");
+        log.deleteOnExit();
+
+        SweepRecorder recorder = new SweepRecorder(log, config);
+        for(int seq = 1; seq <= 100; ++seq) {
+            recorder.record(sweep(config, seq), seq * 40000000L, seq);
+        }
+        recorder.close();
+        assertEquals(0, recorder.getDropped());
+
+        SweepLogReader reader = new SweepLogReader(log);
+        assertEquals(48000, reader.getSampleRate());
+        assertEquals(10000, reader.getBaseband());
+        assertEquals(6400, reader.getBandwidth());
+        assertEquals(20, reader.getDuration());
+        assertEquals(960, reader.getFftSize());
+        assertEquals(200, reader.getBasebandBin());
+        assertEquals(128, reader.getBinCount());
+        assertEquals(SonarConfig.CLUTTER_SUBTRACT, reader.getClutterMode());
+        assertEquals(2000, reader.getClutterTimeConstant());
+
+        float [] out = new float[reader.getBinCount()];
+        for(int seq = 1; seq <= 100; ++seq) {
+            assertTrue(reader.next(out));
+            assertEquals(seq, reader.getSequence());
+            assertEquals(seq * 40000000L, reader.getTimestamp());
+            assertArrayEquals(sweep(config, seq), out, 0);
+        }
+        assertFalse(reader.next(out));
+        reader.close();
+    }
+
+    @Test
+    public void header_recordsClutterMode() throws Exception {
+        SonarConfig config = new SonarConfig()
+                .setClutterMode(SonarConfig.CLUTTER_OFF)
+                .setClutterTimeConstant(500);
+        File log = File.createTempFile("sweeps", ".bin");
+        log.deleteOnExit();
+
+        new SweepRecorder(log, config).close();
+        SweepLogReader reader = new SweepLogReader(log);
+        assertEquals(SonarConfig.CLUTTER_OFF, reader.getClutterMode());
+        assertEquals(500, reader.getClutterTimeConstant());
+        reader.close();
+    }
+
+    @Test
+    public void flush_writesPartialBatch() throws Exception {
+        SonarConfig config = new SonarConfig();
+        File log = File.createTempFile("sweeps", ".bin");
+        log.deleteOnExit();
+
+        // a batch and a bit, then capture stops with the recorder still open
+        SweepRecorder recorder = new SweepRecorder(log, config);
+        for(int seq = 1; seq <= 40; ++seq) {
+            recorder.record(sweep(config, seq), seq, seq);
+        }
+        recorder.flush();
+
+        long expected = SweepRecorder.HEADER_BYTES
+                + 40L * (SweepRecorder.FRAME_HEADER_BYTES + 4 * config.getBinCount());
+        long deadline = System.currentTimeMillis() + 5000;
+        while(log.length() < expected && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+
+        SweepLogReader reader = new SweepLogReader(log);
+        float [] out = new float[reader.getBinCount()];
+        for(int seq = 1; seq <= 40; ++seq) {
+            assertTrue(reader.next(out));
+            assertEquals(seq, reader.getSequence());
+            assertArrayEquals(sweep(config, seq), out, 0);
+        }
+        assertFalse(reader.next(out));
+        reader.close();
+
+        // later sweeps carry on after the flushed ones
+        recorder.record(sweep(config, 41), 41, 41);
+        recorder.close();
+        reader = new SweepLogReader(log);
+        for(int seq = 1; seq <= 41; ++seq) {
+            assertTrue(reader.next(out));
+            assertEquals(seq, reader.getSequence());
+        }
+        assertFalse(reader.next(out));
+        reader.close();
+    }
+
+    @Test
+    public void reset_keepsOnlyLaterSweeps() throws Exception {
+        SonarConfig config = new SonarConfig();
+        File log = File.createTempFile("sweeps", ".bin");
+        log.deleteOnExit();
+
+        SweepRecorder recorder = new SweepRecorder(log, config);
+        for(int seq = 1; seq <= 50; ++seq) {
+            recorder.record(sweep(config, seq), seq, seq);
+        }
+        recorder.reset();
+        recorder.record(sweep(config, 51), 51, 51);
+        recorder.close();
+
+        SweepLogReader reader = new SweepLogReader(log);
+        float [] out = new float[reader.getBinCount()];
+        assertTrue(reader.next(out));
+        assertEquals(51, reader.getSequence());
+        assertFalse(reader.next(out));
+        reader.close();
+    }
+
+    @Test
+    public void converter_writesOriginalTextFormat() throws Exception {
+        SonarConfig config = new SonarConfig();
+        File log = File.createTempFile("sweeps", ".bin");
+        log.deleteOnExit();
+
+        SweepRecorder recorder = new SweepRecorder(log, config);
+        StringBuilder expected = new StringBuilder();
+        for(int seq = 1; seq <= 3; ++seq) {
+            float [] mags = sweep(config, seq);
+            recorder.record(mags, seq, seq);
+            for(int i = 0; i < mags.length; ++i) {
+                expected.append(String.format("%.5f ", mags[i]));
+            }
+            expected.append('\n');
+        }
+        recorder.close();
+
+        StringWriter text = new StringWriter();
+        assertEquals(3, SweepLogConverter.toText(log, text));
+        assertEquals(expected.toString(), text.toString());
+    }
+}
@@ -0,0 +1,86 @@
+package edu.washington.cs.puddlejumper;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class ViridisColorMapTest {
+
+    private static final int BLACK = 0xff000000;
+
+    // the middle of each of the 256 index ranges, and 1.0 for the last
+    private static double entry(int i) {
+        return i < 255 ? (i + 0.5) / 255 : 1.0;
+    }
+
+    @Test
+    public void convertToColor_matchesPalette() throws Exception {
+        assertEquals(0xff440154, ViridisColorMap.convertToColor(0.0));
+        assertEquals(0xff440255, ViridisColorMap.convertToColor(entry(1)));
+        assertEquals(0xff3a528b, ViridisColorMap.convertToColor(entry(64)));
+        assertEquals(0xff20908d, ViridisColorMap.convertToColor(0.5));
+        assertEquals(0xff20918c, ViridisColorMap.convertToColor(entry(128)));
+        assertEquals(0xff5ec962, ViridisColorMap.convertToColor(entry(192)));
+        assertEquals(0xfffbe723, ViridisColorMap.convertToColor(entry(254)));
+        assertEquals(0xfffee724, ViridisColorMap.convertToColor(1.0));
+
+        // every entry, as computed before the palette was tabulated
+        long hash = 0;
+        for(int i = 0; i < 256; ++i) {
+            hash = hash * 31 + ViridisColorMap.convertToColor(entry(i));
+        }
+        assertEquals(-9003814945293120576L, hash);
+    }
+
+    @Test
+    public void convertToColor_clampsOutOfRange() throws Exception {
+        assertEquals(ViridisColorMap.convertToColor(0.0), ViridisColorMap.convertToColor(-0.5));
+        assertEquals(ViridisColorMap.convertToColor(1.0), ViridisColorMap.convertToColor(1.5));
+        assertEquals(ViridisColorMap.convertToColor(1.0),
+                ViridisColorMap.convertToColor(Double.POSITIVE_INFINITY));
+        assertEquals(BLACK, ViridisColorMap.convertToColor(Double.NaN));
+    }
+
+    @Test
+    public void convertColumn_matchesConvertToColor() throws Exception {
+        float [] mags = new float[300];
+        for(int i = 0; i < mags.length; ++i) {
+            mags[i] = (i - 20) / 250f;
+        }
+        mags[7] = Float.NaN;
+        int stride = 3;
+        int [] out = new int[2 + mags.length * stride];
+        ViridisColorMap.convertColumn(mags, 1.0f, out, 2, stride);
+
+        assertEquals(0, out[0]);
+        assertEquals(0, out[1]);
+        for(int i = 0; i < mags.length; ++i) {
+            assertEquals(ViridisColorMap.convertToColor(mags[i]), out[2 + i * stride]);
+            assertEquals(0, out[3 + i * stride]);
+        }
+    }
+
+    @Test
+    public void convertColumn_appliesScale() throws Exception {
+        float [] mags = {0, 10, 20, 40};
+        int [] out = new int[mags.length];
+        ViridisColorMap.convertColumn(mags, 1 / 40f, out, 0, 1);
+        assertEquals(ViridisColorMap.convertToColor(0.0), out[0]);
+        assertEquals(ViridisColorMap.convertToColor(0.25), out[1]);
+        assertEquals(ViridisColorMap.convertToColor(0.5), out[2]);
+        assertEquals(ViridisColorMap.convertToColor(1.0), out[3]);
+    }
+
+    @Test
+    public void convertColumnDb_spansRange() throws Exception {
+        // full scale, 20 dB down, 40 dB down at the bottom, and below it
+        float [] mags = {2, 0.2f, 0.02f, 0.002f, 0};
+        int [] out = new int[mags.length];
+        ViridisColorMap.convertColumnDb(mags, 0.5f, 40, out, 0, 1);
+        assertEquals(ViridisColorMap.convertToColor(1.0), out[0]);
+        assertEquals(ViridisColorMap.convertToColor(0.5), out[1]);
+        assertEquals(ViridisColorMap.convertToColor(0.0), out[2]);
+        assertEquals(ViridisColorMap.convertToColor(0.0), out[3]);
+        assertEquals(ViridisColorMap.convertToColor(0.0), out[4]);
+    }
+}
@@ -0,0 +1,58 @@
+package edu.washington.cs.puddlejumper;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Colouring one column of the spectrogram, written down a column of a width-wide pixel
+ * buffer the way SpectrogramBuffer lays it out.
+ */
+@State(Scope.Thread)
+public class ColorMapBenchmark {
+
+    @Param({"720", "1080", "1440"})
+    public int width;
+
+    private float [][] sweeps;
+    private float scale;
+    private int [] pixels;
+    private int sweep = 0;
+    private int column = 0;
+
+    @Setup
+    public void setup() {
+        sweeps = Sweeps.make();
+        scale = 1 / Sweeps.peak(sweeps);
+        pixels = new int[width * Sweeps.BINS];
+    }
+
+    @Benchmark
+    public void convertColumn() {
+        ViridisColorMap.convertColumn(sweeps[sweep], scale, pixels, column, width);
+        advance();
+    }
+
+    @Benchmark
+    public void convertColumnDb() {
+        ViridisColorMap.convertColumnDb(sweeps[sweep], scale, 60, pixels, column, width);
+        advance();
+    }
+
+    // a pixel at a time through convertToColor, as the render loop used to
+    @Benchmark
+    public void convertToColorPerPixel() {
+        float [] mags = sweeps[sweep];
+        for(int i = 0; i < Sweeps.BINS; ++i) {
+            pixels[column + i * width] = ViridisColorMap.convertToColor(mags[i] * scale);
+        }
+        advance();
+    }
+
+    private void advance() {
+        sweep = (sweep + 1) % Sweeps.COUNT;
+        column = (column + 1) % width;
+    }
+}
@@ -0,0 +1,31 @@
+package edu.washington.cs.puddlejumper;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Finding the peak each column is normalised by (see DecayingMax), with the half-life
+ * SpectrogramView uses at the default sweep rate.
+ */
+@State(Scope.Thread)
+public class NormalisationBenchmark {
+
+    private float [][] sweeps;
+    private DecayingMax peak;
+    private int sweep = 0;
+
+    @Setup
+    public void setup() {
+        sweeps = Sweeps.make();
+        peak = new DecayingMax(Math.round(2 * new SonarConfig().getSweepRate()));
+    }
+
+    @Benchmark
+    public float decayingMax() {
+        float max = peak.update(sweeps[sweep], Sweeps.BINS);
+        sweep = (sweep + 1) % Sweeps.COUNT;
+        return max;
+    }
+}
@@ -0,0 +1,74 @@
+package edu.washington.cs.puddlejumper;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Adding one sweep to the spectrogram: SpectrogramBuffer.pushColumn, the copy of the columns
+ * it touched into the bitmap, and all of SpectrogramView's per-sweep work together.
+ *
+ * On the device the copy is Bitmap.setPixels, which moves the dirty columns row by row; here
+ * a second pixel array of the bitmap's shape stands in for the bitmap.
+ */
+@State(Scope.Thread)
+public class SpectrogramBufferBenchmark {
+
+    @Param({"720", "1080", "1440"})
+    public int width;
+
+    // 0 colours linearly, otherwise the decibels shown below the peak
+    @Param({"0", "60"})
+    public float rangeDb;
+
+    private float [][] sweeps;
+    private float scale;
+    private SpectrogramBuffer spectrogram;
+    private DecayingMax peak;
+    private int [] bitmap;
+    private int sweep = 0;
+    private int column = 0;
+
+    @Setup
+    public void setup() {
+        sweeps = Sweeps.make();
+        scale = Sweeps.peak(sweeps);
+        spectrogram = new SpectrogramBuffer(width, Sweeps.BINS);
+        spectrogram.setDynamicRange(rangeDb);
+        peak = new DecayingMax(Math.round(2 * new SonarConfig().getSweepRate()));
+        bitmap = new int[width * Sweeps.BINS];
+    }
+
+    @Benchmark
+    public int pushColumn() {
+        int column = spectrogram.pushColumn(sweeps[sweep], scale);
+        sweep = (sweep + 1) % Sweeps.COUNT;
+        return column;
+    }
+
+    @Benchmark
+    public void copyToBitmap() {
+        copy(column, spectrogram.dirtyColumns(column));
+        column = (column + 1) % width;
+    }
+
+    // what SpectrogramView.drain does for each sweep, less the JNI poll and the log
+    @Benchmark
+    public void renderColumn() {
+        float [] mags = sweeps[sweep];
+        int column = spectrogram.pushColumn(mags, peak.update(mags, Sweeps.BINS));
+        copy(column, spectrogram.dirtyColumns(column));
+        sweep = (sweep + 1) % Sweeps.COUNT;
+    }
+
+    // Bitmap.setPixels(pixels, column, width, column, 0, columns, bins)
+    private void copy(int column, int columns) {
+        int [] pixels = spectrogram.getPixels();
+        for(int row = 0; row < Sweeps.BINS; ++row) {
+            int offset = row * width + column;
+            System.arraycopy(pixels, offset, bitmap, offset, columns);
+        }
+    }
+}
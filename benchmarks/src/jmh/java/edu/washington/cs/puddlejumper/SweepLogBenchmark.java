@@ -0,0 +1,71 @@
+package edu.washington.cs.puddlejumper;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * Logging one sweep with SweepRecorder: serialising it into a pooled buffer on the render
+ * thread, and the writer thread writing full buffers to a temporary file.
+ *
+ * The benchmark records far faster than sweeps arrive, so on its own it would soon run the
+ * writer out of buffers and measure nothing but the cheap drop path. Instead a dropped sweep
+ * is recorded again once the writer has had a chance to free a buffer, so the score is the
+ * sustained cost per column of whichever side is slower, and the waits counter shows how
+ * often the render thread had to wait for the writer.
+ */
+@State(Scope.Thread)
+public class SweepLogBenchmark {
+
+    // sweeps between truncations, so the log stays a few megabytes however long the run
+    private static final int RESET_INTERVAL = 8192;
+
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    public static class Counters {
+        public long waits;
+    }
+
+    private float [][] sweeps;
+    private File file;
+    private SweepRecorder recorder;
+    private long sequence = 0;
+
+    @Setup(Level.Iteration)
+    public void setup() throws IOException {
+        sweeps = Sweeps.make();
+        file = File.createTempFile("sweeps", ".bin");
+        recorder = new SweepRecorder(file, new SonarConfig());
+    }
+
+    @TearDown(Level.Iteration)
+    public void tearDown() throws IOException {
+        recorder.close();
+        if(!file.delete()) {
+            file.deleteOnExit();
+        }
+    }
+
+    @Benchmark
+    public void record(Counters counters) {
+        float [] sweep = sweeps[(int)(sequence % Sweeps.COUNT)];
+        long dropped = recorder.getDropped();
+        recorder.record(sweep, sequence * 40000000L, sequence);
+        while(recorder.getDropped() != dropped) {
+            counters.waits++;
+            Thread.yield();
+            dropped = recorder.getDropped();
+            recorder.record(sweep, sequence * 40000000L, sequence);
+        }
+        if(++sequence % RESET_INTERVAL == 0) {
+            recorder.reset();
+        }
+    }
+}
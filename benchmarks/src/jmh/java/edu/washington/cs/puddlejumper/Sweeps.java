@@ -0,0 +1,52 @@
+package edu.washington.cs.puddlejumper;
+
+import java.util.Random;
+
+/**
+ * Synthetic range profiles for the benchmarks, shaped like live ones: a strong direct path
+ * near range zero, a few echoes that wander from sweep to sweep, and a noise floor.
+ */
+final class Sweeps {
+
+    // the default SonarConfig: 6.4 kHz over a 20 ms sweep at 48 kHz
+    static final int BINS = 128;
+    // cycled through, so no one column's values can be learnt by the branch predictor
+    static final int COUNT = 64;
+
+    private Sweeps() {}
+
+    static float [][] make() {
+        Random random = new Random(42);
+        float [][] sweeps = new float[COUNT][BINS];
+        for(int k = 0; k < COUNT; ++k) {
+            float [] mags = sweeps[k];
+            for(int j = 0; j < BINS; ++j) {
+                mags[j] = 0.01f * (float)Math.abs(random.nextGaussian());
+            }
+            addPeak(mags, 2, 1.0f);
+            for(int e = 0; e < 3; ++e) {
+                float centre = 20 + 30 * e + 8 * (float)Math.sin(2 * Math.PI * k / COUNT + e);
+                addPeak(mags, centre, 0.2f / (e + 1));
+            }
+        }
+        return sweeps;
+    }
+
+    // the largest magnitude over all the sweeps, for normalising them to [0, 1]
+    static float peak(float [][] sweeps) {
+        float peak = 0;
+        for(float [] mags : sweeps) {
+            for(float v : mags) {
+                peak = Math.max(peak, v);
+            }
+        }
+        return peak;
+    }
+
+    private static void addPeak(float [] mags, float centre, float height) {
+        for(int j = 0; j < mags.length; ++j) {
+            float d = (j - centre) / 1.5f;
+            mags[j] += height * (float)Math.exp(-d * d);
+        }
+    }
+}
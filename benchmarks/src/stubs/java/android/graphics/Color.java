@@ -0,0 +1,6 @@
+package android.graphics;
+
+// compile-time stand-in; constants are inlined, so this class is never loaded
+public class Color {
+    public static final int BLACK = 0xFF000000;
+}
@@ -0,0 +1,12 @@
+package android.os;
+
+// compile-time stand-in for SonarConfig.fromBundle, which the benchmarks never call
+public class Bundle {
+    public int getInt(String key, int defaultValue) {
+        throw new UnsupportedOperationException();
+    }
+
+    public int [] getIntArray(String key) {
+        throw new UnsupportedOperationException();
+    }
+}